@@ -1,10 +1,9 @@
 package searchengine;
 
 import org.apache.lucene.morphology.LuceneMorphology;
-import org.apache.lucene.morphology.russian.RussianLuceneMorphology;
-import org.apache.lucene.morphology.english.EnglishLuceneMorphology;
+import searchengine.services.MorphologyService;
+import searchengine.services.Tokenizer;
 
-import java.io.IOException;
 import java.util.*;
 
 
@@ -14,37 +13,31 @@ public class Lemmatizer {
     ));
 
     private LuceneMorphology luceneMorphology;
+    private Tokenizer.Script script;
 
     public Lemmatizer(String language) {
-        try {
-            // Выбираем лемматизатор в зависимости от языка
-            if ("ru".equalsIgnoreCase(language)) {
-                luceneMorphology = new RussianLuceneMorphology();
-            } else if ("en".equalsIgnoreCase(language)) {
-                luceneMorphology = new EnglishLuceneMorphology();
-            } else {
-                throw new IllegalArgumentException("Unsupported language: " + language);
-            }
-        } catch (IOException e) {
-            // Обрабатываем исключения, связанные с загрузкой данных лемматизатора
-            System.err.println("Error initializing lemmatizer: " + e.getMessage());
-            e.printStackTrace();
+        // Выбираем лемматизатор в зависимости от языка; словари общие с MorphologyService
+        if ("ru".equalsIgnoreCase(language)) {
+            luceneMorphology = MorphologyService.russian();
+            script = Tokenizer.Script.CYRILLIC;
+        } else if ("en".equalsIgnoreCase(language)) {
+            luceneMorphology = MorphologyService.english();
+            script = Tokenizer.Script.LATIN;
+        } else {
+            throw new IllegalArgumentException("Unsupported language: " + language);
         }
     }
 
     public Map<String, Integer> getLemmas(String text) {
-        // Очищаем текст от всех небуквенных символов
-        text = text.replaceAll("[^a-zA-Zа-яА-ЯёЁ]", " "); // Заменяем все не-буквенные символы на пробелы
-        String[] words = text.split("\\s+"); // Разбиваем текст на слова
         Map<String, Integer> lemmaCount = new HashMap<>();
 
-        for (String word : words) {
-            if (word.isEmpty()) {
-                continue; // Пропускаем пустые строки
+        // Слова выделяются за один проход по тексту и сразу приводятся к нижнему регистру;
+        // в словарь передаются только слова на языке лемматизатора
+        Tokenizer.tokenize(text, (token, tokenScript) -> {
+            if (tokenScript != script) {
+                return;
             }
-
-            // Приводим слово к нижнему регистру
-            word = word.toLowerCase();
+            String word = token.toString();
 
             // Лемматизация слова
             List<String> lemmas = luceneMorphology.getNormalForms(word);
@@ -60,7 +53,7 @@ public class Lemmatizer {
                     }
                 }
             }
-        }
+        });
 
         return lemmaCount;
     }
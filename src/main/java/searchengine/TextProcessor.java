@@ -1,33 +1,18 @@
 package searchengine;
 
 import org.apache.lucene.morphology.LuceneMorphology;
-import org.apache.lucene.morphology.russian.RussianLuceneMorphology;
-import org.apache.lucene.morphology.english.EnglishLuceneMorphology;
 import org.jsoup.Jsoup;
+import searchengine.services.MorphologyService;
+import searchengine.services.Tokenizer;
 
-import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class TextProcessor {
 
-    // Инициализация морфологических анализаторов
-    private static LuceneMorphology russianMorph;
-    private static LuceneMorphology englishMorph;
-
-    static {
-        try {
-            // Инициализация морфологических анализаторов
-            russianMorph = new RussianLuceneMorphology();
-            englishMorph = new EnglishLuceneMorphology();
-        } catch (IOException e) {
-            // Обработка исключения, если не удалось загрузить морфологию
-            System.err.println("Ошибка при инициализации морфологического анализатора: " + e.getMessage());
-            e.printStackTrace();
-        }
-    }
+    // Морфологические анализаторы — общие словари MorphologyService, загружаемые один раз на JVM
+    private static final LuceneMorphology russianMorph = MorphologyService.russian();
+    private static final LuceneMorphology englishMorph = MorphologyService.english();
 
     // Метод для очистки текста от служебных частей речи и подсчета лемм
     public static HashMap<String, Integer> processText(String text, String language) {
@@ -36,31 +21,21 @@ public class TextProcessor {
         // Убираем HTML-теги из текста
         text = removeHtmlTags(text);
 
-        // Разделяем текст на слова по пробелам
-        String[] words = text.split("\\s+");
-
         // Выбираем морфологический анализатор в зависимости от языка
         LuceneMorphology luceneMorph = getMorphology(language);
 
         if (luceneMorph == null) {
             return lemmaCount; // Если морфология не была инициализирована, возвращаем пустой результат
         }
+        Tokenizer.Script script = luceneMorph == russianMorph ? Tokenizer.Script.CYRILLIC : Tokenizer.Script.LATIN;
 
-        // Регулярное выражение для удаления знаков препинания
-        Pattern pattern = Pattern.compile("[^a-zA-Zа-яА-ЯёЁ]");
-
-        for (String word : words) {
-            // Убираем знаки препинания из слов
-            Matcher matcher = pattern.matcher(word);
-            word = matcher.replaceAll("");
-
-            // Приводим слово к нижнему регистру
-            word = word.toLowerCase();
-
-            // Пропускаем слова с апострофами в английском языке (например, it's, I'm)
-            if (language.equals("en") && word.contains("'")) {
-                continue;
+        // Слова выделяются без регулярных выражений: знаки препинания отбрасываются,
+        // регистр понижается, слова на другом языке пропускаются
+        Tokenizer.tokenize(text, (token, tokenScript) -> {
+            if (tokenScript != script) {
+                return;
             }
+            String word = token.toString();
 
             try {
                 // Получаем информацию о морфологии слова
@@ -85,7 +60,7 @@ public class TextProcessor {
                 System.err.println("Ошибка при обработке слова: " + word);
                 e.printStackTrace();
             }
-        }
+        });
         return lemmaCount;
     }
 
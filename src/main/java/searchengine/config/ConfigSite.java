@@ -8,4 +8,6 @@ import lombok.Setter;
 public class ConfigSite {
     private String url;
     private String name;
+    // Минимальная пауза между запросами к сайту, мс; если не задана — crawler-settings.default-crawl-delay
+    private Long crawlDelay;
 }
@@ -0,0 +1,68 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "crawler-settings")
+public class CrawlerSettings {
+    private String userAgent = "Mozilla/5.0 (Windows; U; WindowsNT 5.1; en-US; rv1.8.1.6) Gecko/20070725 Firefox/2.0.0.6";
+    private String referrer = "http://www.google.com";
+
+    // Сколько запросов к одному сайту может выполняться одновременно (каждый в своем виртуальном потоке)
+    private int maxRequestsPerSite = 64;
+
+    // Общий планировщик обходов: сколько сайтов обходится одновременно (остальные ждут в очереди)
+    // и сколько страниц всех сайтов может обрабатываться одновременно
+    private int maxConcurrentSites = 4;
+    private int maxConcurrentRequests = 256;
+
+    // Минимальная пауза между запросами к одному хосту, мс (если у сайта не задана своя)
+    private long defaultCrawlDelay = 500;
+
+    // Предельное число URL на сайт, под которое растет фильтр Блума перед множеством посещенных; 0 — без фильтра
+    private int visitedBloomExpectedUrls = 1_000_000;
+
+    // Как часто сохранять очередь и посещенные URL в контрольную точку, мс
+    private long checkpointInterval = 60_000;
+
+    // Общий HttpClient: таймауты соединения и запроса, мс, и предельный размер тела ответа, байт
+    private long connectTimeout = 10_000;
+    private long requestTimeout = 30_000;
+    private int maxBodySize = 5 * 1024 * 1024;
+
+    // Конвейер обработки страниц: потоки стадий разбора, лемматизации и записи в БД (0 — по числу процессоров)
+    // и емкость очереди перед каждой стадией; при заполненной очереди предыдущая стадия ждет
+    private int parseThreads = 0;
+    private int lemmatizeThreads = 0;
+    private int persistThreads = 4;
+    private int stageQueueCapacity = 256;
+
+    // Сколько словоформ держать в кэше морфологии (слово → нормальные формы и часть речи)
+    private int wordFormCacheSize = 200_000;
+
+    // Как часто сбрасывать в БД накопленные в словаре сайта частоты лемм, мс
+    private long lemmaFlushInterval = 5_000;
+
+    // Сегменты инвертированного индекса на диске: каталог, сколько связок копить в памяти перед записью
+    // нового сегмента, сколько сегментов одного уровня сливать вместе и предельный размер сегмента, байт
+    private String indexDirectory = "index";
+    private long segmentFlushPostings = 2_000_000;
+    private int segmentMergeFactor = 10;
+    private long maxSegmentBytes = 1024L * 1024 * 1024;
+
+    // Поток хода обхода /api/indexing/progress: период рассылки снимков, мс, и время жизни соединения, мс
+    // (клиент EventSource переподключается сам)
+    private long progressInterval = 1_000;
+    private long progressStreamTimeout = 30 * 60_000;
+
+    // Очередь заданий /api/indexPage: рабочие потоки, предельное число ждущих заданий
+    // и сколько хранить завершенные задания для запросов статуса, мс
+    private int indexPageWorkers = 2;
+    private int indexPageQueueCapacity = 1_000;
+    private long indexPageJobRetention = 60 * 60_000;
+}
@@ -0,0 +1,34 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "search-settings")
+public class SearchSettings {
+
+    // Кэш результатов поиска: сколько запросов хранить, сколько живет запись, мс,
+    // и сколько лучших страниц запоминать, чтобы следующие страницы выдачи не пересчитывались
+    private int resultCacheSize = 1_000;
+    private long resultCacheTtl = 600_000;
+    private int resultCacheDepth = 500;
+
+    // Пределы постраничной выдачи /api/search: страниц в ответе и смещение от начала
+    private int maxLimit = 100;
+    private int maxOffset = 10_000;
+
+    // Надбавка к релевантности за близость слов запроса: до (1 + proximityWeight) раз, если слова стоят подряд
+    private float proximityWeight = 1.0f;
+
+    // Параметры BM25: насыщение частоты леммы на странице и степень нормализации по длине страницы
+    private float bm25K1 = 1.2f;
+    private float bm25B = 0.75f;
+
+    // Исправление опечаток: наибольшее число правок и сколько первых букв слова участвуют в поиске кандидатов
+    private int spellingMaxDistance = 2;
+    private int spellingPrefixLength = 7;
+}
@@ -6,16 +6,24 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import searchengine.dto.statistics.StatisticsResponse;
 import searchengine.services.IndexingService;
+import searchengine.services.CrawlProgressService;
+import searchengine.services.CrawlScheduler;
 import searchengine.services.StatisticsService;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam ;
+import searchengine.services.PageIndexingQueue;
 import searchengine.services.PageIndexingService;
+import searchengine.services.SearchResultCache;
+import searchengine.services.SearchService;
+import searchengine.services.SuggestService;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 @RestController
 @RequestMapping("/api")
@@ -23,13 +31,23 @@ public class ApiController {
     private static final Logger logger = LoggerFactory.getLogger(ApiController.class);
     private final StatisticsService statisticsService;
     private final IndexingService indexingService;
-    private final ExecutorService executorService;
+    private final CrawlScheduler crawlScheduler;
     private final PageIndexingService pageIndexingService;  // Исправленное имя переменной
+    private final SearchService searchService;
+    private final SearchResultCache searchResultCache;
+    private final SuggestService suggestService;
+    private final CrawlProgressService crawlProgressService;
+    private final PageIndexingQueue pageIndexingQueue;
 
-    public ApiController(StatisticsService statisticsService, PageIndexingService pageIndexingService, IndexingService indexingService, ExecutorService executorService) {
+    public ApiController(StatisticsService statisticsService, PageIndexingService pageIndexingService, IndexingService indexingService, CrawlScheduler crawlScheduler, SearchService searchService, SearchResultCache searchResultCache, SuggestService suggestService, CrawlProgressService crawlProgressService, PageIndexingQueue pageIndexingQueue) {
         this.statisticsService = statisticsService;
+        this.pageIndexingQueue = pageIndexingQueue;
+        this.crawlProgressService = crawlProgressService;
+        this.suggestService = suggestService;
+        this.searchResultCache = searchResultCache;
+        this.searchService = searchService;
         this.indexingService = indexingService;
-        this.executorService = executorService;
+        this.crawlScheduler = crawlScheduler;
         this.pageIndexingService = pageIndexingService;  // Конструктор правильно инициализирует переменную
     }
 
@@ -40,17 +58,37 @@ public class ApiController {
         return ResponseEntity.ok(statisticsService.getStatistics());
     }
 
+    // Ход идущих обходов: событие progress раз в crawler-settings.progress-interval вместо опроса /statistics
+    @GetMapping(value = "/indexing/progress", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter indexingProgress() {
+        return crawlProgressService.subscribe();
+    }
+
+    // Загрузка общего планировщика обходов: сайты в работе и в очереди, страницы в обработке, очереди стадий
+    @GetMapping("/indexing/scheduler")
+    public ResponseEntity<Map<String, Object>> schedulerStatistics() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("result", true);
+        response.put("scheduler", crawlScheduler.getStatistics());
+        return ResponseEntity.ok(response);
+    }
+
     @GetMapping("/startIndexing")
-    public ResponseEntity<Map<String, Object>> startIndexing() {
-        if (indexingService.isIndexingInProgress()) {
+    public ResponseEntity<Map<String, Object>> startIndexing(@RequestParam(required = false, defaultValue = "false") boolean incremental) {
+        if (indexingService.isRunActive()) {
             Map<String, Object> errorResponse = new HashMap<>();
             errorResponse.put("result", false);
-            errorResponse.put("error", "Индексация уже запущена");
+            errorResponse.put("error", indexingService.isIndexingInProgress()
+                    ? "Индексация уже запущена" : "Предыдущая индексация еще останавливается");
             return ResponseEntity.badRequest().body(errorResponse);
         }
 
-        // Запуск асинхронной индексации
-        executorService.submit(indexingService::startFullIndexing);
+        // Запуск асинхронный: обход выполняет CrawlScheduler; incremental=true переиндексирует только изменившиеся страницы
+        if (incremental) {
+            indexingService.startIncrementalIndexing();
+        } else {
+            indexingService.startFullIndexing();
+        }
 
         Map<String, Object> successResponse = new HashMap<>();
         successResponse.put("result", true);
@@ -73,23 +111,45 @@ public class ApiController {
         return ResponseEntity.ok(successResponse);
     }
 
-    @PostMapping(value = "/indexPage", consumes = "application/x-www-form-urlencoded")
-    public ResponseEntity<Map<String, Object>> indexPage(@RequestParam String url,
-                                                         @RequestParam(required = false, defaultValue = "3") int depth) { // depth с дефолтным значением 3
-        Map<String, Object> response = new HashMap<>();
+    @GetMapping("/pauseIndexing")
+    public ResponseEntity<Map<String, Object>> pauseIndexing() {
+        if (!indexingService.isIndexingInProgress()) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("result", false);
+            errorResponse.put("error", "Индексация не запущена");
+            return ResponseEntity.badRequest().body(errorResponse);
+        }
 
-        // Максимальная допустимая глубина
-        int maxDepth = 3;
+        indexingService.pauseIndexing();
 
-        // Проверяем, что глубина не превышает максимальную
-        if (depth > maxDepth) {
-            return pageIndexingService.createErrorResponse(
-                    response,
-                    "Глубина индексации не может превышать " + maxDepth,
-                    HttpStatus.BAD_REQUEST
-            );
+        Map<String, Object> successResponse = new HashMap<>();
+        successResponse.put("result", true);
+        return ResponseEntity.ok(successResponse);
+    }
+
+    @GetMapping("/resumeIndexing")
+    public ResponseEntity<Map<String, Object>> resumeIndexing() {
+        if (indexingService.isRunActive()) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("result", false);
+            errorResponse.put("error", indexingService.isIndexingInProgress()
+                    ? "Индексация уже запущена" : "Предыдущая индексация еще останавливается");
+            return ResponseEntity.badRequest().body(errorResponse);
         }
 
+        // Продолжение обхода с контрольных точек
+        indexingService.resumeIndexing();
+
+        Map<String, Object> successResponse = new HashMap<>();
+        successResponse.put("result", true);
+        return ResponseEntity.ok(successResponse);
+    }
+
+    @PostMapping(value = "/indexPage", consumes = "application/x-www-form-urlencoded")
+    public ResponseEntity<Map<String, Object>> indexPage(@RequestParam String url,
+                                                         @RequestParam(required = false, defaultValue = "0") int priority) {
+        Map<String, Object> response = new HashMap<>();
+
         if (url == null || url.isEmpty()) {
             return pageIndexingService.createErrorResponse(response, "URL страницы не указан", HttpStatus.BAD_REQUEST);
         }
@@ -102,18 +162,87 @@ public class ApiController {
             );
         }
 
+        // Переиндексация выполняется в фоне; ответ содержит id задания для /indexPage/{jobId}
+        PageIndexingQueue.Job job = pageIndexingQueue.submit(url, priority);
+        if (job == null) {
+            return pageIndexingService.createErrorResponse(
+                    response,
+                    "Очередь переиндексации переполнена, повторите запрос позже",
+                    HttpStatus.SERVICE_UNAVAILABLE
+            );
+        }
+        logger.info("Страница {} поставлена в очередь переиндексации, задание {}", url, job.getId());
+        response.put("result", true);
+        response.put("jobId", job.getId());
+        response.put("status", job.getStatus().name());
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/indexPage/{jobId}")
+    public ResponseEntity<Map<String, Object>> indexPageStatus(@PathVariable String jobId) {
+        Map<String, Object> response = new HashMap<>();
+        PageIndexingQueue.Job job = pageIndexingQueue.find(jobId);
+        if (job == null) {
+            return pageIndexingService.createErrorResponse(response, "Задание не найдено", HttpStatus.NOT_FOUND);
+        }
+        response.put("result", true);
+        response.put("job", job.toMap());
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/search")
+    public ResponseEntity<?> search(@RequestParam(required = false) String query,
+                                    @RequestParam(required = false) String site,
+                                    @RequestParam(required = false, defaultValue = "0") int offset,
+                                    @RequestParam(required = false, defaultValue = "20") int limit) {
+        Map<String, Object> response = new HashMap<>();
+
+        if (query == null || query.isBlank()) {
+            return pageIndexingService.createErrorResponse(response, "Задан пустой поисковый запрос", HttpStatus.BAD_REQUEST);
+        }
+        // Верхние пределы offset и limit (search-settings.max-offset, max-limit) проверяет SearchService
+        if (offset < 0 || limit <= 0) {
+            return pageIndexingService.createErrorResponse(response, "Некорректные offset или limit", HttpStatus.BAD_REQUEST);
+        }
+
         try {
-            pageIndexingService.indexSite(url, depth); // передаем глубину в метод
-            response.put("result", true);
-            logger.info("Страница успешно проиндексирована: {}", url);
-            return ResponseEntity.ok(response);
+            return ResponseEntity.ok(searchService.search(query, site, offset, limit));
+        } catch (IllegalArgumentException e) {
+            return pageIndexingService.createErrorResponse(response, e.getMessage(), HttpStatus.BAD_REQUEST);
         } catch (Exception e) {
-            logger.error("Ошибка индексации страницы: {}", url, e);
+            logger.error("Ошибка поиска по запросу: {}", query, e);
             return pageIndexingService.createErrorResponse(
                     response,
-                    "Ошибка при индексации страницы: " + e.getMessage(),
+                    "Ошибка при выполнении поиска: " + e.getMessage(),
                     HttpStatus.INTERNAL_SERVER_ERROR
             );
         }
     }
+
+    // Подсказки для поисковой строки: последнее слово запроса дополняется самыми частыми леммами
+    @GetMapping("/suggest")
+    public ResponseEntity<Map<String, Object>> suggest(@RequestParam(required = false, defaultValue = "") String query,
+                                                       @RequestParam(required = false) String site,
+                                                       @RequestParam(required = false, defaultValue = "10") int limit) {
+        Map<String, Object> response = new HashMap<>();
+        if (limit <= 0 || limit > 50) {
+            return pageIndexingService.createErrorResponse(response, "Некорректный limit", HttpStatus.BAD_REQUEST);
+        }
+        try {
+            response.put("result", true);
+            response.put("suggestions", suggestService.suggest(query, site, limit));
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            return pageIndexingService.createErrorResponse(response, e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    // Счетчики кэша результатов поиска: попадания, промахи, вытеснения и устаревшие записи
+    @GetMapping("/search/cache")
+    public ResponseEntity<Map<String, Object>> searchCacheStatistics() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("result", true);
+        response.put("cache", searchResultCache.getStatistics());
+        return ResponseEntity.ok(response);
+    }
 }
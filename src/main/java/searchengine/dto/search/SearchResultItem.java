@@ -0,0 +1,13 @@
+package searchengine.dto.search;
+
+import lombok.Data;
+
+@Data
+public class SearchResultItem {
+    private String site;
+    private String siteName;
+    private String uri;
+    private String title;
+    private String snippet;
+    private float relevance;
+}
@@ -0,0 +1,38 @@
+package searchengine.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "crawl_checkpoint")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CrawlCheckpoint {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @OneToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "site_id", nullable = false, unique = true)
+    private Site site;
+
+    // URL из очереди обхода и страницы, которые обрабатывались в момент сохранения, по одному в строке
+    @Column(columnDefinition = "LONGTEXT", nullable = false)
+    private String frontier;
+
+    // Отпечатки посещенных URL (см. VisitedUrlSet), по 8 байт на каждый
+    @Column(columnDefinition = "LONGBLOB", nullable = false)
+    private byte[] visited;
+
+    // Обход был инкрементальным: при продолжении страницы снова запрашиваются условно
+    @Column(nullable = false)
+    private boolean incremental;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+}
@@ -3,5 +3,6 @@ package searchengine.model;
 public enum IndexingStatus {
     INDEXING,
     INDEXED,
-    FAILED
+    FAILED,
+    PAUSED
 }
@@ -7,7 +7,8 @@ import lombok.AllArgsConstructor;
 import jakarta.persistence.Index;  // For Javax Persistence
 
 @Entity
-@Table(name = "lemma", indexes = @Index(name = "idx_lemma", columnList = "lemma"))
+@Table(name = "lemma", indexes = @Index(name = "idx_lemma", columnList = "lemma"),
+        uniqueConstraints = @UniqueConstraint(name = "uk_lemma_site_lemma", columnNames = {"site_id", "lemma"}))
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -38,6 +38,21 @@ public class Page {
     @Column(length = 500)
     private String contentType; // Столбец для хранения типа содержимого (например, "image/png")
 
+    // Валидаторы HTTP для условных запросов при инкрементальном обходе
+    @Column(length = 255)
+    private String etag;
+
+    @Column(name = "last_modified", length = 64)
+    private String lastModified;
+
+    // SHA-256 тела ответа: совпадение означает, что страницу не нужно переиндексировать
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    // Число слов текста страницы — длина документа для BM25; null у страниц без текста
+    @Column(name = "token_count")
+    private Integer tokenCount;
+
     // Дополнительное поле для хранения заголовка страницы
     @Transient
     private String title;
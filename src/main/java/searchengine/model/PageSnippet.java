@@ -0,0 +1,32 @@
+package searchengine.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+// Заготовка для фрагментов выдачи: заголовок и вхождения лемм в тексте страницы; сам текст — в page.content
+@Entity
+@Table(
+        name = "page_snippet",
+        indexes = {@jakarta.persistence.Index(name = "idx_page_snippet_site", columnList = "site_id")}
+)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PageSnippet {
+
+    @Id
+    @Column(name = "page_id")
+    private Integer pageId;
+
+    @Column(name = "site_id", nullable = false)
+    private Integer siteId;
+
+    @Column(length = 500)
+    private String title;
+
+    // Вхождения слов page.content с id их лемм (см. TextAnalysis.encodeTokens)
+    @Column(columnDefinition = "MEDIUMBLOB", nullable = false)
+    private byte[] tokens;
+}
@@ -0,0 +1,21 @@
+package searchengine.repository;
+
+import java.util.Optional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import searchengine.model.CrawlCheckpoint;
+
+@Repository
+public interface CrawlCheckpointRepository extends JpaRepository<CrawlCheckpoint, Integer> {
+
+    Optional<CrawlCheckpoint> findBySiteId(int siteId);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM CrawlCheckpoint c WHERE c.site.id = :siteId")
+    int deleteBySiteId(@Param("siteId") int siteId);
+}
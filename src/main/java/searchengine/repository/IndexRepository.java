@@ -7,6 +7,8 @@ import org.springframework.transaction.annotation.Transactional;
 import searchengine.model.Index;
 import org.springframework.data.jpa.repository.JpaRepository;
 
+import java.util.List;
+
 public interface IndexRepository extends JpaRepository<Index, Integer> {
 
     @Modifying
@@ -18,6 +20,9 @@ public interface IndexRepository extends JpaRepository<Index, Integer> {
     @Transactional
     @Query("DELETE FROM Index i WHERE i.page.id = :pageId")
     int deleteByPageId(@Param("pageId") int pageId);
+
+    @Query(value = "SELECT lemma_id FROM `index` WHERE page_id = :pageId", nativeQuery = true)
+    List<Integer> findLemmaIdsByPageId(@Param("pageId") int pageId);
 }
 
 
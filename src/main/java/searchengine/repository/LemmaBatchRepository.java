@@ -0,0 +1,166 @@
+package searchengine.repository;
+
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Пакетная запись лемм и связок index одной страницы через JDBC. С IDENTITY-ключами Hibernate
+ * не объединяет вставки в пакеты, и страница стоила сотни запросов; здесь — несколько:
+ * многострочный INSERT ... ON DUPLICATE KEY UPDATE для лемм (опирается на уникальный ключ
+ * (site_id, lemma)), выборка их id и многострочная вставка в index.
+ */
+@Repository
+public class LemmaBatchRepository {
+
+    // Строк в одном многострочном запросе
+    private static final int CHUNK_SIZE = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+
+    public LemmaBatchRepository(JdbcTemplate jdbcTemplate, ApplicationEventPublisher eventPublisher) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.eventPublisher = eventPublisher;
+    }
+
+    // Частота каждой леммы страницы увеличивается на 1, rank связки — число вхождений леммы, positions —
+    // закодированные позиции лемм по ключу collationKey; возвращает id лемм страницы по ключу collationKey
+    @Transactional
+    public Map<String, Integer> saveLemmasAndIndexes(int siteId, int pageId, Map<String, Integer> lemmaFrequencies,
+                                                     Map<String, byte[]> positions) {
+        return saveLemmasAndIndexes(siteId, pageId, lemmaFrequencies, positions, Collections.emptyMap());
+    }
+
+    // knownLemmaIds — леммы, id которых вызывающий уже знает (по ключу collationKey): они не вставляются,
+    // а их частоты вызывающий учитывает сам, например, через addFrequencies
+    @Transactional
+    public Map<String, Integer> saveLemmasAndIndexes(int siteId, int pageId, Map<String, Integer> lemmaFrequencies,
+                                                     Map<String, byte[]> positions, Map<String, Integer> knownLemmaIds) {
+        if (lemmaFrequencies.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, Integer> ranks = mergeByCollation(lemmaFrequencies);
+
+        List<String> unknown = new ArrayList<>();
+        for (String lemma : ranks.keySet()) {
+            if (!knownLemmaIds.containsKey(collationKey(lemma))) {
+                unknown.add(lemma);
+            }
+        }
+        Map<String, Integer> lemmaIds = new HashMap<>(knownLemmaIds);
+        if (!unknown.isEmpty()) {
+            lemmaIds.putAll(upsertLemmas(siteId, unknown));
+        }
+
+        Map<String, Integer> pageLemmaIds = new HashMap<>();
+        Map<Integer, Integer> rankByLemmaId = new HashMap<>();
+        Map<Integer, byte[]> positionsByLemmaId = new HashMap<>();
+        ranks.forEach((lemma, rank) -> {
+            String key = collationKey(lemma);
+            Integer lemmaId = lemmaIds.get(key);
+            if (lemmaId != null) {
+                pageLemmaIds.put(key, lemmaId);
+                rankByLemmaId.merge(lemmaId, rank, Integer::sum);
+                byte[] lemmaPositions = positions.get(key);
+                if (lemmaPositions != null) {
+                    positionsByLemmaId.put(lemmaId, lemmaPositions);
+                }
+            }
+        });
+        insertIndexes(pageId, rankByLemmaId, positionsByLemmaId);
+        return pageLemmaIds;
+    }
+
+    // Накопленные приращения частот: lemma id → на сколько увеличить frequency
+    public void addFrequencies(Map<Integer, Integer> deltaByLemmaId) {
+        List<Object[]> args = new ArrayList<>(deltaByLemmaId.size());
+        new TreeMap<>(deltaByLemmaId).forEach((lemmaId, delta) -> args.add(new Object[]{delta, lemmaId}));
+        jdbcTemplate.batchUpdate("UPDATE lemma SET frequency = frequency + ? WHERE id = ?", args);
+    }
+
+    // Возвращает id лемм по ключу collationKey; леммы вставляются в порядке сортировки,
+    // чтобы параллельные страницы брали блокировки строк в одном порядке и не ловили deadlock.
+    // О новых строках сообщает LemmasInsertedEvent
+    public Map<String, Integer> upsertLemmas(int siteId, List<String> lemmas) {
+        List<String> sorted = new ArrayList<>(lemmas);
+        sorted.sort(null);
+
+        Map<String, Integer> ids = new HashMap<>();
+        int inserted = 0;
+        for (int from = 0; from < sorted.size(); from += CHUNK_SIZE) {
+            List<String> chunk = sorted.subList(from, Math.min(from + CHUNK_SIZE, sorted.size()));
+
+            StringBuilder insert = new StringBuilder("INSERT INTO lemma (site_id, lemma, frequency) VALUES ");
+            Object[] insertArgs = new Object[chunk.size() * 2];
+            for (int i = 0; i < chunk.size(); i++) {
+                insert.append(i == 0 ? "(?, ?, 1)" : ", (?, ?, 1)");
+                insertArgs[i * 2] = siteId;
+                insertArgs[i * 2 + 1] = chunk.get(i);
+            }
+            insert.append(" ON DUPLICATE KEY UPDATE frequency = frequency + 1");
+            // MySQL считает вставленную строку за 1, обновленную — за 2
+            int affected = jdbcTemplate.update(insert.toString(), insertArgs);
+            inserted += Math.max(0, 2 * chunk.size() - affected);
+
+            StringBuilder select = new StringBuilder("SELECT id, lemma FROM lemma WHERE site_id = ? AND lemma IN (");
+            Object[] selectArgs = new Object[chunk.size() + 1];
+            selectArgs[0] = siteId;
+            for (int i = 0; i < chunk.size(); i++) {
+                select.append(i == 0 ? "?" : ", ?");
+                selectArgs[i + 1] = chunk.get(i);
+            }
+            select.append(')');
+            jdbcTemplate.query(select.toString(),
+                    rs -> {
+                        ids.put(collationKey(rs.getString("lemma")), rs.getInt("id"));
+                    },
+                    selectArgs);
+        }
+        if (inserted > 0) {
+            eventPublisher.publishEvent(new LemmasInsertedEvent(siteId, inserted));
+        }
+        return ids;
+    }
+
+    public void insertIndexes(int pageId, Map<Integer, Integer> rankByLemmaId, Map<Integer, byte[]> positionsByLemmaId) {
+        List<Map.Entry<Integer, Integer>> rows = new ArrayList<>(new TreeMap<>(rankByLemmaId).entrySet());
+        for (int from = 0; from < rows.size(); from += CHUNK_SIZE) {
+            List<Map.Entry<Integer, Integer>> chunk = rows.subList(from, Math.min(from + CHUNK_SIZE, rows.size()));
+
+            StringBuilder insert = new StringBuilder("INSERT INTO `index` (page_id, lemma_id, `rank`, positions) VALUES ");
+            Object[] args = new Object[chunk.size() * 4];
+            for (int i = 0; i < chunk.size(); i++) {
+                insert.append(i == 0 ? "(?, ?, ?, ?)" : ", (?, ?, ?, ?)");
+                args[i * 4] = pageId;
+                args[i * 4 + 1] = chunk.get(i).getKey();
+                args[i * 4 + 2] = (float) chunk.get(i).getValue();
+                args[i * 4 + 3] = positionsByLemmaId.get(chunk.get(i).getKey());
+            }
+            jdbcTemplate.update(insert.toString(), args);
+        }
+    }
+
+    // Сопоставление MySQL (utf8mb4_0900_ai_ci) не различает «е» и «ё»: такие леммы — одна строка таблицы
+    public static String collationKey(String lemma) {
+        return lemma.replace('ё', 'е');
+    }
+
+    private static Map<String, Integer> mergeByCollation(Map<String, Integer> lemmaFrequencies) {
+        Map<String, Integer> merged = new HashMap<>();
+        Map<String, String> firstByKey = new HashMap<>();
+        lemmaFrequencies.forEach((lemma, count) -> {
+            String first = firstByKey.putIfAbsent(collationKey(lemma), lemma);
+            merged.merge(first != null ? first : lemma, count, Integer::sum);
+        });
+        return merged;
+    }
+}
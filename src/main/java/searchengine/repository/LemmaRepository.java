@@ -2,10 +2,12 @@ package searchengine.repository;
 
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.transaction.annotation.Transactional;
 import searchengine.model.Lemma;
 import searchengine.model.Site;
 import org.springframework.data.jpa.repository.JpaRepository;
+import java.util.List;
 import java.util.Optional;
 
 
@@ -25,4 +27,22 @@ public interface LemmaRepository extends JpaRepository<Lemma, Long> {
 
     Optional<Lemma> findByLemmaAndSite(String lemma, Site site);
 
+    @Query("SELECT COUNT(l) FROM Lemma l WHERE l.site.id = :siteId")
+    long countBySiteId(@Param("siteId") int siteId);
+
+    // Пары (site id, число лемм) — для сверки счетчиков статистики
+    @Query("SELECT l.site.id, COUNT(l) FROM Lemma l GROUP BY l.site.id")
+    List<Object[]> countLemmasGroupedBySite();
+
+    // Снимает вклад страницы в частоты лемм перед ее переиндексацией
+    @Modifying
+    @Transactional
+    @Query("UPDATE Lemma l SET l.frequency = l.frequency - 1 WHERE l.id IN (SELECT i.lemma.id FROM Index i WHERE i.page.id = :pageId)")
+    int decrementFrequencyByPageId(@Param("pageId") int pageId);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM Lemma l WHERE l.site.id = :siteId AND l.frequency <= 0")
+    int deleteUnusedBySiteId(@Param("siteId") int siteId);
+
 }
@@ -0,0 +1,20 @@
+package searchengine.repository;
+
+// Публикуется LemmaBatchRepository, когда при записи страницы в таблицу lemma добавлены новые строки
+public class LemmasInsertedEvent {
+    private final int siteId;
+    private final int count;
+
+    public LemmasInsertedEvent(int siteId, int count) {
+        this.siteId = siteId;
+        this.count = count;
+    }
+
+    public int getSiteId() {
+        return siteId;
+    }
+
+    public int getCount() {
+        return count;
+    }
+}
@@ -1,5 +1,6 @@
 package searchengine.repository;
 
+import java.util.List;
 import java.util.Optional;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
@@ -33,4 +34,20 @@ public interface PageRepository extends JpaRepository<Page, Integer> {
 
     long countBySite(Site site);
 
+    @Query("SELECT COUNT(p) FROM Page p WHERE p.site.id = :siteId")
+    long countBySiteId(@Param("siteId") int siteId);
+
+    // Пары (site id, число страниц) — для сверки счетчиков статистики
+    @Query("SELECT p.site.id, COUNT(p) FROM Page p GROUP BY p.site.id")
+    List<Object[]> countPagesGroupedBySite();
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE Page p SET p.tokenCount = :tokenCount WHERE p.id = :pageId")
+    int updateTokenCount(@Param("pageId") int pageId, @Param("tokenCount") int tokenCount);
+
+    // Пути уже проиндексированных страниц — стартовая очередь инкрементального обхода
+    @Query("SELECT p.path FROM Page p WHERE p.site.id = :siteId AND p.code = 200")
+    List<String> findIndexedPathsBySiteId(@Param("siteId") int siteId);
+
 }
@@ -0,0 +1,41 @@
+package searchengine.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import searchengine.model.PageSnippet;
+
+@Repository
+public interface PageSnippetRepository extends JpaRepository<PageSnippet, Integer> {
+
+    int MAX_TITLE_LENGTH = 500;
+
+    // Заголовок обрезается до размера столбца
+    default int save(int pageId, int siteId, String title, byte[] tokens) {
+        String trimmed = title == null || title.length() <= MAX_TITLE_LENGTH ? title : title.substring(0, MAX_TITLE_LENGTH);
+        return upsert(pageId, siteId, trimmed, tokens);
+    }
+
+    // Запись без предварительного SELECT: при повторной индексации страницы строка перезаписывается
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO page_snippet (page_id, site_id, title, tokens) " +
+            "VALUES (:pageId, :siteId, :title, :tokens) " +
+            "ON DUPLICATE KEY UPDATE title = VALUES(title), tokens = VALUES(tokens)",
+            nativeQuery = true)
+    int upsert(@Param("pageId") int pageId, @Param("siteId") int siteId, @Param("title") String title,
+               @Param("tokens") byte[] tokens);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM PageSnippet s WHERE s.pageId = :pageId")
+    int deleteByPageId(@Param("pageId") int pageId);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM PageSnippet s WHERE s.siteId = :siteId")
+    int deleteBySiteId(@Param("siteId") int siteId);
+}
@@ -0,0 +1,252 @@
+package searchengine.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Чтение инвертированного индекса для поиска напрямую через JDBC: только нужные столбцы
+ * (id, частота, page_id, rank) без материализации сущностей Index → Page → Lemma.
+ */
+@Repository
+public class SearchRepository {
+
+    // Страниц-кандидатов в одном условии IN
+    private static final int CHUNK_SIZE = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public SearchRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public List<LemmaStat> findLemmas(int siteId, Collection<String> lemmas) {
+        if (lemmas.isEmpty()) {
+            return List.of();
+        }
+        StringBuilder sql = new StringBuilder("SELECT id, lemma, frequency FROM lemma WHERE site_id = ? AND lemma IN (");
+        Object[] args = new Object[lemmas.size() + 1];
+        args[0] = siteId;
+        int i = 1;
+        for (String lemma : lemmas) {
+            sql.append(i == 1 ? "?" : ", ?");
+            args[i++] = lemma;
+        }
+        sql.append(')');
+        return jdbcTemplate.query(sql.toString(),
+                (rs, row) -> new LemmaStat(rs.getInt("id"), rs.getString("lemma"), rs.getInt("frequency")),
+                args);
+    }
+
+    // Весь список страниц леммы, по возрастанию page_id
+    public Postings findPostings(int lemmaId) {
+        Postings postings = new Postings();
+        jdbcTemplate.query("SELECT page_id, `rank` FROM `index` WHERE lemma_id = ? ORDER BY page_id",
+                rs -> {
+                    postings.add(rs.getInt(1), rs.getFloat(2));
+                },
+                lemmaId);
+        return postings;
+    }
+
+    // Страницы леммы только среди кандидатов (отсортированных по возрастанию) — пересечение на стороне БД
+    public Postings findPostings(int lemmaId, int[] candidatePageIds, int candidateCount) {
+        Postings postings = new Postings();
+        for (int from = 0; from < candidateCount; from += CHUNK_SIZE) {
+            int to = Math.min(from + CHUNK_SIZE, candidateCount);
+            StringBuilder sql = new StringBuilder("SELECT page_id, `rank` FROM `index` WHERE lemma_id = ? AND page_id IN (");
+            Object[] args = new Object[to - from + 1];
+            args[0] = lemmaId;
+            for (int i = from; i < to; i++) {
+                sql.append(i == from ? "?" : ", ?");
+                args[i - from + 1] = candidatePageIds[i];
+            }
+            sql.append(") ORDER BY page_id");
+            jdbcTemplate.query(sql.toString(),
+                    rs -> {
+                        postings.add(rs.getInt(1), rs.getFloat(2));
+                    },
+                    args);
+        }
+        return postings;
+    }
+
+    // Позиции лемм на страницах-кандидатах; связки без позиций (записанные до их появления) пропускаются
+    public void forEachPositions(Collection<Integer> lemmaIds, int[] pageIds, int pageCount, PositionsHandler handler) {
+        if (lemmaIds.isEmpty()) {
+            return;
+        }
+        for (int from = 0; from < pageCount; from += CHUNK_SIZE) {
+            int to = Math.min(from + CHUNK_SIZE, pageCount);
+            StringBuilder sql = new StringBuilder("SELECT lemma_id, page_id, positions FROM `index` WHERE lemma_id IN (");
+            Object[] args = new Object[lemmaIds.size() + to - from];
+            int i = 0;
+            for (Integer lemmaId : lemmaIds) {
+                sql.append(i == 0 ? "?" : ", ?");
+                args[i++] = lemmaId;
+            }
+            sql.append(") AND page_id IN (");
+            for (int p = from; p < to; p++) {
+                sql.append(p == from ? "?" : ", ?");
+                args[i++] = pageIds[p];
+            }
+            sql.append(") AND positions IS NOT NULL");
+            jdbcTemplate.query(sql.toString(),
+                    rs -> {
+                        handler.accept(rs.getInt(1), rs.getInt(2), rs.getBytes(3));
+                    },
+                    args);
+        }
+    }
+
+    // Пути страниц выдачи без загрузки их содержимого
+    public Map<Integer, String> findPagePaths(Collection<Integer> pageIds) {
+        return findPageColumn(pageIds, "path");
+    }
+
+    // Текст страниц выдачи: по нему и вхождениям из page_snippet строятся фрагменты
+    public Map<Integer, String> findPageContents(Collection<Integer> pageIds) {
+        return findPageColumn(pageIds, "content");
+    }
+
+    private Map<Integer, String> findPageColumn(Collection<Integer> pageIds, String column) {
+        Map<Integer, String> values = new HashMap<>();
+        Integer[] ids = pageIds.toArray(new Integer[0]);
+        for (int from = 0; from < ids.length; from += CHUNK_SIZE) {
+            int to = Math.min(from + CHUNK_SIZE, ids.length);
+            StringBuilder sql = new StringBuilder("SELECT id, ").append(column).append(" FROM page WHERE id IN (");
+            for (int i = from; i < to; i++) {
+                sql.append(i == from ? "?" : ", ?");
+            }
+            sql.append(')');
+            jdbcTemplate.query(sql.toString(),
+                    rs -> {
+                        values.put(rs.getInt(1), rs.getString(2));
+                    },
+                    (Object[]) Arrays.copyOfRange(ids, from, to));
+        }
+        return values;
+    }
+
+    // Все леммы сайта (лемма, id) — для словаря инвертированного индекса в памяти
+    public void forEachLemma(int siteId, ObjIntConsumer<String> consumer) {
+        jdbcTemplate.query(streaming("SELECT id, lemma FROM lemma WHERE site_id = ?", siteId),
+                rs -> {
+                    consumer.accept(rs.getString(2), rs.getInt(1));
+                });
+    }
+
+    // Все леммы сайта с частотами — для словаря автодополнения
+    public void forEachLemmaFrequency(int siteId, ObjIntConsumer<String> consumer) {
+        jdbcTemplate.query(streaming("SELECT lemma, frequency FROM lemma WHERE site_id = ?", siteId),
+                rs -> {
+                    consumer.accept(rs.getString(1), rs.getInt(2));
+                });
+    }
+
+    // Все связки сайта в порядке хранения; MySQL отдает их потоком, не собирая результат в памяти
+    public void forEachPosting(int siteId, PostingRowHandler handler) {
+        jdbcTemplate.query(streaming("SELECT i.lemma_id, i.page_id, i.`rank` FROM `index` i "
+                        + "JOIN lemma l ON l.id = i.lemma_id WHERE l.site_id = ?", siteId),
+                rs -> {
+                    handler.accept(rs.getInt(1), rs.getInt(2), rs.getFloat(3));
+                });
+    }
+
+    // Длины всех страниц, у которых они записаны, — для кэша длин BM25
+    public void forEachPageLength(PageLengthHandler handler) {
+        jdbcTemplate.query(connection -> {
+                    PreparedStatement statement = connection.prepareStatement(
+                            "SELECT site_id, id, token_count FROM page WHERE token_count IS NOT NULL",
+                            ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                    statement.setFetchSize(Integer.MIN_VALUE);
+                    return statement;
+                },
+                rs -> {
+                    handler.accept(rs.getInt(1), rs.getInt(2), rs.getInt(3));
+                });
+    }
+
+    private static PreparedStatementCreator streaming(String sql, int siteId) {
+        return connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(Integer.MIN_VALUE);
+            statement.setInt(1, siteId);
+            return statement;
+        };
+    }
+
+    public interface PageLengthHandler {
+        void accept(int siteId, int pageId, int tokenCount);
+    }
+
+    public interface PositionsHandler {
+        void accept(int lemmaId, int pageId, byte[] positions);
+    }
+
+    public interface PostingRowHandler {
+        void accept(int lemmaId, int pageId, float rank);
+    }
+
+    public static class LemmaStat {
+        private final int id;
+        private final String lemma;
+        private final int frequency;
+
+        public LemmaStat(int id, String lemma, int frequency) {
+            this.id = id;
+            this.lemma = lemma;
+            this.frequency = frequency;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getLemma() {
+            return lemma;
+        }
+
+        public int getFrequency() {
+            return frequency;
+        }
+    }
+
+    // Список страниц леммы: параллельные массивы page_id и rank без упаковки в объекты
+    public static class Postings {
+        private int[] pageIds = new int[16];
+        private float[] ranks = new float[16];
+        private int size;
+
+        void add(int pageId, float rank) {
+            if (size == pageIds.length) {
+                pageIds = Arrays.copyOf(pageIds, size * 2);
+                ranks = Arrays.copyOf(ranks, size * 2);
+            }
+            pageIds[size] = pageId;
+            ranks[size] = rank;
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int pageId(int i) {
+            return pageIds[i];
+        }
+
+        public float rank(int i) {
+            return ranks[i];
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package searchengine.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import searchengine.model.CrawlCheckpoint;
+import searchengine.model.Site;
+import searchengine.repository.CrawlCheckpointRepository;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Сохранение состояния обхода сайта (очередь + посещенные URL), чтобы после остановки,
+ * паузы или перезапуска JVM продолжить обход, а не начинать его заново.
+ */
+@Service
+public class CrawlCheckpointService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CrawlCheckpointService.class);
+
+    private final CrawlCheckpointRepository checkpointRepository;
+
+    public CrawlCheckpointService(CrawlCheckpointRepository checkpointRepository) {
+        this.checkpointRepository = checkpointRepository;
+    }
+
+    public void save(Site site, Collection<String> frontier, long[] visitedFingerprints, boolean incremental) {
+        CrawlCheckpoint checkpoint = checkpointRepository.findBySiteId(site.getId()).orElseGet(() -> {
+            CrawlCheckpoint created = new CrawlCheckpoint();
+            created.setSite(site);
+            return created;
+        });
+        checkpoint.setFrontier(String.join("\n", frontier));
+        checkpoint.setVisited(encodeVisited(visitedFingerprints));
+        checkpoint.setIncremental(incremental);
+        checkpoint.setUpdatedAt(LocalDateTime.now());
+        checkpointRepository.save(checkpoint);
+        logger.info("Сохранена контрольная точка обхода сайта {}: в очереди {}, посещено {}",
+                site.getUrl(), frontier.size(), visitedFingerprints.length);
+    }
+
+    public Optional<Snapshot> load(int siteId) {
+        return checkpointRepository.findBySiteId(siteId)
+                .map(checkpoint -> new Snapshot(decodeFrontier(checkpoint.getFrontier()), decodeVisited(checkpoint.getVisited()),
+                        checkpoint.isIncremental()));
+    }
+
+    public void delete(int siteId) {
+        checkpointRepository.deleteBySiteId(siteId);
+    }
+
+    private static byte[] encodeVisited(long[] fingerprints) {
+        ByteBuffer buffer = ByteBuffer.allocate(fingerprints.length * Long.BYTES);
+        for (long fingerprint : fingerprints) {
+            buffer.putLong(fingerprint);
+        }
+        return buffer.array();
+    }
+
+    private static long[] decodeVisited(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long[] fingerprints = new long[bytes.length / Long.BYTES];
+        for (int i = 0; i < fingerprints.length; i++) {
+            fingerprints[i] = buffer.getLong();
+        }
+        return fingerprints;
+    }
+
+    private static List<String> decodeFrontier(String frontier) {
+        List<String> urls = new ArrayList<>();
+        for (String url : frontier.split("\n")) {
+            if (!url.isBlank()) {
+                urls.add(url);
+            }
+        }
+        return urls;
+    }
+
+    // Состояние обхода, восстановленное из контрольной точки
+    public static class Snapshot {
+        private final List<String> frontier;
+        private final long[] visitedFingerprints;
+        private final boolean incremental;
+
+        public Snapshot(List<String> frontier, long[] visitedFingerprints, boolean incremental) {
+            this.frontier = frontier;
+            this.visitedFingerprints = visitedFingerprints;
+            this.incremental = incremental;
+        }
+
+        public List<String> getFrontier() {
+            return frontier;
+        }
+
+        public long[] getVisitedFingerprints() {
+            return visitedFingerprints;
+        }
+
+        public boolean isIncremental() {
+            return incremental;
+        }
+    }
+}
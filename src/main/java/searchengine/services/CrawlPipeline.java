@@ -0,0 +1,178 @@
+package searchengine.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import searchengine.config.CrawlerSettings;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Конвейер обработки страниц одного запуска индексации: загрузка → разбор → лемматизация → запись в БД.
+ * У каждой стадии свой пул потоков под свое узкое место (сеть, процессор, БД) и ограниченная очередь.
+ * Когда очередь следующей стадии заполнена, поток предыдущей ждет — медленная запись в БД притормаживает
+ * разбор и загрузку, а не копит страницы в памяти. По каждой стадии считается время в очереди и время работы.
+ */
+public class CrawlPipeline {
+    private static final Logger logger = LoggerFactory.getLogger(CrawlPipeline.class);
+
+    public enum Stage { FETCH, PARSE, LEMMATIZE, PERSIST }
+
+    private final Map<Stage, StageExecutor> stages = new EnumMap<>(Stage.class);
+
+    public CrawlPipeline(CrawlerSettings crawlerSettings) {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int capacity = Math.max(1, crawlerSettings.getStageQueueCapacity());
+
+        // Загрузка — в виртуальных потоках; число одновременных запросов ограничено max-requests-per-site
+        stages.put(Stage.FETCH, new StageExecutor(Stage.FETCH, Executors.newVirtualThreadPerTaskExecutor()));
+        stages.put(Stage.PARSE, new StageExecutor(Stage.PARSE,
+                boundedPool("crawl-parse", threads(crawlerSettings.getParseThreads(), processors), capacity)));
+        stages.put(Stage.LEMMATIZE, new StageExecutor(Stage.LEMMATIZE,
+                boundedPool("crawl-lemmatize", threads(crawlerSettings.getLemmatizeThreads(), processors), capacity)));
+        stages.put(Stage.PERSIST, new StageExecutor(Stage.PERSIST,
+                boundedPool("crawl-persist", threads(crawlerSettings.getPersistThreads(), processors), capacity)));
+    }
+
+    // Страница проходит стадии, пока очередная не вернет null; затем обход узнает, что URL обработан
+    public void submit(PageCrawler page) {
+        execute(page, Stage.FETCH);
+    }
+
+    private void execute(PageCrawler page, Stage stage) {
+        try {
+            stages.get(stage).execute(() -> run(page, stage));
+        } catch (RejectedExecutionException e) {
+            // Конвейер остановлен вместе с индексацией: URL остается в контрольной точке
+            page.finish();
+        }
+    }
+
+    private void run(PageCrawler page, Stage stage) {
+        StageExecutor executor = stages.get(stage);
+        long started = System.nanoTime();
+        Stage next = null;
+        boolean failed = false;
+        try {
+            next = page.process(stage);
+        } catch (Exception e) {
+            failed = true;
+            logger.error("Ошибка на стадии {} для URL {}: {}", stage, page.getUrl(), e.getMessage(), e);
+        } finally {
+            long busy = System.nanoTime() - started;
+            executor.busyNanos.add(busy);
+            executor.processed.increment();
+            page.stageFinished(stage, busy, failed);
+        }
+
+        if (next == null) {
+            page.finish();
+        } else {
+            execute(page, next);
+        }
+    }
+
+    public void shutdownNow() {
+        for (StageExecutor executor : stages.values()) {
+            executor.executor.shutdownNow();
+        }
+    }
+
+    public void logStatistics() {
+        for (StageExecutor executor : stages.values()) {
+            long processed = Math.max(1, executor.processed.sum());
+            logger.info("Стадия {}: обработано {}, в очереди сейчас {}, среднее ожидание {} мс, средняя работа {} мс",
+                    executor.stage, executor.processed.sum(), executor.queued(),
+                    TimeUnit.NANOSECONDS.toMillis(executor.waitNanos.sum() / processed),
+                    TimeUnit.NANOSECONDS.toMillis(executor.busyNanos.sum() / processed));
+        }
+    }
+
+    // Для /api/indexing/scheduler: по каждой стадии обработано, в очереди, потоков занято
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        for (StageExecutor executor : stages.values()) {
+            long processed = executor.processed.sum();
+            Map<String, Object> stage = new LinkedHashMap<>();
+            stage.put("processed", processed);
+            stage.put("queued", executor.queued());
+            stage.put("active", executor.active());
+            stage.put("avgWaitMs", processed == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(executor.waitNanos.sum() / processed));
+            stage.put("avgBusyMs", processed == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(executor.busyNanos.sum() / processed));
+            statistics.put(executor.stage.name().toLowerCase(), stage);
+        }
+        return statistics;
+    }
+
+    private static int threads(int configured, int processors) {
+        return configured > 0 ? configured : processors;
+    }
+
+    private static ExecutorService boundedPool(String name, int threads, int capacity) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(capacity), namedThreads(name), BLOCK_WHEN_FULL);
+    }
+
+    // Обратное давление: вместо отказа отправитель ждет места в очереди стадии
+    private static final RejectedExecutionHandler BLOCK_WHEN_FULL = (task, pool) -> {
+        if (pool.isShutdown()) {
+            throw new RejectedExecutionException("Стадия конвейера остановлена");
+        }
+        try {
+            pool.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Ожидание места в очереди прервано", e);
+        }
+    };
+
+    private static ThreadFactory namedThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class StageExecutor {
+        private final Stage stage;
+        private final ExecutorService executor;
+        private final LongAdder processed = new LongAdder();
+        private final LongAdder busyNanos = new LongAdder();
+        private final LongAdder waitNanos = new LongAdder();
+
+        StageExecutor(Stage stage, ExecutorService executor) {
+            this.stage = stage;
+            this.executor = executor;
+        }
+
+        void execute(Runnable task) {
+            long enqueued = System.nanoTime();
+            executor.execute(() -> {
+                waitNanos.add(System.nanoTime() - enqueued);
+                task.run();
+            });
+        }
+
+        int queued() {
+            return executor instanceof ThreadPoolExecutor pool ? pool.getQueue().size() : 0;
+        }
+
+        // У загрузки в виртуальных потоках пула нет — там число запросов видно по разрешениям планировщика
+        int active() {
+            return executor instanceof ThreadPoolExecutor pool ? pool.getActiveCount() : 0;
+        }
+    }
+}
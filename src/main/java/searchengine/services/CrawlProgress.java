@@ -0,0 +1,84 @@
+package searchengine.services;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Счетчики хода обхода одного сайта: их увеличивают потоки конвейера, а {@link CrawlProgressService}
+ * раз в progress-interval снимает с них снимок для потока событий. Скорость считается между двумя
+ * соседними снимками, поэтому {@link #snapshot()} вызывается только из одного потока рассылки.
+ */
+public final class CrawlProgress {
+    private final int siteId;
+    private final String url;
+    private final long startedAt = System.currentTimeMillis();
+    private final IntSupplier frontierDepth;
+    private final IntSupplier activePages;
+
+    private final LongAdder pagesFetched = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytesDownloaded = new LongAdder();
+    private final Map<CrawlPipeline.Stage, LongAdder> stageNanos = new EnumMap<>(CrawlPipeline.Stage.class);
+
+    // Состояние предыдущего снимка — для pages/sec
+    private long lastSnapshotNanos = System.nanoTime();
+    private long lastPagesFetched;
+
+    CrawlProgress(int siteId, String url, IntSupplier frontierDepth, IntSupplier activePages) {
+        this.siteId = siteId;
+        this.url = url;
+        this.frontierDepth = frontierDepth;
+        this.activePages = activePages;
+        for (CrawlPipeline.Stage stage : CrawlPipeline.Stage.values()) {
+            stageNanos.put(stage, new LongAdder());
+        }
+    }
+
+    public int getSiteId() {
+        return siteId;
+    }
+
+    void pageFetched(long bytes) {
+        pagesFetched.increment();
+        bytesDownloaded.add(bytes);
+    }
+
+    void error() {
+        errors.increment();
+    }
+
+    void stageFinished(CrawlPipeline.Stage stage, long nanos) {
+        stageNanos.get(stage).add(nanos);
+    }
+
+    Map<String, Object> snapshot() {
+        long now = System.nanoTime();
+        long fetched = pagesFetched.sum();
+        double seconds = (now - lastSnapshotNanos) / 1e9;
+        double pagesPerSecond = seconds > 0 ? (fetched - lastPagesFetched) / seconds : 0;
+        lastSnapshotNanos = now;
+        lastPagesFetched = fetched;
+
+        Map<String, Object> phases = new LinkedHashMap<>();
+        for (Map.Entry<CrawlPipeline.Stage, LongAdder> entry : stageNanos.entrySet()) {
+            phases.put(entry.getKey().name().toLowerCase(), TimeUnit.NANOSECONDS.toMillis(entry.getValue().sum()));
+        }
+
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("siteId", siteId);
+        snapshot.put("url", url);
+        snapshot.put("startedAt", startedAt);
+        snapshot.put("pagesFetched", fetched);
+        snapshot.put("pagesPerSecond", Math.round(pagesPerSecond * 10) / 10.0);
+        snapshot.put("frontierDepth", frontierDepth.getAsInt());
+        snapshot.put("activePages", activePages.getAsInt());
+        snapshot.put("errors", errors.sum());
+        snapshot.put("bytesDownloaded", bytesDownloaded.sum());
+        snapshot.put("phaseMillis", phases);
+        return snapshot;
+    }
+}
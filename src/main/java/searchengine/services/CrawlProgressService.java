@@ -0,0 +1,124 @@
+package searchengine.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import searchengine.config.CrawlerSettings;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Поток событий (SSE) с ходом обхода всех сайтов. Один поток рассылки раз в crawler-settings.progress-interval
+ * снимает счетчики {@link CrawlProgress} идущих обходов, один раз сериализует снимок в JSON и отправляет
+ * его всем подписчикам — число подписчиков не добавляет ни запросов к БД, ни работы обходу.
+ * Рассылка начинается в {@link #start()}, когда контекст Spring поднят, и прекращается в {@link #stop()}.
+ */
+@Service
+public class CrawlProgressService implements SmartLifecycle {
+    private static final Logger logger = LoggerFactory.getLogger(CrawlProgressService.class);
+
+    private final CrawlerSettings crawlerSettings;
+    private final ObjectMapper objectMapper;
+    private final Map<Integer, CrawlProgress> running = new ConcurrentHashMap<>();
+    private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+    // Создается в start(), меняется под this
+    private ScheduledExecutorService broadcaster;
+
+    public CrawlProgressService(CrawlerSettings crawlerSettings, ObjectMapper objectMapper) {
+        this.crawlerSettings = crawlerSettings;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (broadcaster != null) {
+            return;
+        }
+        broadcaster = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "crawl-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(100, crawlerSettings.getProgressInterval());
+        broadcaster.scheduleAtFixedRate(this::broadcast, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (broadcaster != null) {
+            broadcaster.shutdownNow();
+            broadcaster = null;
+        }
+        for (SseEmitter emitter : emitters) {
+            emitter.complete();
+        }
+        emitters.clear();
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return broadcaster != null;
+    }
+
+    void register(CrawlProgress progress) {
+        running.put(progress.getSiteId(), progress);
+    }
+
+    void unregister(CrawlProgress progress) {
+        running.remove(progress.getSiteId(), progress);
+    }
+
+    public SseEmitter subscribe() {
+        SseEmitter emitter = new SseEmitter(crawlerSettings.getProgressStreamTimeout());
+        emitter.onCompletion(() -> emitters.remove(emitter));
+        emitter.onTimeout(() -> emitters.remove(emitter));
+        emitter.onError(e -> emitters.remove(emitter));
+        emitters.add(emitter);
+        return emitter;
+    }
+
+    private void broadcast() {
+        if (emitters.isEmpty()) {
+            return;
+        }
+        try {
+            List<Map<String, Object>> sites = new ArrayList<>(running.size());
+            for (CrawlProgress progress : running.values()) {
+                sites.add(progress.snapshot());
+            }
+            Map<String, Object> event = new LinkedHashMap<>();
+            event.put("timestamp", System.currentTimeMillis());
+            event.put("sites", sites);
+            String json = objectMapper.writeValueAsString(event);
+
+            for (SseEmitter emitter : emitters) {
+                try {
+                    emitter.send(SseEmitter.event().name("progress").data(json, MediaType.APPLICATION_JSON));
+                } catch (IOException | IllegalStateException e) {
+                    // Клиент отключился — соединение закрывается, подписка снимается в onError/onCompletion
+                    emitters.remove(emitter);
+                    emitter.completeWithError(e);
+                }
+            }
+        } catch (JsonProcessingException e) {
+            logger.error("Не удалось сериализовать ход обхода: {}", e.getMessage());
+        } catch (RuntimeException e) {
+            // Исключение отменило бы периодическую задачу
+            logger.error("Ошибка рассылки хода обхода: {}", e.getMessage(), e);
+        }
+    }
+}
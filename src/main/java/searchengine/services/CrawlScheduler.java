@@ -0,0 +1,114 @@
+package searchengine.services;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Service;
+import searchengine.config.CrawlerSettings;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Единственный планировщик обходов на все приложение: потоки и одновременные запросы ограничены
+ * настройками, а не числом сайтов в indexing-settings.sites.
+ * <ul>
+ *     <li>один поток запуска выполняет очередной запуск индексации и ждет его сайтов;</li>
+ *     <li>одновременно обходятся не больше max-concurrent-sites сайтов, остальные ждут в очереди
+ *     в порядке списка;</li>
+ *     <li>страниц в обработке не больше max-concurrent-requests на все сайты (и max-requests-per-site
+ *     на сайт); общий семафор справедливый, поэтому сайты получают разрешения по очереди, и быстрый сайт
+ *     не забирает весь лимит.</li>
+ * </ul>
+ */
+@Service
+public class CrawlScheduler {
+
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(namedThreads("crawl-run"));
+    private final ThreadPoolExecutor sitePool;
+    private final Semaphore requestPermits;
+    private final int maxConcurrentRequests;
+    private final LongAdder sitesCompleted = new LongAdder();
+    // Конвейер текущего запуска — для метрик очередей стадий
+    private volatile CrawlPipeline pipeline;
+
+    public CrawlScheduler(CrawlerSettings crawlerSettings) {
+        int sites = Math.max(1, crawlerSettings.getMaxConcurrentSites());
+        this.sitePool = new ThreadPoolExecutor(sites, sites, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), namedThreads("crawl-site"));
+        this.maxConcurrentRequests = Math.max(1, crawlerSettings.getMaxConcurrentRequests());
+        this.requestPermits = new Semaphore(maxConcurrentRequests, true);
+    }
+
+    void submitRun(Runnable run) {
+        runner.execute(run);
+    }
+
+    Future<?> submitSite(Runnable crawl) {
+        return sitePool.submit(() -> {
+            try {
+                crawl.run();
+            } finally {
+                sitesCompleted.increment();
+            }
+        });
+    }
+
+    void attachPipeline(CrawlPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    // Разрешение на одну страницу в обработке; возвращается через releaseRequests
+    void acquireRequest() throws InterruptedException {
+        requestPermits.acquire();
+    }
+
+    void releaseRequests(int count) {
+        if (count > 0) {
+            requestPermits.release(count);
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> sites = new LinkedHashMap<>();
+        sites.put("poolSize", sitePool.getMaximumPoolSize());
+        sites.put("active", sitePool.getActiveCount());
+        sites.put("queued", sitePool.getQueue().size());
+        sites.put("completed", sitesCompleted.sum());
+
+        Map<String, Object> requests = new LinkedHashMap<>();
+        requests.put("limit", maxConcurrentRequests);
+        requests.put("inFlight", maxConcurrentRequests - requestPermits.availablePermits());
+        requests.put("waitingSites", requestPermits.getQueueLength());
+
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("sites", sites);
+        statistics.put("requests", requests);
+        CrawlPipeline current = pipeline;
+        statistics.put("stages", current != null ? current.getStatistics() : Map.of());
+        return statistics;
+    }
+
+    @PreDestroy
+    public void close() {
+        runner.shutdownNow();
+        sitePool.shutdownNow();
+    }
+
+    private static ThreadFactory namedThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
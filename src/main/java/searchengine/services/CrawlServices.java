@@ -0,0 +1,121 @@
+package searchengine.services;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import searchengine.config.CrawlerSettings;
+import searchengine.repository.IndexRepository;
+import searchengine.repository.LemmaBatchRepository;
+import searchengine.repository.LemmaRepository;
+import searchengine.repository.PageRepository;
+import searchengine.repository.PageSnippetRepository;
+
+/**
+ * Общие для всех обходов компоненты: репозитории, загрузчик, морфология, индекс в памяти и планировщики.
+ * Внедряется в IndexingService один раз и передается SiteCrawler и PageCrawler целиком, поэтому новый
+ * компонент обхода добавляется сюда, а не в конструкторы каждого из них. Состояние отдельного сайта
+ * (очередь, словарь лемм, ход обхода) остается в SiteCrawler.
+ */
+@Component
+public class CrawlServices {
+    private final PageRepository pageRepository;
+    private final LemmaRepository lemmaRepository;
+    private final IndexRepository indexRepository;
+    private final LemmaBatchRepository lemmaBatchRepository;
+    private final PageSnippetRepository pageSnippetRepository;
+    private final CrawlerSettings crawlerSettings;
+    private final PageFetcher pageFetcher;
+    private final MorphologyService morphologyService;
+    private final PolitenessScheduler politenessScheduler;
+    private final CrawlScheduler crawlScheduler;
+    private final CrawlCheckpointService checkpointService;
+    private final PostingIndex postingIndex;
+    private final PageLengthCache pageLengthCache;
+    private final IndexCounters indexCounters;
+    // Запись страницы вместе со снятием ее прежней версии идет одной транзакцией
+    private final TransactionTemplate transactionTemplate;
+
+    public CrawlServices(PageRepository pageRepository, LemmaRepository lemmaRepository, IndexRepository indexRepository,
+                         LemmaBatchRepository lemmaBatchRepository, PageSnippetRepository pageSnippetRepository,
+                         CrawlerSettings crawlerSettings, PageFetcher pageFetcher, MorphologyService morphologyService,
+                         PolitenessScheduler politenessScheduler, CrawlScheduler crawlScheduler,
+                         CrawlCheckpointService checkpointService, PostingIndex postingIndex,
+                         PageLengthCache pageLengthCache, IndexCounters indexCounters,
+                         PlatformTransactionManager transactionManager) {
+        this.pageRepository = pageRepository;
+        this.lemmaRepository = lemmaRepository;
+        this.indexRepository = indexRepository;
+        this.lemmaBatchRepository = lemmaBatchRepository;
+        this.pageSnippetRepository = pageSnippetRepository;
+        this.crawlerSettings = crawlerSettings;
+        this.pageFetcher = pageFetcher;
+        this.morphologyService = morphologyService;
+        this.politenessScheduler = politenessScheduler;
+        this.crawlScheduler = crawlScheduler;
+        this.checkpointService = checkpointService;
+        this.postingIndex = postingIndex;
+        this.pageLengthCache = pageLengthCache;
+        this.indexCounters = indexCounters;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    public PageRepository getPageRepository() {
+        return pageRepository;
+    }
+
+    public LemmaRepository getLemmaRepository() {
+        return lemmaRepository;
+    }
+
+    public IndexRepository getIndexRepository() {
+        return indexRepository;
+    }
+
+    public LemmaBatchRepository getLemmaBatchRepository() {
+        return lemmaBatchRepository;
+    }
+
+    public PageSnippetRepository getPageSnippetRepository() {
+        return pageSnippetRepository;
+    }
+
+    public CrawlerSettings getCrawlerSettings() {
+        return crawlerSettings;
+    }
+
+    public PageFetcher getPageFetcher() {
+        return pageFetcher;
+    }
+
+    public MorphologyService getMorphologyService() {
+        return morphologyService;
+    }
+
+    public PolitenessScheduler getPolitenessScheduler() {
+        return politenessScheduler;
+    }
+
+    public CrawlScheduler getCrawlScheduler() {
+        return crawlScheduler;
+    }
+
+    public CrawlCheckpointService getCheckpointService() {
+        return checkpointService;
+    }
+
+    public PostingIndex getPostingIndex() {
+        return postingIndex;
+    }
+
+    public PageLengthCache getPageLengthCache() {
+        return pageLengthCache;
+    }
+
+    public IndexCounters getIndexCounters() {
+        return indexCounters;
+    }
+
+    public TransactionTemplate getTransactionTemplate() {
+        return transactionTemplate;
+    }
+}
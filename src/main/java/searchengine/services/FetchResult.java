@@ -0,0 +1,76 @@
+package searchengine.services;
+
+import lombok.Getter;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Ответ сервера, полученный PageFetcher. Тело есть только у текстовых ответов
+ * и ограничено по размеру; у двоичного содержимого записываются лишь заголовки.
+ */
+@Getter
+public class FetchResult {
+    private final String url;
+    private final int statusCode;
+    private final String contentType;
+    private final String etag;
+    private final String lastModified;
+    private final byte[] body;
+    // Тело не загружалось: двоичный тип, 304 или объявленная длина больше лимита
+    private final boolean bodySkipped;
+    // Тело длиннее лимита и обрезано
+    private final boolean truncated;
+
+    public FetchResult(String url, int statusCode, String contentType, String etag, String lastModified,
+                       byte[] body, boolean bodySkipped, boolean truncated) {
+        this.url = url;
+        this.statusCode = statusCode;
+        this.contentType = contentType;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.body = body;
+        this.bodySkipped = bodySkipped;
+        this.truncated = truncated;
+    }
+
+    public boolean isNotModified() {
+        return statusCode == 304;
+    }
+
+    public boolean isHtml() {
+        return contentType != null && contentType.contains("text/html") && !bodySkipped;
+    }
+
+    public String bodyAsString() {
+        Charset charset = charset();
+        return new String(body, charset != null ? charset : StandardCharsets.UTF_8);
+    }
+
+    // Если кодировка не указана в Content-Type, Jsoup определит ее по meta-тегу
+    public Document parse() throws IOException {
+        Charset charset = charset();
+        return Jsoup.parse(new ByteArrayInputStream(body), charset != null ? charset.name() : null, url);
+    }
+
+    private Charset charset() {
+        if (contentType == null) {
+            return null;
+        }
+        for (String part : contentType.split(";")) {
+            String parameter = part.trim();
+            if (parameter.regionMatches(true, 0, "charset=", 0, 8)) {
+                try {
+                    return Charset.forName(parameter.substring(8).replace("\"", "").trim());
+                } catch (Exception e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,90 @@
+package searchengine.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import searchengine.repository.LemmaRepository;
+import searchengine.repository.LemmasInsertedEvent;
+import searchengine.repository.PageRepository;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Число страниц и лемм каждого сайта для /api/statistics без COUNT(*) на каждый запрос. Счетчики
+ * увеличиваются путями обхода и индексации в момент записи, а сверяются с БД при старте, после обхода
+ * сайта и при удалении его данных — так что погрешность от оборванных транзакций не накапливается.
+ */
+@Service
+public class IndexCounters {
+    private static final Logger logger = LoggerFactory.getLogger(IndexCounters.class);
+
+    private final PageRepository pageRepository;
+    private final LemmaRepository lemmaRepository;
+    private final Map<Integer, SiteCounters> sites = new ConcurrentHashMap<>();
+
+    public IndexCounters(PageRepository pageRepository, LemmaRepository lemmaRepository) {
+        this.pageRepository = pageRepository;
+        this.lemmaRepository = lemmaRepository;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcileAll() {
+        sites.clear();
+        for (Object[] row : pageRepository.countPagesGroupedBySite()) {
+            counters(((Number) row[0]).intValue()).pages.add(((Number) row[1]).longValue());
+        }
+        for (Object[] row : lemmaRepository.countLemmasGroupedBySite()) {
+            counters(((Number) row[0]).intValue()).lemmas.add(((Number) row[1]).longValue());
+        }
+        logger.info("Счетчики страниц и лемм сверены с БД: сайтов {}", sites.size());
+    }
+
+    // Сверка одного сайта: два COUNT по индексу site_id
+    public void reconcile(int siteId) {
+        SiteCounters fresh = new SiteCounters();
+        fresh.pages.add(pageRepository.countBySiteId(siteId));
+        fresh.lemmas.add(lemmaRepository.countBySiteId(siteId));
+        sites.put(siteId, fresh);
+    }
+
+    public void pageAdded(int siteId) {
+        counters(siteId).pages.increment();
+    }
+
+    public void pageRemoved(int siteId) {
+        counters(siteId).pages.decrement();
+    }
+
+    // Новые строки lemma, вставленные пакетной записью страницы
+    @EventListener
+    public void onLemmasInserted(LemmasInsertedEvent event) {
+        counters(event.getSiteId()).lemmas.add(event.getCount());
+    }
+
+    public void removeSite(int siteId) {
+        sites.remove(siteId);
+    }
+
+    public long pages(int siteId) {
+        SiteCounters counters = sites.get(siteId);
+        return counters != null ? Math.max(0, counters.pages.sum()) : 0;
+    }
+
+    public long lemmas(int siteId) {
+        SiteCounters counters = sites.get(siteId);
+        return counters != null ? Math.max(0, counters.lemmas.sum()) : 0;
+    }
+
+    private SiteCounters counters(int siteId) {
+        return sites.computeIfAbsent(siteId, id -> new SiteCounters());
+    }
+
+    private static final class SiteCounters {
+        private final LongAdder pages = new LongAdder();
+        private final LongAdder lemmas = new LongAdder();
+    }
+}
@@ -0,0 +1,430 @@
+package searchengine.services;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * Неизменяемый сегмент индекса на диске. Файл отображается в память ({@link MappedByteBuffer}), и списки
+ * страниц читаются прямо из него без копирования в кучу: кэшированием занимается страничный кэш ОС.
+ * <p>
+ * Формат: заголовок (magic, число лемм, min/max page_id, число связок, смещение словаря), затем списки
+ * страниц — блоки по {@value PostingList#BLOCK_SIZE} записей с заголовком (первый и последний page_id,
+ * число записей, длина) и теми же varint, что в {@link PostingList}, — и в конце словарь: отсортированные
+ * записи (lemma id, число страниц, смещение, длина). Удаленные страницы сегмента отмечаются в битовой
+ * карте, которая хранится рядом в файле .del.
+ */
+final class IndexSegment {
+
+    private static final int MAGIC = 0x53474D31;
+    private static final int HEADER_BYTES = 32;
+    private static final int TERM_BYTES = 20;
+    private static final int BLOCK_HEADER_BYTES = 16;
+
+    private final long id;
+    private final Path path;
+    private final ByteBuffer buffer;
+    private final int termCount;
+    private final int minPageId;
+    private final int maxPageId;
+    private final long postingCount;
+    private final int termTableOffset;
+    // Бит на каждую страницу из [minPageId, maxPageId]; размер не меняется, поэтому читается без блокировок
+    private final long[] deleted;
+    private int deletedCount;
+    private boolean deletionsDirty;
+    // Живые страницы по lemma id для сегмента с удалениями: считаются проходом по списку при первом запросе
+    // и затем уменьшаются удалениями с известными леммами страницы
+    private final Map<Integer, Integer> liveDocCounts = new HashMap<>();
+
+    private IndexSegment(long id, Path path, ByteBuffer buffer) throws IOException {
+        this.id = id;
+        this.path = path;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Поврежден сегмент индекса: " + path);
+        }
+        this.termCount = buffer.getInt(4);
+        this.minPageId = buffer.getInt(8);
+        this.maxPageId = buffer.getInt(12);
+        this.postingCount = buffer.getLong(16);
+        this.termTableOffset = (int) buffer.getLong(24);
+        this.deleted = new long[termCount == 0 ? 0 : ((maxPageId - minPageId) >>> 6) + 1];
+    }
+
+    static IndexSegment open(long id, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Сегмент больше 2 ГБ: " + path);
+            }
+            IndexSegment segment = new IndexSegment(id, path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            segment.readDeletions();
+            return segment;
+        }
+    }
+
+    /**
+     * Пишет сегмент из списков по возрастанию lemma id и открывает его. Пустые списки пропускаются;
+     * файл сначала пишется во временный и затем переименовывается, так что недописанный сегмент не виден.
+     */
+    static IndexSegment write(long id, Path path, int[] lemmaIds, IntFunction<PostingCursor> cursors) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        ByteBuffer terms = ByteBuffer.allocate(lemmaIds.length * TERM_BYTES);
+        int termCount = 0;
+        int minPageId = Integer.MAX_VALUE;
+        int maxPageId = Integer.MIN_VALUE;
+        long postingCount = 0;
+        long offset = HEADER_BYTES;
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.write(new byte[HEADER_BYTES]);
+
+            int[] pageIds = new int[PostingList.BLOCK_SIZE];
+            int[] ranks = new int[PostingList.BLOCK_SIZE];
+            byte[] encoded = new byte[PostingList.BLOCK_SIZE * 10];
+            for (int lemmaId : lemmaIds) {
+                PostingCursor cursor = cursors.apply(lemmaId);
+                long start = offset;
+                int docCount = 0;
+                int count = 0;
+                boolean more = cursor != null && cursor.next();
+                while (more) {
+                    pageIds[count] = cursor.pageId();
+                    ranks[count] = cursor.rank();
+                    count++;
+                    more = cursor.next();
+                    if (count == PostingList.BLOCK_SIZE || (!more && count > 0)) {
+                        int length = 0;
+                        for (int i = 0; i < count; i++) {
+                            length = PostingList.writeVarint(encoded, length, pageIds[i] - pageIds[i == 0 ? 0 : i - 1]);
+                            length = PostingList.writeVarint(encoded, length, ranks[i]);
+                        }
+                        out.writeInt(pageIds[0]);
+                        out.writeInt(pageIds[count - 1]);
+                        out.writeInt(count);
+                        out.writeInt(length);
+                        out.write(encoded, 0, length);
+                        offset += BLOCK_HEADER_BYTES + length;
+                        minPageId = Math.min(minPageId, pageIds[0]);
+                        maxPageId = Math.max(maxPageId, pageIds[count - 1]);
+                        docCount += count;
+                        count = 0;
+                    }
+                }
+                if (docCount > 0) {
+                    terms.putInt(lemmaId).putInt(docCount).putLong(start).putInt((int) (offset - start));
+                    termCount++;
+                    postingCount += docCount;
+                }
+            }
+            if (offset + (long) termCount * TERM_BYTES > Integer.MAX_VALUE) {
+                throw new IOException("Сегмент больше 2 ГБ: " + path);
+            }
+            out.write(terms.array(), 0, termCount * TERM_BYTES);
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(termCount)
+                    .putInt(termCount == 0 ? 0 : minPageId).putInt(termCount == 0 ? 0 : maxPageId)
+                    .putLong(postingCount).putLong(offset).flip();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return open(id, path);
+    }
+
+    long id() {
+        return id;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    long postingCount() {
+        return postingCount;
+    }
+
+    long sizeInBytes() {
+        return buffer.capacity();
+    }
+
+    int termCount() {
+        return termCount;
+    }
+
+    int lemmaIdAt(int term) {
+        return buffer.getInt(termTableOffset + term * TERM_BYTES);
+    }
+
+    // Число страниц леммы в сегменте без учета удаленных; 0 — леммы в сегменте нет
+    int docCount(int lemmaId) {
+        int term = findTerm(lemmaId);
+        return term < 0 ? 0 : buffer.getInt(termTableOffset + term * TERM_BYTES + 4);
+    }
+
+    // Число страниц леммы в сегменте за вычетом удаленных
+    int liveDocCount(int lemmaId) {
+        int docCount = docCount(lemmaId);
+        if (docCount == 0) {
+            return 0;
+        }
+        synchronized (this) {
+            if (deletedCount == 0) {
+                return docCount;
+            }
+            return liveDocCounts.computeIfAbsent(lemmaId, this::countLive);
+        }
+    }
+
+    // Курсор по живым страницам леммы или null, если леммы в сегменте нет
+    PostingCursor cursor(int lemmaId) {
+        int term = findTerm(lemmaId);
+        if (term < 0) {
+            return null;
+        }
+        int entry = termTableOffset + term * TERM_BYTES;
+        int start = (int) buffer.getLong(entry + 8);
+        return new SegmentCursor(start, start + buffer.getInt(entry + 16));
+    }
+
+    boolean isDeleted(int pageId) {
+        int bit = pageId - minPageId;
+        return pageId >= minPageId && pageId <= maxPageId && (deleted[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    // Отмечает страницу удаленной; false — ее в сегменте заведомо нет или она уже удалена
+    synchronized boolean delete(int pageId) {
+        if (!canDelete(pageId)) {
+            return false;
+        }
+        // Леммы страницы неизвестны: живые счетчики пересчитаются при следующем запросе
+        liveDocCounts.clear();
+        markDeleted(pageId);
+        return true;
+    }
+
+    // То же, но с леммами страницы: их живые счетчики уменьшаются на месте
+    synchronized boolean delete(int pageId, Collection<Integer> lemmaIds) {
+        if (!canDelete(pageId)) {
+            return false;
+        }
+        for (Integer lemmaId : lemmaIds) {
+            Integer live = liveDocCounts.get(lemmaId);
+            if (live != null && contains(lemmaId, pageId)) {
+                liveDocCounts.put(lemmaId, live - 1);
+            }
+        }
+        markDeleted(pageId);
+        return true;
+    }
+
+    private boolean canDelete(int pageId) {
+        return termCount != 0 && pageId >= minPageId && pageId <= maxPageId && !isDeleted(pageId);
+    }
+
+    private void markDeleted(int pageId) {
+        int bit = pageId - minPageId;
+        deleted[bit >>> 6] |= 1L << bit;
+        deletedCount++;
+        deletionsDirty = true;
+    }
+
+    private boolean contains(int lemmaId, int pageId) {
+        PostingCursor cursor = cursor(lemmaId);
+        return cursor != null && cursor.advance(pageId) && cursor.pageId() == pageId;
+    }
+
+    private int countLive(int lemmaId) {
+        PostingCursor cursor = cursor(lemmaId);
+        int live = 0;
+        while (cursor != null && cursor.next()) {
+            live++;
+        }
+        return live;
+    }
+
+    synchronized int deletedCount() {
+        return deletedCount;
+    }
+
+    synchronized long[] deletionsSnapshot() {
+        return deleted.clone();
+    }
+
+    // Страницы, удаленные после снимка, — чтобы перенести их в сегмент, собранный слиянием
+    synchronized void forEachDeletedSince(long[] snapshot, IntConsumer consumer) {
+        for (int word = 0; word < deleted.length; word++) {
+            long added = deleted[word] & ~snapshot[word];
+            while (added != 0) {
+                int bit = Long.numberOfTrailingZeros(added);
+                consumer.accept(minPageId + (word << 6) + bit);
+                added &= added - 1;
+            }
+        }
+    }
+
+    synchronized void writeDeletions() throws IOException {
+        if (!deletionsDirty) {
+            return;
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(deleted.length * Long.BYTES);
+        bytes.asLongBuffer().put(deleted);
+        Path file = deletionsPath();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, bytes.array());
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        deletionsDirty = false;
+    }
+
+    void deleteFiles() throws IOException {
+        Files.deleteIfExists(path);
+        Files.deleteIfExists(deletionsPath());
+    }
+
+    private void readDeletions() throws IOException {
+        Path file = deletionsPath();
+        if (!Files.exists(file)) {
+            return;
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        if (bytes.length != deleted.length * Long.BYTES) {
+            throw new IOException("Поврежден файл удалений: " + file);
+        }
+        ByteBuffer.wrap(bytes).asLongBuffer().get(deleted);
+        for (long word : deleted) {
+            deletedCount += Long.bitCount(word);
+        }
+    }
+
+    private Path deletionsPath() {
+        return path.resolveSibling(path.getFileName() + ".del");
+    }
+
+    private int findTerm(int lemmaId) {
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = buffer.getInt(termTableOffset + mid * TERM_BYTES);
+            if (value < lemmaId) {
+                low = mid + 1;
+            } else if (value > lemmaId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    // Курсор по отображенному файлу: блоки левее искомой страницы пропускаются по их заголовкам
+    private final class SegmentCursor implements PostingCursor {
+        private final int end;
+        private int position;
+        private int blockEnd;
+        private int blockLast;
+        private int remaining;
+        private boolean positioned;
+        private boolean exhausted;
+        private int pageId;
+        private int rank;
+
+        SegmentCursor(int start, int end) {
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean next() {
+            while (true) {
+                if (remaining == 0) {
+                    if (position >= end) {
+                        exhausted = true;
+                        return false;
+                    }
+                    readBlockHeader();
+                }
+                int delta = readVarint();
+                rank = readVarint();
+                pageId += delta;
+                remaining--;
+                positioned = true;
+                if (!isDeleted(pageId)) {
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        public boolean advance(int target) {
+            if (exhausted) {
+                return false;
+            }
+            if (positioned && pageId >= target) {
+                return true;
+            }
+            if (remaining == 0 || blockLast < target) {
+                if (remaining > 0) {
+                    position = blockEnd;
+                    remaining = 0;
+                }
+                while (position < end && buffer.getInt(position + 4) < target) {
+                    position += BLOCK_HEADER_BYTES + buffer.getInt(position + 12);
+                }
+            }
+            while (next()) {
+                if (pageId >= target) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int pageId() {
+            return pageId;
+        }
+
+        @Override
+        public int rank() {
+            return rank;
+        }
+
+        private void readBlockHeader() {
+            pageId = buffer.getInt(position);
+            blockLast = buffer.getInt(position + 4);
+            remaining = buffer.getInt(position + 8);
+            blockEnd = position + BLOCK_HEADER_BYTES + buffer.getInt(position + 12);
+            position += BLOCK_HEADER_BYTES;
+        }
+
+        private int readVarint() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(position++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+    }
+}
@@ -6,17 +6,13 @@ import org.springframework.stereotype.Service;
 
 import searchengine.config.SitesList;
 import searchengine.model.IndexingStatus;
-import searchengine.repository.PageRepository;
 import searchengine.repository.SiteRepository;
 import java.time.LocalDateTime;
 import java.util.*;
-import searchengine.repository.LemmaRepository;
-import searchengine.repository.IndexRepository;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.TimeUnit;
-import org.springframework.transaction.annotation.Transactional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Service
 public class IndexingService {
@@ -25,156 +21,251 @@ public class IndexingService {
 
     private final SitesList sitesList;
     private final SiteRepository siteRepository;
-    private final PageRepository pageRepository;
-    private final LemmaRepository lemmaRepository;
-    private final IndexRepository indexRepository;
+    // Общие компоненты обхода; SiteCrawler и PageCrawler получают их отсюда
+    private final CrawlServices services;
+    private final CrawlProgressService crawlProgressService;
+    private final SuggestService suggestService;
 
-    private volatile boolean indexingInProgress = false;
-    private ExecutorService executorService;
-    private ForkJoinPool forkJoinPool;
+    // Запуск выполняется: снимается только в finally раннера, когда прерванные сайты дописали контрольные точки
+    private volatile boolean runActive = false;
+    // Флаг остановки текущего запуска; создается в startIndexing до постановки запуска в очередь,
+    // поэтому остановка, пришедшая раньше начала обхода, относится именно к этому запуску
+    private AtomicBoolean currentRunHalted = new AtomicBoolean(true);
+    // Потоки планировщика, которые сейчас обходят сайты; прерываются при остановке
+    private final Set<Thread> siteThreads = ConcurrentHashMap.newKeySet();
+    // Общий для всех сайтов конвейер обработки страниц текущего запуска
+    private volatile CrawlPipeline crawlPipeline;
 
-    public IndexingService(SitesList sitesList,LemmaRepository lemmaRepository,IndexRepository indexRepository, SiteRepository siteRepository,  PageRepository pageRepository ) {
+    public IndexingService(SitesList sitesList, SiteRepository siteRepository, CrawlServices services,
+                           CrawlProgressService crawlProgressService, SuggestService suggestService) {
         this.sitesList = sitesList;
         this.siteRepository = siteRepository;
-        this.pageRepository = pageRepository;
-        this.indexRepository = indexRepository;
-        this.lemmaRepository = lemmaRepository;
-
+        this.services = services;
+        this.crawlProgressService = crawlProgressService;
+        this.suggestService = suggestService;
     }
 
+    // Идет запуск, который не остановлен; по этому признаку обходы сайтов продолжают работу
     public synchronized boolean isIndexingInProgress() {
-        return indexingInProgress;
+        return runActive && !currentRunHalted.get();
+    }
+
+    // Запуск еще не завершился, в том числе остановленный, который дописывает контрольные точки
+    public boolean isRunActive() {
+        return runActive;
     }
 
+    // FULL — сайт удаляется и обходится заново, RESUME — продолжение с контрольной точки,
+    // INCREMENTAL — повторный обход с условными запросами, переиндексируются только изменившиеся страницы
+    private enum Mode { FULL, RESUME, INCREMENTAL }
+
     public synchronized void startFullIndexing() {
-        if (indexingInProgress) {
-            logger.warn("Попытка запустить индексацию, которая уже выполняется.");
+        startIndexing(Mode.FULL);
+    }
+
+    // Продолжает прерванный обход с контрольных точек; сайты без контрольной точки индексируются заново
+    public synchronized void resumeIndexing() {
+        startIndexing(Mode.RESUME);
+    }
+
+    public synchronized void startIncrementalIndexing() {
+        startIndexing(Mode.INCREMENTAL);
+    }
+
+    private void startIndexing(Mode mode) {
+        if (runActive) {
+            logger.warn("Попытка запустить индексацию, пока предыдущий запуск не завершился.");
             throw new IllegalStateException("Индексация уже запущена.");
         }
-        indexingInProgress = true;
-        logger.info("Индексация начата.");
+        AtomicBoolean halted = new AtomicBoolean();
+        currentRunHalted = halted;
+        runActive = true;
+        logger.info("Индексация начата, режим {}.", mode);
 
-        executorService = Executors.newSingleThreadExecutor();
-        executorService.submit(() -> {
+        services.getCrawlScheduler().submitRun(() -> {
             try {
-                performIndexing();
+                performIndexing(mode, halted);
             } catch (Exception e) {
                 logger.error("Ошибка во время индексации: ", e);
             } finally {
-                indexingInProgress = false;
+                runActive = false;
                 logger.info("Индексация завершена.");
             }
         });
-        executorService.shutdown();
     }
 
     public synchronized void stopIndexing() {
-        if (!indexingInProgress) {
+        haltIndexing(IndexingStatus.FAILED, "Индексация остановлена пользователем");
+    }
+
+    // Как остановка, но сайты получают статус PAUSED; обход продолжается через resumeIndexing()
+    public synchronized void pauseIndexing() {
+        haltIndexing(IndexingStatus.PAUSED, "Индексация приостановлена пользователем");
+    }
+
+    private void haltIndexing(IndexingStatus status, String message) {
+        if (!runActive || !currentRunHalted.compareAndSet(false, true)) {
             logger.warn("Попытка остановить индексацию, которая не выполняется.");
             return;
         }
-        logger.info("Остановка индексации по запросу пользователя.");
-        indexingInProgress = false;
+        logger.info("{} по запросу пользователя.", message);
 
-        if (executorService != null) {
-            executorService.shutdownNow();
-        }
-        if (forkJoinPool != null) {
-            forkJoinPool.shutdownNow();
+        siteThreads.forEach(Thread::interrupt);
+        if (crawlPipeline != null) {
+            crawlPipeline.shutdownNow();
         }
 
-        updateSitesStatusToFailed("Индексация остановлена пользователем");
+        updateIndexingSitesStatus(status, message);
     }
 
 
-    private void performIndexing() {
+    private void performIndexing(Mode mode, AtomicBoolean halted) {
         List<searchengine.config.ConfigSite> sites = sitesList.getSites();
         if (sites == null || sites.isEmpty()) {
             logger.warn("Список сайтов для индексации пуст.");
             return;
         }
 
-        executorService = Executors.newFixedThreadPool(sites.size());
+        CrawlPipeline pipeline = new CrawlPipeline(services.getCrawlerSettings());
+        crawlPipeline = pipeline;
+        services.getCrawlScheduler().attachPipeline(pipeline);
+        List<Future<?>> tasks = new ArrayList<>(sites.size());
         try {
+            // Сайты встают в очередь общего планировщика: одновременно обходятся max-concurrent-sites из них
             for (searchengine.config.ConfigSite site : sites) {
-                executorService.submit(() -> {
+                tasks.add(services.getCrawlScheduler().submitSite(() -> {
+                    if (halted.get()) {
+                        return;
+                    }
+                    siteThreads.add(Thread.currentThread());
                     logger.info("Индексация сайта: {} ({})", site.getName(), site.getUrl());
                     try {
-                        deleteSiteData(site.getUrl());
-                        searchengine.model.Site newSite = new searchengine.model.Site();
-                        newSite.setName(site.getName());
-                        newSite.setUrl(site.getUrl());
-                        newSite.setStatus(IndexingStatus.INDEXING);
-                        newSite.setStatusTime(LocalDateTime.now());
-                        siteRepository.save(newSite);
-                        crawlAndIndexPages(newSite, site.getUrl());
-                        if (indexingInProgress) {
-                            updateSiteStatusToIndexed(newSite);
+                        searchengine.model.Site existingSite = mode != Mode.FULL ? siteRepository.findByUrl(site.getUrl()) : null;
+                        Optional<CrawlCheckpointService.Snapshot> snapshot = existingSite != null && mode == Mode.RESUME
+                                ? services.getCheckpointService().load(existingSite.getId())
+                                : Optional.empty();
+                        boolean incremental = existingSite != null && mode == Mode.INCREMENTAL
+                                || snapshot.map(CrawlCheckpointService.Snapshot::isIncremental).orElse(false);
+
+                        searchengine.model.Site indexedSite;
+                        if (snapshot.isPresent() || incremental) {
+                            indexedSite = existingSite;
+                            indexedSite.updateStatus(IndexingStatus.INDEXING, null);
+                            siteRepository.save(indexedSite);
+                        } else if (existingSite != null && existingSite.getStatus() == IndexingStatus.INDEXED) {
+                            logger.info("Сайт {} уже проиндексирован, продолжать нечего.", site.getUrl());
+                            return;
+                        } else {
+                            deleteSiteData(site.getUrl());
+                            indexedSite = new searchengine.model.Site();
+                            indexedSite.setName(site.getName());
+                            indexedSite.setUrl(site.getUrl());
+                            indexedSite.setStatus(IndexingStatus.INDEXING);
+                            indexedSite.setStatusTime(LocalDateTime.now());
+                            siteRepository.save(indexedSite);
+                        }
+
+                        boolean completed = crawlAndIndexPages(indexedSite, site, pipeline, snapshot.orElse(null), incremental);
+                        if (completed && incremental) {
+                            // Леммы, которые после переиндексации не встречаются ни на одной странице
+                            int removed = services.getLemmaRepository().deleteUnusedBySiteId(indexedSite.getId());
+                            logger.info("Удалено {} неиспользуемых лемм сайта {}.", removed, site.getUrl());
+                        }
+                        // Счетчики статистики сверяются с БД после каждого обхода, прерванного тоже
+                        services.getIndexCounters().reconcile(indexedSite.getId());
+                        if (completed) {
+                            suggestService.rebuildSiteAsync(indexedSite.getId());
+                        }
+                        if (!halted.get()) {
+                            updateSiteStatusToIndexed(indexedSite);
                         } else {
                             logger.warn("Индексация была прервана. Статус сайта {} не обновлен на INDEXED.", site.getName());
                         }
                     } catch (Exception e) {
-                        handleIndexingError(site.getUrl(), e);
+                        if (!halted.get()) {
+                            handleIndexingError(site.getUrl(), e);
+                        } else {
+                            logger.info("Обход сайта {} прерван, состояние сохранено в контрольной точке.", site.getUrl());
+                        }
+                    } finally {
+                        siteThreads.remove(Thread.currentThread());
                     }
-                });
+                }));
             }
-        } finally {
-            executorService.shutdown();
-            try {
-                if (!executorService.awaitTermination(1, TimeUnit.HOURS)) {
-                    executorService.shutdownNow();
-                    logger.error("Превышено время ожидания завершения индексации.");
+            // Ждем все сайты запуска, в том числе прерванные: они дописывают контрольные точки
+            for (Future<?> task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    logger.error("Ошибка обхода сайта: ", e.getCause());
                 }
-            } catch (InterruptedException e) {
-                executorService.shutdownNow();
-                logger.error("Индексация была прервана: {}", e.getMessage());
-                Thread.currentThread().interrupt();
             }
+        } catch (InterruptedException e) {
+            logger.error("Индексация была прервана: {}", e.getMessage());
+            halted.set(true);
+            siteThreads.forEach(Thread::interrupt);
+            Thread.currentThread().interrupt();
+        } finally {
+            pipeline.shutdownNow();
+            pipeline.logStatistics();
         }
     }
 
-    private void crawlAndIndexPages(searchengine.model.Site site, String startUrl) {
-        forkJoinPool = new ForkJoinPool();
+    private boolean crawlAndIndexPages(searchengine.model.Site site, searchengine.config.ConfigSite configSite,
+                                       CrawlPipeline pipeline, CrawlCheckpointService.Snapshot snapshot,
+                                       boolean incremental) throws InterruptedException {
+        long crawlDelayMs = services.getPolitenessScheduler().resolveCrawlDelay(configSite);
+        SiteCrawler siteCrawler = new SiteCrawler(site, configSite.getUrl(), crawlDelayMs, pipeline, services, this);
+        if (snapshot != null) {
+            siteCrawler.restore(snapshot);
+        } else if (incremental) {
+            services.getCheckpointService().delete(site.getId());
+            siteCrawler.seedKnownPages(services.getPageRepository().findIndexedPathsBySiteId(site.getId()));
+        }
+        crawlProgressService.register(siteCrawler.getProgress());
         try {
-            forkJoinPool.invoke(new PageCrawler(
-                    site,
-                    lemmaRepository,  // передаем LemmaRepository
-                    indexRepository,  // передаем IndexRepository
-                    startUrl,
-                    new HashSet<>(),
-                    pageRepository,
-                    this
-            ));
+            return siteCrawler.crawl();
         } finally {
-            forkJoinPool.shutdown();
+            crawlProgressService.unregister(siteCrawler.getProgress());
         }
     }
 
-    @Transactional
+    // Строки сайта удаляются одной транзакцией: сбой посередине не оставит страниц без лемм.
+    // Индекс в памяти, длины, подсказки и счетчики очищаются только после фиксации
     private void deleteSiteData(String siteUrl) {
         searchengine.model.Site site = siteRepository.findByUrl(siteUrl);
-        if (site != null) {
+        if (site == null) {
+            logger.warn("Сайт {} не найден в базе данных.", siteUrl);
+            return;
+        }
+        int[] deleted = services.getTransactionTemplate().execute(status -> {
             Long siteId = (long) site.getId();  // Приведение к Long для LemmaRepository
 
             // 1. Удаляем все записи из таблицы index (по siteId через page)
-            int indexesDeleted = indexRepository.deleteBySiteId(site.getId());
+            int indexesDeleted = services.getIndexRepository().deleteBySiteId(site.getId());
 
             // 2. Удаляем все записи из таблицы lemma (по siteId)
-            int lemmasDeleted = lemmaRepository.deleteBySiteId(siteId);
+            int lemmasDeleted = services.getLemmaRepository().deleteBySiteId(siteId);
 
-            // 3. Удаляем все страницы, связанные с сайтом
-            int pagesDeleted = pageRepository.deleteAllBySiteId(site.getId());
+            // 3. Удаляем заготовки фрагментов и все страницы, связанные с сайтом
+            services.getPageSnippetRepository().deleteBySiteId(site.getId());
+            int pagesDeleted = services.getPageRepository().deleteAllBySiteId(site.getId());
 
-            // 4. Удаляем сам сайт
+            // 4. Удаляем контрольную точку обхода и сам сайт
+            services.getCheckpointService().delete(site.getId());
             siteRepository.delete(site);
+            return new int[]{indexesDeleted, lemmasDeleted, pagesDeleted};
+        });
 
-            logger.info("Удалено {} записей из таблицы index.", indexesDeleted);
-            logger.info("Удалено {} записей из таблицы lemma.", lemmasDeleted);
-            logger.info("Удалено {} записей из таблицы page для сайта {}.", pagesDeleted, siteUrl);
-            logger.info("Сайт {} успешно удален.", siteUrl);
-        } else {
-            logger.warn("Сайт {} не найден в базе данных.", siteUrl);
-        }
+        services.getPostingIndex().removeSite(site.getId());
+        services.getPageLengthCache().removeSite(site.getId());
+        suggestService.removeSite(site.getId());
+        services.getIndexCounters().removeSite(site.getId());
+
+        logger.info("Удалено {} записей из таблицы index.", deleted[0]);
+        logger.info("Удалено {} записей из таблицы lemma.", deleted[1]);
+        logger.info("Удалено {} записей из таблицы page для сайта {}.", deleted[2], siteUrl);
+        logger.info("Сайт {} успешно удален.", siteUrl);
     }
 
 
@@ -198,14 +289,14 @@ public class IndexingService {
         }
     }
 
-    private void updateSitesStatusToFailed(String errorMessage) {
+    private void updateIndexingSitesStatus(IndexingStatus status, String errorMessage) {
         List<searchengine.model.Site> sites = siteRepository.findAllByStatus(IndexingStatus.INDEXING);
         for (searchengine.model.Site site : sites) {
-            site.setStatus(IndexingStatus.FAILED);
+            site.setStatus(status);
             site.setLastError(errorMessage);
             site.setStatusTime(LocalDateTime.now());
             siteRepository.save(site);
-            logger.info("Сайт {} изменил статус на FAILED: {}", site.getUrl(), errorMessage);
+            logger.info("Сайт {} изменил статус на {}: {}", site.getUrl(), status, errorMessage);
         }
     }
 }
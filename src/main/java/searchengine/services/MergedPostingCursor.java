@@ -0,0 +1,74 @@
+package searchengine.services;
+
+import java.util.List;
+
+/**
+ * Объединение списков одной леммы из нескольких источников (буфер в памяти и сегменты) по возрастанию page_id.
+ * Источники передаются от нового к старому: если страница есть в нескольких, берется запись из самого нового.
+ */
+final class MergedPostingCursor implements PostingCursor {
+    private final PostingCursor[] sources;
+    // Источник исчерпан — его позиция больше не учитывается
+    private final boolean[] exhausted;
+    private boolean started;
+    private boolean finished;
+    private int pageId = -1;
+    private int rank;
+
+    MergedPostingCursor(List<PostingCursor> sources) {
+        this.sources = sources.toArray(new PostingCursor[0]);
+        this.exhausted = new boolean[this.sources.length];
+    }
+
+    // Один источник не нужно оборачивать; без источников курсор сразу пуст
+    static PostingCursor of(List<PostingCursor> sources) {
+        return sources.size() == 1 ? sources.get(0) : new MergedPostingCursor(sources);
+    }
+
+    @Override
+    public boolean next() {
+        return advance(started ? pageId + 1 : Integer.MIN_VALUE);
+    }
+
+    @Override
+    public boolean advance(int target) {
+        if (finished) {
+            return false;
+        }
+        if (started && pageId >= target) {
+            return true;
+        }
+        started = true;
+        int best = -1;
+        for (int i = 0; i < sources.length; i++) {
+            if (exhausted[i]) {
+                continue;
+            }
+            if (!sources[i].advance(target)) {
+                exhausted[i] = true;
+                continue;
+            }
+            // При равных page_id побеждает первый, то есть более новый источник
+            if (best < 0 || sources[i].pageId() < sources[best].pageId()) {
+                best = i;
+            }
+        }
+        if (best < 0) {
+            finished = true;
+            return false;
+        }
+        pageId = sources[best].pageId();
+        rank = sources[best].rank();
+        return true;
+    }
+
+    @Override
+    public int pageId() {
+        return pageId;
+    }
+
+    @Override
+    public int rank() {
+        return rank;
+    }
+}
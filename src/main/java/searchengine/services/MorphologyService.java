@@ -0,0 +1,213 @@
+package searchengine.services;
+
+import org.apache.lucene.morphology.LuceneMorphology;
+import org.apache.lucene.morphology.english.EnglishLuceneMorphology;
+import org.apache.lucene.morphology.russian.RussianLuceneMorphology;
+import org.springframework.stereotype.Service;
+import searchengine.config.CrawlerSettings;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Единая морфология для обхода, индексации страниц и поиска. Словари русского и английского
+ * языков загружаются один раз на JVM (загрузка занимает сотни миллисекунд и десятки мегабайт)
+ * и только читаются, поэтому безопасны для одновременного использования из потоков обхода.
+ * Перед словарями стоит ограниченный LRU-кэш словоформ: в обычном тексте небольшой словарь
+ * повторяется очень часто, и большинство слов не доходит до LuceneMorphology.
+ */
+@Service
+public class MorphologyService {
+
+    // Служебные части речи: союзы, междометия, предлоги, частицы (русские и английские обозначения)
+    private static final String[] SERVICE_PARTS_OF_SPEECH = {
+            "СОЮЗ", "МЕЖД", "ПРЕДЛ", "ЧАСТ", "CONJ", "PREP", "PART", "PRCL", "INTJ"
+    };
+    private static final int CACHE_SEGMENTS = 16;
+
+    private final WordFormCache cache;
+
+    public MorphologyService(CrawlerSettings crawlerSettings) {
+        this.cache = new WordFormCache(Math.max(CACHE_SEGMENTS, crawlerSettings.getWordFormCacheSize()));
+    }
+
+    public static LuceneMorphology russian() {
+        return Dictionaries.RUSSIAN;
+    }
+
+    public static LuceneMorphology english() {
+        return Dictionaries.ENGLISH;
+    }
+
+    // Нормальные формы и признак служебного слова; слово — в нижнем регистре
+    public WordForms lookup(String word) {
+        return lookup(word, Tokenizer.classify(word));
+    }
+
+    private WordForms lookup(String word, Tokenizer.Script script) {
+        WordForms forms = cache.get(word);
+        if (forms == null) {
+            forms = analyze(word, script);
+            cache.put(word, forms);
+        }
+        return forms;
+    }
+
+    public List<String> getNormalForms(String word) {
+        return lookup(word).getNormalForms();
+    }
+
+    // Частоты лемм в тексте: русские и английские слова от двух букв, остальные пропускаются
+    public Map<String, Integer> lemmatize(String text) {
+        Map<String, Integer> lemmaFrequencies = new HashMap<>();
+
+        Tokenizer.tokenize(text, (token, script) -> {
+            // Игнорируем слишком короткие слова и слова не на русском или английском
+            if (token.length() < 2 || script == Tokenizer.Script.OTHER) return;
+
+            for (String lemma : lookup(token.toString(), script).getNormalForms()) {
+                lemmaFrequencies.merge(lemma, 1, Integer::sum);
+            }
+        });
+
+        return lemmaFrequencies;
+    }
+
+    // То же, что lemmatize, но с вхождениями слов — для фрагментов выдачи (page_snippet)
+    public TextAnalysis analyzeText(String text) {
+        TextAnalysis analysis = new TextAnalysis();
+
+        Tokenizer.tokenize(text, (token, script, start, end) -> {
+            if (token.length() < 2 || script == Tokenizer.Script.OTHER) return;
+
+            List<String> normalForms = lookup(token.toString(), script).getNormalForms();
+            if (normalForms.isEmpty()) {
+                analysis.skipWord();
+            } else {
+                analysis.addToken(start, end, normalForms);
+            }
+        });
+
+        return analysis;
+    }
+
+    private static WordForms analyze(String word, Tokenizer.Script script) {
+        LuceneMorphology morphology;
+        if (script == Tokenizer.Script.CYRILLIC) {
+            morphology = Dictionaries.RUSSIAN;
+        } else if (script == Tokenizer.Script.LATIN) {
+            morphology = Dictionaries.ENGLISH;
+        } else {
+            return WordForms.UNKNOWN; // Пропускаем другие языки
+        }
+
+        try {
+            List<String> normalForms = morphology.getNormalForms(word);
+            boolean serviceWord = false;
+            for (String info : morphology.getMorphInfo(word)) {
+                if (isServicePartOfSpeech(info)) {
+                    serviceWord = true;
+                    break;
+                }
+            }
+            return new WordForms(List.copyOf(normalForms), serviceWord);
+        } catch (RuntimeException e) {
+            // Словарь не принимает слово (например, неизвестный символ алфавита)
+            return WordForms.UNKNOWN;
+        }
+    }
+
+    private static boolean isServicePartOfSpeech(String morphInfo) {
+        for (String partOfSpeech : SERVICE_PARTS_OF_SPEECH) {
+            if (morphInfo.contains(partOfSpeech)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Результат разбора словоформы: нормальные формы и признак служебной части речи
+    public static final class WordForms {
+        static final WordForms UNKNOWN = new WordForms(Collections.emptyList(), false);
+
+        private final List<String> normalForms;
+        private final boolean serviceWord;
+
+        WordForms(List<String> normalForms, boolean serviceWord) {
+            this.normalForms = normalForms;
+            this.serviceWord = serviceWord;
+        }
+
+        public List<String> getNormalForms() {
+            return normalForms;
+        }
+
+        public boolean isServiceWord() {
+            return serviceWord;
+        }
+    }
+
+    // Словари загружаются при первом обращении; ими же пользуются демонстрационные классы вне Spring
+    private static final class Dictionaries {
+        static final LuceneMorphology RUSSIAN;
+        static final LuceneMorphology ENGLISH;
+
+        static {
+            try {
+                RUSSIAN = new RussianLuceneMorphology();
+                ENGLISH = new EnglishLuceneMorphology();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Не удалось загрузить словари морфологии", e);
+            }
+        }
+    }
+
+    // LRU-кэш, разбитый на сегменты со своей блокировкой, чтобы потоки обхода не ждали друг друга
+    private static final class WordFormCache {
+        private final Segment[] segments = new Segment[CACHE_SEGMENTS];
+
+        WordFormCache(int capacity) {
+            for (int i = 0; i < CACHE_SEGMENTS; i++) {
+                segments[i] = new Segment(capacity / CACHE_SEGMENTS);
+            }
+        }
+
+        WordForms get(String word) {
+            Segment segment = segmentFor(word);
+            synchronized (segment) {
+                return segment.get(word);
+            }
+        }
+
+        void put(String word, WordForms forms) {
+            Segment segment = segmentFor(word);
+            synchronized (segment) {
+                segment.put(word, forms);
+            }
+        }
+
+        private Segment segmentFor(String word) {
+            int hash = word.hashCode();
+            return segments[(hash ^ (hash >>> 16)) & (CACHE_SEGMENTS - 1)];
+        }
+    }
+
+    private static final class Segment extends LinkedHashMap<String, WordForms> {
+        private final int maxSize;
+
+        Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, WordForms> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
@@ -1,220 +1,307 @@
 package searchengine.services;
 
-import org.jsoup.Connection;
-import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 import searchengine.model.Page;
 import searchengine.model.Site;
-import searchengine.model.Lemma;
-import searchengine.model.Index;
 import searchengine.repository.PageRepository;
 import searchengine.repository.LemmaRepository;
 import searchengine.repository.IndexRepository;
-import org.apache.lucene.morphology.LuceneMorphology;
-import org.apache.lucene.morphology.russian.RussianLuceneMorphology;
-import org.apache.lucene.morphology.english.EnglishLuceneMorphology;
 import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
-import java.util.concurrent.RecursiveAction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
 
-public class PageCrawler extends RecursiveAction {
+/**
+ * Обработка одной страницы, разбитая на стадии CrawlPipeline. Между стадиями объект несет
+ * промежуточный результат: ответ сервера, затем текст, затем частоты лемм.
+ */
+public class PageCrawler {
     private static final Logger logger = LoggerFactory.getLogger(PageCrawler.class);
     private final Site site;
     private final String url;
-    private final Set<String> visitedUrls;
-    private final PageRepository pageRepository;
+    private final SiteCrawler siteCrawler;
+    private final CrawlServices services;
     private final IndexingService indexingService;
+    private final PageRepository pageRepository;
     private final LemmaRepository lemmaRepository;
     private final IndexRepository indexRepository;
 
+    // Состояние, передаваемое от стадии к стадии
+    private Page knownPage;
+    private Page page;
+    private FetchResult response;
+    private boolean linksOnly;
+    private String title;
+    private String text;
+    private TextAnalysis analysis;
+
 
-    public PageCrawler(Site site,LemmaRepository lemmaRepository,IndexRepository indexRepository, String url, Set<String> visitedUrls, PageRepository pageRepository, IndexingService indexingService) {
+    public PageCrawler(Site site, String url, SiteCrawler siteCrawler, CrawlServices services,
+                       IndexingService indexingService) {
         this.site = site;
         this.url = url;
-        this.visitedUrls = visitedUrls;
-        this.pageRepository = pageRepository;
+        this.siteCrawler = siteCrawler;
+        this.services = services;
         this.indexingService = indexingService;
-        this.indexRepository = indexRepository;
-        this.lemmaRepository = lemmaRepository;
-
+        this.pageRepository = services.getPageRepository();
+        this.lemmaRepository = services.getLemmaRepository();
+        this.indexRepository = services.getIndexRepository();
     }
 
-    @Override
-    protected void compute() {
-        if (!checkAndLogStopCondition("Начало обработки")) return;
+    public String getUrl() {
+        return url;
+    }
 
-        synchronized (visitedUrls) {
-            if (visitedUrls.contains(url)) {
-                logger.debug("URL уже обработан: {}", url);
-                return;
+    // Выполняет стадию и возвращает следующую; null — обработка страницы закончена
+    CrawlPipeline.Stage process(CrawlPipeline.Stage stage) {
+        try {
+            switch (stage) {
+                case FETCH:
+                    return fetch();
+                case PARSE:
+                    return parse();
+                case LEMMATIZE:
+                    return lemmatize();
+                case PERSIST:
+                    return persist();
+                default:
+                    return null;
             }
-            visitedUrls.add(url);
+        } catch (IOException e) {
+            handleError(e);
+            return null;
+        } catch (InterruptedException e) {
+            logger.info("Запрос к {} прерван остановкой индексации", url);
+            Thread.currentThread().interrupt();
+            return null;
         }
+    }
 
-        try {
-            long delay = 500 + new Random().nextInt(4500);
-            logger.debug("Задержка перед запросом: {} ms для URL: {}", delay, url);
-            Thread.sleep(delay);
+    // Время стадии и ее сбой — в счетчики хода обхода сайта
+    void stageFinished(CrawlPipeline.Stage stage, long nanos, boolean failed) {
+        siteCrawler.getProgress().stageFinished(stage, nanos);
+        if (failed) {
+            siteCrawler.getProgress().error();
+        }
+    }
 
-            if (!checkAndLogStopCondition("Перед запросом")) return;
+    // Вызывается конвейером один раз, на какой бы стадии ни закончилась обработка
+    void finish() {
+        siteCrawler.complete(url);
+    }
 
-            logger.info("Обработка URL: {}", url);
-            Connection.Response response = Jsoup.connect(url)
-                    .userAgent("Mozilla/5.0 (Windows; U; WindowsNT 5.1; en-US; rv1.8.1.6) Gecko/20070725 Firefox/2.0.0.6")
-                    .referrer("http://www.google.com")
-                    .ignoreContentType(true)
-                    .execute();
+    // Выполняется в виртуальном потоке, когда PolitenessScheduler разрешил обращение к хосту;
+    // URL уже отмечен как посещенный в SiteCrawler
+    private CrawlPipeline.Stage fetch() throws IOException, InterruptedException {
+        if (!checkAndLogStopCondition("Перед запросом")) return null;
 
-            handleResponse(response);
+        logger.info("Обработка URL: {}", url);
+        String path = new URL(url).getPath();
 
-        } catch (IOException e) {
-            handleError(e);
-        } catch (InterruptedException e) {
-            logger.warn("Индексация прервана для URL {}: поток остановлен.", url);
-            Thread.currentThread().interrupt();
+        // При повторном обходе спрашиваем сервер, изменилась ли страница с прошлого раза
+        if (siteCrawler.isIncremental()) {
+            knownPage = pageRepository.findBySiteAndPath(site, path).orElse(null);
         }
+
+        response = knownPage != null
+                ? services.getPageFetcher().fetch(url, knownPage.getEtag(), knownPage.getLastModified())
+                : services.getPageFetcher().fetch(url);
+        siteCrawler.getProgress().pageFetched(response.getBody() != null ? response.getBody().length : 0);
+        if (response.getStatusCode() >= 400) {
+            siteCrawler.getProgress().error();
+        }
+
+        return knownPage != null ? afterRecrawl() : afterFetch(path);
     }
 
+    // Повторный обход известной страницы: неизменившуюся не разбираем и не перезаписываем
+    private CrawlPipeline.Stage afterRecrawl() {
+        if (response.isNotModified()) {
+            logger.info("Страница {} не изменилась (304). Пропускаем.", url);
+            return null;
+        }
 
+        // У ответа без тела (двоичный тип) хешировать нечего — сравниваем код и тип содержимого
+        String contentHash = response.isBodySkipped() ? null : hashContent(response.getBody());
+        boolean unchanged = contentHash != null
+                ? contentHash.equals(knownPage.getContentHash())
+                : response.getStatusCode() == knownPage.getCode()
+                        && Objects.equals(response.getContentType(), knownPage.getContentType());
+        if (unchanged) {
+            logger.info("Содержимое страницы {} не изменилось. Пропускаем.", url);
+            return null;
+        }
 
+        page = knownPage;
+        page.setCode(response.getStatusCode());
+        page.setContentType(response.getContentType());
+        if (response.getStatusCode() >= 400) {
+            // Страница пропала или отдает ошибку: та же строка page, прежний текст снимается с индекса в persist
+            page.setContent("");
+            rememberValidators(page, response, null);
+            return CrawlPipeline.Stage.PERSIST;
+        }
+        rememberValidators(page, response, contentHash);
+        if (response.isHtml()) {
+            return CrawlPipeline.Stage.PARSE;
+        }
+        page.setContent(response.isBodySkipped()
+                ? "Binary content: " + response.getContentType()
+                : "Unhandled content type: " + response.getContentType());
+        return CrawlPipeline.Stage.PERSIST;
+    }
 
-    private void handleResponse(Connection.Response response) throws IOException {
-        String contentType = response.contentType();
-        int statusCode = response.statusCode();
-        String path = new URL(url).getPath();
+    private CrawlPipeline.Stage afterFetch(String path) {
+        String contentType = response.getContentType();
 
         // Проверяем, есть ли страница в базе
         if (pageRepository.existsByPathAndSiteId(path, site.getId())) {
             logger.info("Страница {} уже существует. Пропускаем сохранение.", url);
-            return;
+            // После возобновления с контрольной точки ссылки такой страницы могли еще не попасть в очередь
+            linksOnly = true;
+            return response.isHtml() && response.getStatusCode() < 400 ? CrawlPipeline.Stage.PARSE : null;
         }
 
-        Page page = new Page();
+        page = new Page();
         page.setSite(site);
         page.setPath(path);
-        page.setCode(statusCode);
-
-        if (contentType != null && contentType.startsWith("image/")) {
-            page.setContent("Image content: " + contentType);
-            logger.info("Изображение добавлено: {}", url);
-        } else if (contentType != null && contentType.contains("text/html")) {
-            Document document = response.parse();
-            String text = extractText(document);
-            Map<String, Integer> lemmaFrequencies = lemmatizeText(text);
-
-            // Сохраняем страницу
-            page.setContent(text);
-            pageRepository.save(page);
-
-            // Сохраняем леммы и индексы
-            saveLemmasAndIndexes(lemmaFrequencies, page);
-
-            logger.info("HTML-страница добавлена: {}", url);
-            processLinks(document);
+        page.setCode(response.getStatusCode());
+        page.setContentType(contentType);
+
+        if (response.getStatusCode() >= 400) {
+            // Страница ошибки: записываем только код, текст не индексируем и ссылки не собираем
+            page.setContent("");
+            return CrawlPipeline.Stage.PERSIST;
+        } else if (response.isHtml()) {
+            // ETag/Last-Modified и хеш нужны следующему инкрементальному обходу
+            rememberValidators(page, response, hashContent(response.getBody()));
+            return CrawlPipeline.Stage.PARSE;
+        } else if (response.isBodySkipped()) {
+            // Двоичное содержимое (изображения и т.п.) записываем по заголовкам, не скачивая тело
+            page.setContent("Binary content: " + contentType);
+            rememberValidators(page, response, null);
+            return CrawlPipeline.Stage.PERSIST;
         } else {
             page.setContent("Unhandled content type: " + contentType);
             logger.info("Контент с неизвестным типом добавлен: {}", url);
+            return null;
         }
     }
 
-    private String extractText(Document document) {
-        return document.text();
+    // Ссылки попадают в очередь сайта сразу после разбора, не дожидаясь записи страницы в БД
+    private CrawlPipeline.Stage parse() throws IOException {
+        Document document = response.parse();
+        // Тело ответа дальше не нужно — не держим его в очередях следующих стадий
+        response = null;
+        processLinks(document);
+        if (linksOnly) {
+            return null;
+        }
+        title = document.title();
+        text = extractText(document);
+        return CrawlPipeline.Stage.LEMMATIZE;
     }
 
+    private CrawlPipeline.Stage lemmatize() {
+        analysis = services.getMorphologyService().analyzeText(text);
+        return CrawlPipeline.Stage.PERSIST;
+    }
 
-    private Map<String, Integer> lemmatizeText(String text) throws IOException {
-        Map<String, Integer> lemmaFrequencies = new HashMap<>();
+    private CrawlPipeline.Stage persist() {
+        // Незаписанная из-за остановки страница будет загружена заново при возобновлении
+        if (!checkAndLogStopCondition("Перед записью")) return null;
 
-        // Используем LuceneMorphology для русского и английского языков
-        LuceneMorphology russianMorph = new RussianLuceneMorphology();
-        LuceneMorphology englishMorph = new EnglishLuceneMorphology();
+        if (text == null) {
+            if (knownPage != null) {
+                // Известная страница перестала быть HTML или отдает ошибку — ее текста больше нет в выдаче
+                page.setTokenCount(null);
+            }
+            writePage(page, null);
+            logger.info("Записана страница без текста ({}, код {}): {}", page.getContentType(), page.getCode(), url);
+            return null;
+        }
 
-        String[] words = text.toLowerCase().split("\\P{L}+"); // Разбиваем текст на слова
+        page.setContent(text);
+        page.setTokenCount(analysis.getTokenCount());
+        // Вклад старой версии снимается в той же транзакции, что и запись новой
+        writePage(page, analysis);
 
-        for (String word : words) {
-            if (word.length() < 2) continue; // Игнорируем слишком короткие слова
+        logger.info("HTML-страница добавлена: {}", url);
+        return null;
+    }
 
-            List<String> normalForms;
-            if (word.matches("[а-яё]+")) { // Проверяем, русский ли это текст
-                normalForms = russianMorph.getNormalForms(word);
-            } else if (word.matches("[a-z]+")) { // Проверяем, английский ли это текст
-                normalForms = englishMorph.getNormalForms(word);
-            } else {
-                continue; // Пропускаем другие языки
+    // Записывает страницу, а у известной страницы снимает вклад прежней версии: частоты лемм, связки index
+    // и фрагмент. Все это — одна транзакция, поэтому сбой или остановка посередине не оставит частот без связок
+    // или страницы с текстом без связок. Списки в памяти, длины и счетчики меняются только после фиксации
+    private void writePage(Page target, TextAnalysis analysis) {
+        boolean added = target.getId() == null;
+        boolean replacesIndexed = knownPage != null;
+        PageUpdate update = services.getTransactionTemplate().execute(status -> {
+            PageUpdate result = new PageUpdate();
+            if (replacesIndexed) {
+                result.oldLemmaIds = indexRepository.findLemmaIdsByPageId(target.getId());
+                result.decremented = lemmaRepository.decrementFrequencyByPageId(target.getId());
+                result.deletedIndexes = indexRepository.deleteByPageId(target.getId());
+                services.getPageSnippetRepository().deleteByPageId(target.getId());
             }
-
-            for (String lemma : normalForms) {
-                lemmaFrequencies.put(lemma, lemmaFrequencies.getOrDefault(lemma, 0) + 1);
+            pageRepository.save(target);
+            if (analysis != null) {
+                result.lemmas = siteCrawler.getLemmaDictionary().write(target.getId(),
+                        analysis.getLemmaFrequencies(), analysis.encodePositions());
+                // С теми же id записываются вхождения слов для фрагментов выдачи
+                services.getPageSnippetRepository().save(target.getId(), site.getId(), title,
+                        analysis.encodeTokens(result.lemmas.getPageLemmaIds()));
             }
+            return result;
+        });
+
+        if (replacesIndexed) {
+            services.getPostingIndex().removePage(site.getId(), target.getId(), update.oldLemmaIds);
+            services.getPageLengthCache().remove(site.getId(), target.getId());
+            logger.info("Страница {} изменилась: снято лемм {}, удалено связок {}", url, update.decremented,
+                    update.deletedIndexes);
+        }
+        if (analysis != null) {
+            // Частоты копятся в словаре сайта и сбрасываются в БД позже
+            Map<String, Integer> pageLemmaIds = siteCrawler.getLemmaDictionary().apply(update.lemmas);
+            services.getPageLengthCache().put(site.getId(), target.getId(), analysis.getTokenCount());
+            logger.info("Страница '{}' обработана. Лемм: {}, Связок (индексов): {}",
+                    target.getPath(), analysis.getLemmaFrequencies().size(), pageLemmaIds.size());
+        }
+        if (added) {
+            services.getIndexCounters().pageAdded(site.getId());
         }
-
-        return lemmaFrequencies;
     }
 
+    private void rememberValidators(Page page, FetchResult response, String contentHash) {
+        page.setEtag(response.getEtag());
+        page.setLastModified(response.getLastModified());
+        page.setContentHash(contentHash);
+    }
 
-
-    private void saveLemmasAndIndexes(Map<String, Integer> lemmaFrequencies, Page page) {
-        int newLemmas = 0;
-        int updatedLemmas = 0;
-        int savedIndexes = 0;
-
-        StringBuilder lemmaLog = new StringBuilder("Найденные леммы: ");
-
-        for (Map.Entry<String, Integer> entry : lemmaFrequencies.entrySet()) {
-            String lemmaText = entry.getKey();
-            int rank = entry.getValue();
-
-            // Добавляем лемму в лог
-            lemmaLog.append(lemmaText).append(" (").append(rank).append("), ");
-
-            // Проверяем, есть ли лемма в базе
-            Optional<Lemma> optionalLemma = lemmaRepository.findByLemmaAndSite(lemmaText, page.getSite());
-
-            Lemma lemma;
-            if (optionalLemma.isPresent()) {
-                lemma = optionalLemma.get();
-                lemma.setFrequency(lemma.getFrequency() + 1);
-                updatedLemmas++;
-            } else {
-                lemma = new Lemma();
-                lemma.setLemma(lemmaText);
-                lemma.setSite(page.getSite());
-                lemma.setFrequency(1);
-                lemmaRepository.save(lemma);
-                newLemmas++;
-            }
-
-            // Создаем связь между страницей и леммой
-            Index index = new Index();
-            index.setPage(page);
-            index.setLemma(lemma);
-            index.setRank((float) rank);
-            indexRepository.save(index);
-            savedIndexes++;
+    static String hashContent(byte[] body) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(body));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
         }
-
-        // Выводим в лог найденные леммы и их количество
-        logger.info(lemmaLog.toString());
-
-        logger.info("Страница '{}' обработана. Новых лемм: {}, Обновленных лемм: {}, Связок (индексов): {}",
-                page.getPath(), newLemmas, updatedLemmas, savedIndexes);
     }
 
-
-
-
+    private String extractText(Document document) {
+        return document.text();
+    }
 
 
     private void processLinks(Document document) {
         Elements links = document.select("a[href]");
-        List<PageCrawler> subtasks = new ArrayList<>();
         for (Element link : links) {
             if (!checkAndLogStopCondition("При обработке ссылок")) return;
 
@@ -240,24 +327,12 @@ public class PageCrawler extends RecursiveAction {
                 continue;
             }
 
-            String childPath = null;
-            try {
-                childPath = new URL(childUrl).getPath();
-            } catch (Exception e) {
-                logger.warn("Ошибка извлечения пути из URL: {}", childUrl);
-            }
-
-            synchronized (visitedUrls) {
-                if (childPath != null && !visitedUrls.contains(childPath)) {
-                    visitedUrls.add(childPath);
-                    subtasks.add(new PageCrawler(site, lemmaRepository, indexRepository, childUrl, visitedUrls, pageRepository, indexingService));
-                    logger.debug("Добавлена ссылка в обработку: {}", childUrl);
-                } else {
-                    logger.debug("Ссылка уже обработана: {}", childUrl);
-                }
+            if (siteCrawler.offer(childUrl)) {
+                logger.debug("Добавлена ссылка в обработку: {}", childUrl);
+            } else {
+                logger.debug("Ссылка уже обработана: {}", childUrl);
             }
         }
-        invokeAll(subtasks);
     }
 
     private void savePhoneLink(String telUrl) {
@@ -272,7 +347,7 @@ public class PageCrawler extends RecursiveAction {
         page.setPath(phoneNumber);
         page.setCode(0); // Код 0 для телефонных ссылок
         page.setContent("Телефонный номер: " + phoneNumber);
-        pageRepository.save(page);
+        savePage(page);
 
         logger.info("Сохранён телефонный номер: {}", phoneNumber);
     }
@@ -288,19 +363,61 @@ public class PageCrawler extends RecursiveAction {
         page.setPath(jsUrl); // Сохраняем полный jsUrl как path
         page.setCode(0); // Код 0 для JavaScript ссылок
         page.setContent("JavaScript ссылка: " + jsUrl);
-        pageRepository.save(page);
+        savePage(page);
 
         logger.info("Сохранена JavaScript ссылка: {}", jsUrl);
     }
 
     private void handleError(IOException e) {
+        if (!indexingService.isIndexingInProgress()) {
+            // Запрос оборван остановкой индексации — это не ошибка страницы, URL остается в контрольной точке
+            logger.info("Запрос к {} прерван остановкой индексации", url);
+            return;
+        }
         logger.warn("Ошибка обработки URL {}: {}", url, e.getMessage());
+        siteCrawler.getProgress().error();
+        if (knownPage != null) {
+            // Повторный обход: обновляем ту же строку page и убираем ее прежний текст из индекса
+            knownPage.setCode(0);
+            knownPage.setContent("Ошибка обработки: " + e.getMessage());
+            knownPage.setTokenCount(null);
+            // Без валидаторов следующий обход запросит страницу целиком
+            knownPage.setEtag(null);
+            knownPage.setLastModified(null);
+            knownPage.setContentHash(null);
+            writePage(knownPage, null);
+            return;
+        }
+        // Путь — в той же форме, что у успешно загруженных страниц: по нему повторный обход найдет эту строку
+        String path = pathOf(url);
+        if (pageRepository.existsByPathAndSiteId(path, site.getId())) {
+            logger.info("Страница {} уже записана. Пропускаем запись ошибки.", url);
+            return;
+        }
         Page page = new Page();
         page.setSite(site);
-        page.setPath(url);
+        page.setPath(path);
         page.setCode(0);
         page.setContent("Ошибка обработки: " + e.getMessage());
+        savePage(page);
+    }
+
+    // Путь URL, как его записывает fetch(); у неразбираемого URL — сам URL
+    private static String pathOf(String url) {
+        try {
+            return new URL(url).getPath();
+        } catch (MalformedURLException e) {
+            return url;
+        }
+    }
+
+    // Новая страница учитывается в счетчиках статистики
+    private void savePage(Page page) {
+        boolean added = page.getId() == null;
         pageRepository.save(page);
+        if (added) {
+            services.getIndexCounters().pageAdded(site.getId());
+        }
     }
 
     private boolean checkAndLogStopCondition(String stage) {
@@ -310,4 +427,12 @@ public class PageCrawler extends RecursiveAction {
         }
         return true;
     }
+
+    // Результат транзакции записи страницы, нужный после фиксации
+    private static class PageUpdate {
+        private List<Integer> oldLemmaIds;
+        private int decremented;
+        private int deletedIndexes;
+        private SiteLemmaDictionary.PageWrite lemmas;
+    }
 }
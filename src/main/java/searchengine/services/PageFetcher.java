@@ -0,0 +1,212 @@
+package searchengine.services;
+
+import org.springframework.stereotype.Component;
+import searchengine.config.CrawlerSettings;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Загрузка страниц через один общий HttpClient: пул соединений с keep-alive, HTTP/2
+ * и сжатие gzip/deflate. Решение, читать ли тело, принимается по коду ответа и Content-Type,
+ * а само тело ограничено crawler-settings.max-body-size: длинный текстовый ответ обрезается, а не пропускается.
+ */
+@Component
+public class PageFetcher {
+
+    private final CrawlerSettings crawlerSettings;
+    private final HttpClient httpClient;
+
+    public PageFetcher(CrawlerSettings crawlerSettings) {
+        this.crawlerSettings = crawlerSettings;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofMillis(crawlerSettings.getConnectTimeout()))
+                .build();
+    }
+
+    public FetchResult fetch(String url) throws IOException, InterruptedException {
+        return fetch(url, null, null);
+    }
+
+    // Условный запрос: при неизменившейся странице сервер ответит 304 без тела
+    public FetchResult fetch(String url, String etag, String lastModified) throws IOException, InterruptedException {
+        int maxBodySize = crawlerSettings.getMaxBodySize();
+        HttpResponse<LimitedBody> response;
+        // URI и запрос строятся внутри try: ссылка с пробелами или битым экранированием из abs:href
+        // дает IllegalArgumentException, а страница должна уйти в обычную обработку ошибки загрузки
+        try {
+            HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(Duration.ofMillis(crawlerSettings.getRequestTimeout()))
+                    .header("User-Agent", crawlerSettings.getUserAgent())
+                    .header("Referer", crawlerSettings.getReferrer())
+                    .header("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8")
+                    .header("Accept-Encoding", "gzip, deflate")
+                    .GET();
+            if (etag != null) {
+                request.header("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                request.header("If-Modified-Since", lastModified);
+            }
+
+            response = httpClient.send(request.build(), info -> {
+                HttpHeaders headers = info.headers();
+                String contentType = headers.firstValue("Content-Type").orElse(null);
+                // Слишком длинный текстовый ответ не пропускается, а обрезается до max-body-size (truncated):
+                // страница все равно разбирается и индексируется, ее ссылки обходятся
+                boolean skip = info.statusCode() == 304 || !isTextual(contentType);
+                return new LimitedBodySubscriber(skip ? 0 : maxBodySize);
+            });
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Некорректный URL: " + url, e);
+        }
+
+        HttpHeaders headers = response.headers();
+        LimitedBody body = response.body();
+        byte[] bytes = decode(body.bytes, headers.firstValue("Content-Encoding").orElse(null), maxBodySize);
+        return new FetchResult(
+                response.uri().toString(),
+                response.statusCode(),
+                headers.firstValue("Content-Type").orElse(null),
+                headers.firstValue("ETag").orElse(null),
+                headers.firstValue("Last-Modified").orElse(null),
+                bytes,
+                body.skipped,
+                body.truncated
+        );
+    }
+
+    private static boolean isTextual(String contentType) {
+        if (contentType == null) {
+            return true;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        return type.startsWith("text/") || type.contains("xml") || type.contains("json");
+    }
+
+    // Распаковка с тем же ограничением размера; обрезанный поток распаковывается, насколько возможно
+    private static byte[] decode(byte[] bytes, String contentEncoding, int maxBodySize) throws IOException {
+        if (bytes.length == 0 || contentEncoding == null) {
+            return bytes;
+        }
+        String encoding = contentEncoding.trim().toLowerCase(Locale.ROOT);
+        boolean gzip = encoding.equals("gzip") || encoding.equals("x-gzip");
+        if (!gzip && !encoding.equals("deflate")) {
+            return bytes;
+        }
+        if (gzip) {
+            return inflate(new GZIPInputStream(new ByteArrayInputStream(bytes)), bytes.length, maxBodySize);
+        }
+        try {
+            return inflate(new InflaterInputStream(new ByteArrayInputStream(bytes)), bytes.length, maxBodySize);
+        } catch (ZipException e) {
+            // Часть серверов отдает deflate без заголовка zlib — "сырой" поток
+            return inflate(new InflaterInputStream(new ByteArrayInputStream(bytes), new Inflater(true)), bytes.length, maxBodySize);
+        }
+    }
+
+    private static byte[] inflate(InputStream decoded, int compressedLength, int maxBodySize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(compressedLength * 4);
+        byte[] buffer = new byte[8192];
+        try (decoded) {
+            int read;
+            while (out.size() < maxBodySize && (read = decoded.read(buffer)) != -1) {
+                out.write(buffer, 0, Math.min(read, maxBodySize - out.size()));
+            }
+        } catch (EOFException e) {
+            // Тело было обрезано по лимиту — оставляем то, что удалось распаковать
+        }
+        return out.toByteArray();
+    }
+
+    private static final class LimitedBody {
+        private final byte[] bytes;
+        private final boolean skipped;
+        private final boolean truncated;
+
+        LimitedBody(byte[] bytes, boolean skipped, boolean truncated) {
+            this.bytes = bytes;
+            this.skipped = skipped;
+            this.truncated = truncated;
+        }
+    }
+
+    // Читает тело до лимита и отменяет поток, как только лимит превышен; лимит 0 — тело не читается вовсе
+    private static final class LimitedBodySubscriber implements HttpResponse.BodySubscriber<LimitedBody> {
+        private final int limit;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final CompletableFuture<LimitedBody> result = new CompletableFuture<>();
+        private Flow.Subscription subscription;
+
+        LimitedBodySubscriber(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public CompletionStage<LimitedBody> getBody() {
+            return result;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (limit == 0) {
+                subscription.cancel();
+                result.complete(new LimitedBody(new byte[0], true, false));
+                return;
+            }
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> items) {
+            if (result.isDone()) {
+                return;
+            }
+            for (ByteBuffer item : items) {
+                int remaining = limit - buffer.size();
+                int length = Math.min(item.remaining(), remaining);
+                byte[] chunk = new byte[length];
+                item.get(chunk);
+                buffer.write(chunk, 0, length);
+                if (item.hasRemaining()) {
+                    subscription.cancel();
+                    result.complete(new LimitedBody(buffer.toByteArray(), false, true));
+                    return;
+                }
+            }
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            result.complete(new LimitedBody(buffer.toByteArray(), false, false));
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package searchengine.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+import searchengine.config.CrawlerSettings;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Очередь заданий /api/indexPage: запрос сразу получает id задания, а переиндексацию выполняют
+ * index-page-workers фоновых потоков, не занимая потоки Tomcat. Очередь ограничена index-page-queue-capacity
+ * и упорядочена по приоритету, при равном — по времени постановки. Повторный запрос URL, задание которого
+ * еще ждет в очереди, возвращает то же задание (с приоритетом не ниже нового). Один URL никогда не
+ * переиндексируется двумя потоками сразу: запрос URL, который сейчас выполняется, заводит одно отложенное
+ * задание, и оно попадает в очередь только после завершения текущего. Завершенные задания хранятся
+ * index-page-job-retention мс для запросов статуса.
+ * <p>
+ * Рабочие потоки запускаются в {@link #start()}, когда контекст Spring полностью поднят (миграция схемы,
+ * загрузка индекса), и останавливаются в {@link #stop()}; до запуска задания только копятся в очереди.
+ */
+@Service
+public class PageIndexingQueue implements SmartLifecycle {
+    private static final Logger logger = LoggerFactory.getLogger(PageIndexingQueue.class);
+    private static final long SWEEP_INTERVAL_MS = 60_000;
+
+    public enum Status { QUEUED, RUNNING, COMPLETED, FAILED }
+
+    private final PageIndexingService pageIndexingService;
+    private final CrawlerSettings crawlerSettings;
+    private final PriorityBlockingQueue<Job> queue = new PriorityBlockingQueue<>(64,
+            Comparator.comparingInt((Job job) -> -job.priority).thenComparingLong(job -> job.sequence));
+    // Ждущие задания по URL (в очереди или отложенные) — для объединения повторных запросов; меняется под this
+    private final Map<String, Job> pendingByUrl = new HashMap<>();
+    // URL, которые сейчас переиндексируются, и отложенные до их завершения задания; меняются под this
+    private final Set<String> runningUrls = new HashSet<>();
+    private final Map<String, Job> followUps = new HashMap<>();
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    // Меняется под this
+    private final List<Thread> workers = new ArrayList<>();
+    private long lastSweepTime = System.currentTimeMillis();
+
+    public PageIndexingQueue(PageIndexingService pageIndexingService, CrawlerSettings crawlerSettings) {
+        this.pageIndexingService = pageIndexingService;
+        this.crawlerSettings = crawlerSettings;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (!workers.isEmpty()) {
+            return;
+        }
+        int threads = Math.max(1, crawlerSettings.getIndexPageWorkers());
+        for (int i = 1; i <= threads; i++) {
+            Thread worker = new Thread(this::work, "index-page-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        workers.clear();
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return !workers.isEmpty();
+    }
+
+    /**
+     * Ставит URL в очередь или возвращает уже ждущее задание этого URL; null — очередь заполнена.
+     */
+    public synchronized Job submit(String url, int priority) {
+        sweepFinishedJobs();
+        Job pending = pendingByUrl.get(url);
+        if (pending != null) {
+            if (priority > pending.priority) {
+                // Приоритет в очереди меняется только переустановкой задания; отложенное еще не в очереди
+                boolean queued = queue.remove(pending);
+                pending.priority = priority;
+                if (queued) {
+                    queue.add(pending);
+                }
+            }
+            logger.info("Запрос переиндексации {} объединен с заданием {}", url, pending.id);
+            return pending;
+        }
+        if (pendingByUrl.size() >= crawlerSettings.getIndexPageQueueCapacity()) {
+            return null;
+        }
+        Job job = new Job(UUID.randomUUID().toString(), url, priority, sequence.incrementAndGet());
+        pendingByUrl.put(url, job);
+        jobs.put(job.id, job);
+        if (runningUrls.contains(url)) {
+            followUps.put(url, job);
+        } else {
+            queue.add(job);
+        }
+        return job;
+    }
+
+    public Job find(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Job job;
+            try {
+                // Ожидание ограничено, чтобы завершенные задания вытеснялись и без новых запросов
+                job = queue.poll(SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (job == null) {
+                sweepFinishedJobs();
+                continue;
+            }
+            synchronized (this) {
+                // С этого момента новые запросы того же URL ждут завершения в отложенном задании
+                pendingByUrl.remove(job.url, job);
+                runningUrls.add(job.url);
+                job.status = Status.RUNNING;
+                job.startedAt = System.currentTimeMillis();
+            }
+            try {
+                pageIndexingService.indexPage(job.url);
+                job.status = Status.COMPLETED;
+            } catch (InterruptedException e) {
+                job.error = "Переиндексация прервана";
+                job.status = Status.FAILED;
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                logger.error("Ошибка переиндексации страницы {} (задание {})", job.url, job.id, e);
+                job.error = e.getMessage();
+                job.status = Status.FAILED;
+            } finally {
+                job.finishedAt = System.currentTimeMillis();
+                finish(job);
+            }
+        }
+    }
+
+    // URL освобождается; отложенное за время выполнения задание встает в очередь
+    private synchronized void finish(Job job) {
+        runningUrls.remove(job.url);
+        Job followUp = followUps.remove(job.url);
+        if (followUp != null) {
+            queue.add(followUp);
+        }
+        sweepFinishedJobs();
+    }
+
+    private synchronized void sweepFinishedJobs() {
+        long now = System.currentTimeMillis();
+        if (now - lastSweepTime < SWEEP_INTERVAL_MS) {
+            return;
+        }
+        lastSweepTime = now;
+        long retention = crawlerSettings.getIndexPageJobRetention();
+        jobs.values().removeIf(job -> job.finishedAt > 0 && now - job.finishedAt > retention);
+    }
+
+    public static final class Job {
+        private final String id;
+        private final String url;
+        private final long sequence;
+        private final long submittedAt = System.currentTimeMillis();
+        private volatile int priority;
+        private volatile Status status = Status.QUEUED;
+        private volatile long startedAt;
+        private volatile long finishedAt;
+        private volatile String error;
+
+        private Job(String id, String url, int priority, long sequence) {
+            this.id = id;
+            this.url = url;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("id", id);
+            map.put("url", url);
+            map.put("priority", priority);
+            map.put("status", status.name());
+            map.put("submittedAt", submittedAt);
+            map.put("startedAt", startedAt > 0 ? startedAt : null);
+            map.put("finishedAt", finishedAt > 0 ? finishedAt : null);
+            map.put("error", error);
+            return map;
+        }
+    }
+}
@@ -1,286 +1,202 @@
 package searchengine.services;
 
-import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import searchengine.config.SitesList;
 import searchengine.config.ConfigSite;
 import searchengine.model.Page;
 import searchengine.model.Site;
-import searchengine.model.Lemma;
-import searchengine.model.Index;
 import searchengine.model.IndexingStatus;
 import searchengine.repository.PageRepository;
+import searchengine.repository.PageSnippetRepository;
+import searchengine.repository.LemmaBatchRepository;
 import searchengine.repository.LemmaRepository;
 import searchengine.repository.SiteRepository;
 import searchengine.repository.IndexRepository;
-import org.jsoup.Connection;
 import org.springframework.beans.factory.annotation.Autowired;
-import java.util.Random;
-import java.io.IOException;
+import java.net.URI;
 import java.time.LocalDateTime;
 import java.util.*;
-import org.springframework.transaction.annotation.Transactional;
-import org.springframework.transaction.support.TransactionSynchronizationManager;
-import jakarta.persistence.EntityManager;
-import jakarta.persistence.PersistenceContext;
-import org.apache.lucene.morphology.LuceneMorphology;
-import org.apache.lucene.morphology.russian.RussianLuceneMorphology;
-import org.apache.lucene.morphology.english.EnglishLuceneMorphology;
 
 @Service
 public class PageIndexingService {
-
-    @PersistenceContext
-    private EntityManager entityManager;
+    private static final Logger logger = LoggerFactory.getLogger(PageIndexingService.class);
 
     private final SitesList sitesList;
     private final SiteRepository siteRepository;
     private final PageRepository pageRepository;
     private final LemmaRepository lemmaRepository;
     private final IndexRepository indexRepository;
+    private final PolitenessScheduler politenessScheduler;
+    private final PageFetcher pageFetcher;
+    private final MorphologyService morphologyService;
+    private final LemmaBatchRepository lemmaBatchRepository;
+    private final PostingIndex postingIndex;
+    private final PageSnippetRepository pageSnippetRepository;
+    private final PageLengthCache pageLengthCache;
+    private final IndexCounters indexCounters;
+    private final SuggestService suggestService;
+    private final TransactionTemplate transactionTemplate;
 
     @Autowired
-    public PageIndexingService(SitesList sitesList,IndexRepository indexRepository,LemmaRepository lemmaRepository, SiteRepository siteRepository, PageRepository pageRepository) {
+    public PageIndexingService(SitesList sitesList,IndexRepository indexRepository,LemmaRepository lemmaRepository, SiteRepository siteRepository, PageRepository pageRepository, PolitenessScheduler politenessScheduler, PageFetcher pageFetcher, MorphologyService morphologyService, LemmaBatchRepository lemmaBatchRepository, PostingIndex postingIndex, PageSnippetRepository pageSnippetRepository, PageLengthCache pageLengthCache, IndexCounters indexCounters, SuggestService suggestService, PlatformTransactionManager transactionManager) {
         this.sitesList = sitesList;
+        this.pageLengthCache = pageLengthCache;
+        this.indexCounters = indexCounters;
+        this.suggestService = suggestService;
+        this.postingIndex = postingIndex;
+        this.pageSnippetRepository = pageSnippetRepository;
+        this.lemmaBatchRepository = lemmaBatchRepository;
+        this.morphologyService = morphologyService;
+        this.pageFetcher = pageFetcher;
+        this.politenessScheduler = politenessScheduler;
         this.siteRepository = siteRepository;
         this.lemmaRepository = lemmaRepository;
         this.pageRepository = pageRepository;
         this.indexRepository = indexRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
     }
 
     // Проверка, входит ли URL в список настроенных сайтов
     public boolean isUrlWithinConfiguredSites(String url) {
+        return findConfiguredSite(url) != null;
+    }
+
+    // Поиск сайта из конфигурации, которому принадлежит URL
+    private ConfigSite findConfiguredSite(String url) {
         List<ConfigSite> sites = sitesList.getSites();
         for (ConfigSite site : sites) {
             if (url.startsWith(site.getUrl())) {
-                return true;
+                return site;
             }
         }
-        return false;
+        return null;
     }
 
-    @Transactional
-    public void indexSite(String baseUrl, int maxDepth) throws Exception {
-        // Проверяем, входит ли URL в список настроенных сайтов
-        if (!isUrlWithinConfiguredSites(baseUrl)) {
-            throw new Exception("URL не принадлежит к списку настроенных сайтов: " + baseUrl);
+    /**
+     * Переиндексация одной страницы: загрузка и лемматизация идут вне транзакции, а в короткой транзакции
+     * снимается вклад старой версии (частоты лемм и связки index только этой страницы) и записывается новая.
+     * Стоимость пропорциональна числу лемм страницы, а не размеру сайта.
+     */
+    public void indexPage(String url) throws Exception {
+        ConfigSite configSite = findConfiguredSite(url);
+        if (configSite == null) {
+            throw new Exception("URL не принадлежит к списку настроенных сайтов: " + url);
         }
-
-        // Проверяем, существует ли сайт в базе данных
-        Site site = siteRepository.findByUrl(baseUrl);
-        if (site != null) {
-            // Удаляем старые данные, если сайт уже существует
-            deleteSiteData(site);
+        Site site = findOrCreateSite(configSite);
+
+        // Паузы между запросами согласованы с полным обходом через общий планировщик хостов
+        politenessScheduler.awaitSlot(URI.create(url).getHost(), politenessScheduler.resolveCrawlDelay(configSite));
+        FetchResult response = pageFetcher.fetch(url);
+        boolean failed = response.getStatusCode() >= 400;
+        if (!failed && !isSupportedContentType(url, response.getContentType())) {
+            throw new Exception("Неподдерживаемый тип содержимого " + response.getContentType() + ": " + url);
         }
 
-        // Создаем новый сайт для индексации
-        site = new Site();
-        site.setUrl(baseUrl);
-        site.setName(baseUrl); // Можно заменить на реальное имя сайта
-        site.setStatus(IndexingStatus.INDEXING);
-        site.setStatusTime(LocalDateTime.now());
-        siteRepository.save(site);
-
-        Set<String> visitedUrls = new HashSet<>();
-        Queue<UrlDepthPair> queue = new LinkedList<>();
-        queue.add(new UrlDepthPair(baseUrl, 0)); // Начальная пара URL и глубина 0
-
-        Random random = new Random();
-
-        while (!queue.isEmpty()) {
-            UrlDepthPair current = queue.poll();
-            String currentUrl = current.getUrl();
-            int currentDepth = current.getDepth();
-
-            if (visitedUrls.contains(currentUrl) || currentDepth >= maxDepth) {
-                continue;
-            }
-            visitedUrls.add(currentUrl);
-
-            try {
-                System.out.println("Обрабатываю страницу на глубине " + currentDepth + ": " + currentUrl);
-
-                // Выполняем запрос к текущей странице
-                Connection.Response response = Jsoup.connect(currentUrl).ignoreContentType(true).execute();
-                String contentType = response.contentType();
-
-                // Сохраняем страницы HTML и изображения (JPG, PNG и т.д.)
-                if (isSupportedContentType(currentUrl, contentType)) {
-                    savePageContent(response, currentUrl, site);
-                }
-
-                // Извлекаем ссылки только для HTML-страниц
-                if (contentType != null && contentType.startsWith("text/html")) {
-                    Document document = response.parse();
-                    Elements links = document.select("a[href]");
-                    for (Element link : links) {
-                        String absUrl = link.attr("abs:href");
-                        if (absUrl.startsWith(baseUrl) && !visitedUrls.contains(absUrl)) {
-                            queue.add(new UrlDepthPair(absUrl, currentDepth + 1)); // Увеличиваем глубину
-                        }
-                    }
-                }
-
-                // Добавляем случайную задержку между запросами (от 0,5 до 5 секунд)
-                int delay = random.nextInt(4500) + 500; // Генерирует значение от 500 до 5000 миллисекунд
-                System.out.println("Задержка перед следующим запросом: " + delay + " миллисекунд.");
-                Thread.sleep(delay);
-
-            } catch (IOException e) {
-                System.err.println("Ошибка загрузки страницы: " + currentUrl + " - " + e.getMessage());
-            }
-
-            // Обновляем статус времени после обработки каждой страницы (даже если страница не была успешно загружена)
-            site.setStatusTime(LocalDateTime.now());
-            siteRepository.save(site);
-            System.out.println("Обновление времени в базе данных: " + LocalDateTime.now()); // Логирование обновления времени
+        // Разбор и лемматизация — до транзакции; у страницы ошибки текст не индексируется
+        String title = null;
+        String text = null;
+        TextAnalysis analysis = null;
+        if (response.isHtml() && !failed) {
+            Document document = response.parse();
+            title = document.title();
+            text = document.text();
+            analysis = morphologyService.analyzeText(text);
         }
 
-        // Завершаем индексацию
-        site.setStatus(IndexingStatus.INDEXED);
-        site.setStatusTime(LocalDateTime.now());
-        siteRepository.save(site);
+        PageUpdate update = persistPage(site, getPathFromUrl(url), response, title, text, analysis);
 
-        System.out.println("Индексация сайта завершена: " + baseUrl);
+        // Индекс в памяти и кэш длин меняются после фиксации транзакции
+        if (update.oldLemmaIds != null) {
+            postingIndex.removePage(site.getId(), update.pageId, update.oldLemmaIds);
+        }
+        if (analysis != null) {
+            postingIndex.addPage(site.getId(), update.pageId, analysis.getLemmaFrequencies(), update.pageLemmaIds);
+            pageLengthCache.put(site.getId(), update.pageId, analysis.getTokenCount());
+        } else {
+            pageLengthCache.remove(site.getId(), update.pageId);
+        }
+        if (update.added) {
+            indexCounters.pageAdded(site.getId());
+        }
+        // Новые леммы страницы попадают в подсказки и словарь исправления опечаток
+        suggestService.rebuildSiteAsync(site.getId());
+        logger.info("Страница {} переиндексирована: лемм {}, снято связок старой версии {}", url,
+                update.pageLemmaIds.size(), update.oldLemmaIds != null ? update.oldLemmaIds.size() : 0);
     }
 
-    private void savePageContent(Connection.Response response, String url, Site site) {
-        try {
-            String content = response.body();
-            String contentType = response.contentType();
-            String path = getPathFromUrl(url);
-            int statusCode = response.statusCode();
-
-            Optional<Page> existingPage = pageRepository.findBySiteAndPath(site, path);
-            if (existingPage.isPresent()) {
-                Page pageToDelete = existingPage.get();
-
-                // Удаляем индексы
-                int deletedIndexes = indexRepository.deleteByPageId(pageToDelete.getId());
-                System.out.println("Удалено записей из index: " + deletedIndexes);
-
-                // Удаляем страницу
-                pageRepository.delete(pageToDelete);
-                System.out.println("Удалена старая страница: " + url);
-
-                // Очищаем "осиротевшие" леммы
-                int deletedLemmas = lemmaRepository.deleteOrphanLemmas();
-                System.out.println("Удалено неиспользуемых лемм: " + deletedLemmas);
+    private PageUpdate persistPage(Site site, String path, FetchResult response, String title, String text,
+                                   TextAnalysis analysis) {
+        return transactionTemplate.execute(status -> {
+            PageUpdate update = new PageUpdate();
+            Page page = pageRepository.findBySiteAndPath(site, path).orElse(null);
+            if (page != null) {
+                // Вклад старой версии: сначала частоты по ее связкам, затем сами связки
+                update.oldLemmaIds = indexRepository.findLemmaIdsByPageId(page.getId());
+                lemmaRepository.decrementFrequencyByPageId(page.getId());
+                indexRepository.deleteByPageId(page.getId());
             } else {
-                System.out.println("Страница не найдена в базе, создаем новую: " + url);
+                page = new Page();
+                page.setSite(site);
+                page.setPath(path);
+                update.added = true;
+            }
+            page.setCode(response.getStatusCode());
+            page.setContentType(response.getContentType());
+            page.setEtag(response.getEtag());
+            page.setLastModified(response.getLastModified());
+            if (analysis != null) {
+                page.setContent(text);
+                page.setContentHash(PageCrawler.hashContent(response.getBody()));
+                page.setTokenCount(analysis.getTokenCount());
+            } else if (response.getStatusCode() >= 400) {
+                // Страница ошибки: только код, прежний текст снят с индекса выше
+                page.setContent("");
+                page.setContentHash(null);
+                page.setTokenCount(null);
+            } else {
+                page.setContent(response.isBodySkipped() ? "Binary content: " + response.getContentType() : response.bodyAsString());
+                page.setContentHash(null);
+                page.setTokenCount(null);
             }
-
-            // Создаём новую страницу
-            Page page = new Page();
-            page.setSite(site);
-            page.setPath(path);
-            page.setCode(statusCode);
-            page.setContent(content);
-            page.setContentType(contentType);
             pageRepository.save(page);
+            update.pageId = page.getId();
 
-            System.out.println("Сохранено содержимое: " + url);
-
-            // Обрабатываем текст страницы
-            processPageContent(page);
-
-        } catch (Exception e) {
-            System.err.println("Ошибка сохранения содержимого: " + url + " - " + e.getMessage());
-        }
-    }
-
-
-
-    private void processPageContent(Page page) {
-        try {
-            // Парсим HTML с помощью Jsoup
-            Document document = Jsoup.parse(page.getContent());
-            String text = document.body().text(); // Извлекаем текст страницы
-
-            // **Лемматизация текста**
-            Map<String, Integer> lemmaCounts = lemmatizeText(text);
-
-            for (Map.Entry<String, Integer> entry : lemmaCounts.entrySet()) {
-                String lemmaText = entry.getKey();
-                int count = entry.getValue();
-
-                // **Обновление таблицы lemma**
-                Lemma lemma = lemmaRepository.findByLemma(lemmaText)
-                        .orElseGet(() -> {
-                            Lemma newLemma = new Lemma();
-                            newLemma.setLemma(lemmaText);
-                            newLemma.setFrequency(0);
-                            newLemma.setSite(page.getSite()); // Добавляем сайт
-                            return newLemma;
-                        });
-
-                lemma.setFrequency(lemma.getFrequency() + 1);
-                lemmaRepository.save(lemma);
-
-                // **Связываем с index**
-                Index index = new Index();
-                index.setPage(page);
-                index.setLemma(lemma);
-                index.setRank((float) count);
-                indexRepository.save(index);
-
-                // Логирование сохраненных лемм
-                System.out.println("Сохранена лемма: " + lemmaText + " (Частота: " + lemma.getFrequency() + ")");
+            if (analysis != null) {
+                update.pageLemmaIds = lemmaBatchRepository.saveLemmasAndIndexes(site.getId(), page.getId(),
+                        analysis.getLemmaFrequencies(), analysis.encodePositions());
+                // Вхождения лемм в page.content — чтобы поиск строил фрагмент без разбора HTML
+                pageSnippetRepository.save(page.getId(), site.getId(), title, analysis.encodeTokens(update.pageLemmaIds));
+            } else {
+                update.pageLemmaIds = Map.of();
+                pageSnippetRepository.deleteByPageId(page.getId());
             }
-
-            System.out.println("Обработана страница: " + page.getPath());
-
-        } catch (Exception e) {
-            System.err.println("Ошибка обработки страницы: " + page.getPath() + " - " + e.getMessage());
-        }
+            return update;
+        });
     }
 
-
-    private Map<String, Integer> lemmatizeText(String text) {
-        Map<String, Integer> lemmaCounts = new HashMap<>();
-
-        try {
-            LuceneMorphology russianMorphology = new RussianLuceneMorphology();
-            LuceneMorphology englishMorphology = new EnglishLuceneMorphology();
-
-            // Разделяем текст на слова (оставляем только буквы)
-            String[] words = text.toLowerCase().split("\\P{L}+");
-
-            for (String word : words) {
-                if (word.isBlank()) continue;
-
-                List<String> normalForms = new ArrayList<>();
-
-                if (word.matches("^[а-яё]+$")) { // Только русские буквы
-                    normalForms = russianMorphology.getNormalForms(word);
-                } else if (word.matches("^[a-z]+$")) { // Только английские буквы
-                    normalForms = englishMorphology.getNormalForms(word);
-                } else {
-                    // Игнорируем символы или смешанные слова
-                    continue;
-                }
-
-                // Добавляем леммы в счетчик
-                for (String lemma : normalForms) {
-                    lemmaCounts.put(lemma, lemmaCounts.getOrDefault(lemma, 0) + 1);
-                }
-
-                // Логирование результатов
-                System.out.println("Слово: " + word + " -> Леммы: " + normalForms);
-            }
-        } catch (Exception e) {
-            System.err.println("Ошибка лемматизации: " + e.getMessage());
+    // Запись сайта из конфигурации; если сайт еще не индексировался, заводится без обхода со статусом FAILED:
+    // так полный запуск и resumeIndexing обойдут его целиком, а статистика не покажет его проиндексированным
+    private Site findOrCreateSite(ConfigSite configSite) {
+        Site site = siteRepository.findByUrl(configSite.getUrl());
+        if (site == null) {
+            site = new Site();
+            site.setUrl(configSite.getUrl());
+            site.setName(configSite.getName());
+            site.setStatus(IndexingStatus.FAILED);
+            site.setLastError("Сайт не обходился: проиндексированы только отдельные страницы");
+            site.setStatusTime(LocalDateTime.now());
+            site = siteRepository.save(site);
         }
-
-        return lemmaCounts;
+        return site;
     }
 
-
     private boolean isSupportedContentType(String url, String contentType) {
         if (contentType == null) return false;
 
@@ -314,49 +230,11 @@ public class PageIndexingService {
         }
     }
 
-    // Класс для хранения URL и глубины
-    private static class UrlDepthPair {
-        private final String url;
-        private final int depth;
-
-        public UrlDepthPair(String url, int depth) {
-            this.url = url;
-            this.depth = depth;
-        }
-
-        public String getUrl() {
-            return url;
-        }
-
-        public int getDepth() {
-            return depth;
-        }
-    }
-
-    @Transactional
-    private void deleteSiteData(Site site) {
-        if (site != null) {
-            boolean isActive = TransactionSynchronizationManager.isActualTransactionActive();
-            System.out.println("Транзакция активна: " + isActive);
-
-            long pagesCount = pageRepository.countBySite(site);
-            System.out.println("Удаляется " + pagesCount + " страниц с сайта: " + site.getUrl());
-
-            int deletedIndexes = indexRepository.deleteBySiteId(site.getId());
-            System.out.println("Удалено записей из index: " + deletedIndexes);
-
-            int deletedLemmas = lemmaRepository.deleteBySiteId((long) site.getId());
-
-            System.out.println("Удалено записей из lemma: " + deletedLemmas);
-
-            pageRepository.deleteAllBySite(site);
-            System.out.println("Удалены страницы для сайта: " + site.getUrl());
-
-            siteRepository.delete(site);
-            entityManager.flush();
-            entityManager.detach(site);
-
-            System.out.println("Удалён сайт с URL: " + site.getUrl());
-        }
+    // Результат записи страницы, нужный после фиксации транзакции
+    private static class PageUpdate {
+        private int pageId;
+        private boolean added;
+        private List<Integer> oldLemmaIds;
+        private Map<String, Integer> pageLemmaIds;
     }
 }
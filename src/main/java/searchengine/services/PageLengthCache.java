@@ -0,0 +1,101 @@
+package searchengine.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import searchengine.repository.SearchRepository;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Длины страниц в словах для BM25: массив float по page id и сумма длин по сайту, из которой берется
+ * средняя длина. Заполняется из page.token_count при старте и обновляется при записи и удалении страниц,
+ * так что ранжирование не обращается к БД за длиной ни одной страницы. Длина 0 — неизвестна (страница
+ * проиндексирована до появления token_count или удалена).
+ */
+@Service
+public class PageLengthCache {
+    private static final Logger logger = LoggerFactory.getLogger(PageLengthCache.class);
+
+    private final SearchRepository searchRepository;
+    // Массив заменяется целиком при росте; запись — под блокировкой объекта
+    private volatile float[] lengths = new float[1024];
+    private final Map<Integer, SiteTotals> sites = new ConcurrentHashMap<>();
+
+    public PageLengthCache(SearchRepository searchRepository) {
+        this.searchRepository = searchRepository;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void loadOnStartup() {
+        long started = System.nanoTime();
+        int[] loaded = {0};
+        searchRepository.forEachPageLength((siteId, pageId, tokenCount) -> {
+            put(siteId, pageId, tokenCount);
+            loaded[0]++;
+        });
+        logger.info("Загружены длины {} страниц за {} мс", loaded[0], (System.nanoTime() - started) / 1_000_000);
+    }
+
+    // Записывает длину страницы; повторная запись той же страницы заменяет прежнюю длину
+    public synchronized void put(int siteId, int pageId, int tokenCount) {
+        float[] current = lengths;
+        if (pageId >= current.length) {
+            current = Arrays.copyOf(current, Math.max(pageId + 1, current.length * 2));
+        }
+        SiteTotals totals = sites.computeIfAbsent(siteId, id -> new SiteTotals());
+        float previous = current[pageId];
+        if (previous > 0) {
+            totals.tokens -= (long) previous;
+            totals.pages--;
+        }
+        current[pageId] = tokenCount;
+        if (tokenCount > 0) {
+            totals.tokens += tokenCount;
+            totals.pages++;
+        }
+        lengths = current;
+    }
+
+    public synchronized void remove(int siteId, int pageId) {
+        float[] current = lengths;
+        if (pageId < current.length && current[pageId] > 0) {
+            SiteTotals totals = sites.get(siteId);
+            if (totals != null) {
+                totals.tokens -= (long) current[pageId];
+                totals.pages--;
+            }
+            current[pageId] = 0;
+        }
+    }
+
+    // Длины страниц удаленного сайта остаются в массиве: id страниц не переиспользуются
+    public synchronized void removeSite(int siteId) {
+        sites.remove(siteId);
+    }
+
+    // Снимок массива длин для цикла ранжирования; индекс — page id
+    public float[] lengths() {
+        return lengths;
+    }
+
+    public synchronized int pageCount(int siteId) {
+        SiteTotals totals = sites.get(siteId);
+        return totals != null ? totals.pages : 0;
+    }
+
+    // Средняя длина страницы сайта; 0, если длины еще неизвестны
+    public synchronized float averageLength(int siteId) {
+        SiteTotals totals = sites.get(siteId);
+        return totals != null && totals.pages > 0 ? (float) totals.tokens / totals.pages : 0;
+    }
+
+    private static final class SiteTotals {
+        private long tokens;
+        private int pages;
+    }
+}
@@ -0,0 +1,80 @@
+package searchengine.services;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+import searchengine.config.ConfigSite;
+import searchengine.config.CrawlerSettings;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Вежливость обхода: между двумя запросами к одному хосту проходит не меньше
+ * заданной паузы. Вместо сна в рабочем потоке каждому запросу назначается момент,
+ * когда он станет допустимым, а запуск выполняет один общий таймер.
+ */
+@Component
+public class PolitenessScheduler {
+
+    private final CrawlerSettings crawlerSettings;
+    // Для каждого хоста — ближайший свободный момент обращения (в нс по System.nanoTime)
+    private final Map<String, AtomicLong> nextSlotByHost = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "politeness-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public PolitenessScheduler(CrawlerSettings crawlerSettings) {
+        this.crawlerSettings = crawlerSettings;
+    }
+
+    // Пауза между запросами для сайта: из его настроек или общая по умолчанию
+    public long resolveCrawlDelay(ConfigSite site) {
+        if (site != null && site.getCrawlDelay() != null) {
+            return site.getCrawlDelay();
+        }
+        return crawlerSettings.getDefaultCrawlDelay();
+    }
+
+    // Резервирует слот для хоста и возвращает, сколько наносекунд осталось до него
+    public long reserve(String host, long crawlDelayMs) {
+        long delayNanos = TimeUnit.MILLISECONDS.toNanos(crawlDelayMs);
+        AtomicLong nextSlot = nextSlotByHost.computeIfAbsent(host, h -> new AtomicLong(System.nanoTime()));
+        while (true) {
+            long now = System.nanoTime();
+            long current = nextSlot.get();
+            long granted = Math.max(current, now);
+            if (nextSlot.compareAndSet(current, granted + delayNanos)) {
+                return granted - now;
+            }
+        }
+    }
+
+    // Запускает задачу, когда к хосту снова можно обращаться; ни один поток при этом не спит
+    public void schedule(String host, long crawlDelayMs, Runnable task) {
+        long waitNanos = reserve(host, crawlDelayMs);
+        if (waitNanos <= 0) {
+            task.run();
+        } else {
+            timer.schedule(task, waitNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Для синхронных обходов: блокирует вызывающий поток до своего слота
+    public void awaitSlot(String host, long crawlDelayMs) throws InterruptedException {
+        long waitNanos = reserve(host, crawlDelayMs);
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+}
@@ -0,0 +1,17 @@
+package searchengine.services;
+
+/**
+ * Чтение списка страниц леммы по возрастанию page_id — из памяти ({@link PostingList}) или из сегмента на диске.
+ */
+public interface PostingCursor {
+
+    // Переходит к следующей записи; false — список закончился
+    boolean next();
+
+    // Переходит к первой записи с page_id не меньше target; false — таких нет
+    boolean advance(int target);
+
+    int pageId();
+
+    int rank();
+}
@@ -0,0 +1,517 @@
+package searchengine.services;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import searchengine.config.CrawlerSettings;
+import searchengine.model.Site;
+import searchengine.repository.LemmaBatchRepository;
+import searchengine.repository.SearchRepository;
+import searchengine.repository.SiteRepository;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * Инвертированный индекс: словарь лемм каждого сайта и списки страниц по lemma id. Свежие связки копятся
+ * в буфере в памяти ({@link PostingList}); когда их набирается segment-flush-postings, буфер сбрасывается
+ * в новый неизменяемый сегмент на диске ({@link SegmentStore}), а сегменты в фоне сливаются. Поиск читает
+ * буфер и отображенные в память сегменты, так что куча не растет вместе с индексом.
+ * <p>
+ * После корректного завершения сегменты открываются как есть; иначе индекс пересобирается из БД в фоне.
+ * Пока сайт не загружен, {@link #isReady(int)} возвращает false и поиск по нему идет через БД.
+ */
+@Service
+public class PostingIndex {
+    private static final Logger logger = LoggerFactory.getLogger(PostingIndex.class);
+
+    private final SiteRepository siteRepository;
+    private final SearchRepository searchRepository;
+    private final CrawlerSettings crawlerSettings;
+    private final SegmentStore store;
+
+    // Буфер: lemma id → страницы; id лемм уникальны во всей таблице, поэтому списки общие для всех сайтов
+    private volatile Map<Integer, PostingList> buffer = new ConcurrentHashMap<>();
+    // Буфер, который сейчас пишется в сегмент; до публикации сегмента поиск читает и его
+    private volatile Map<Integer, PostingList> flushing;
+    // Страницы, удаленные, пока flushing пишется, — они будут отмечены и в новом сегменте
+    private final Set<Integer> deletedWhileFlushing = ConcurrentHashMap.newKeySet();
+    // Запись в буфер — под чтением, подмена буфера при сбросе — под записью
+    private final ReadWriteLock bufferLock = new ReentrantReadWriteLock();
+    private final AtomicLong bufferedPostings = new AtomicLong();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private final Map<Integer, SiteTerms> sites = new ConcurrentHashMap<>();
+    // Поколение индекса сайта растет с каждой записанной или удаленной страницей — по нему сверяется кэш поиска
+    private final Map<Integer, AtomicLong> generations = new ConcurrentHashMap<>();
+    // Сайты, которые еще предстоит загрузить
+    private final Set<Integer> pendingSites = ConcurrentHashMap.newKeySet();
+    // Сброс буфера, слияние и загрузка идут в одном фоновом потоке и не пересекаются
+    private final ExecutorService background = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "posting-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public PostingIndex(SiteRepository siteRepository, SearchRepository searchRepository, CrawlerSettings crawlerSettings) {
+        this.siteRepository = siteRepository;
+        this.searchRepository = searchRepository;
+        this.crawlerSettings = crawlerSettings;
+        this.store = new SegmentStore(Path.of(crawlerSettings.getIndexDirectory()),
+                crawlerSettings.getSegmentMergeFactor(), crawlerSettings.getMaxSegmentBytes());
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        for (Site site : siteRepository.findAll()) {
+            pendingSites.add(site.getId());
+        }
+        background.submit(this::loadPendingSites);
+    }
+
+    @PreDestroy
+    public void close() {
+        background.shutdown();
+        try {
+            if (background.awaitTermination(1, TimeUnit.MINUTES) && pendingSites.isEmpty()) {
+                flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Не удалось сбросить индекс при остановке: {}", e.getMessage(), e);
+        }
+    }
+
+    public long generation(int siteId) {
+        AtomicLong generation = generations.get(siteId);
+        return generation != null ? generation.get() : 0;
+    }
+
+    public boolean isReady(int siteId) {
+        SiteTerms terms = sites.get(siteId);
+        return terms != null ? terms.ready : !pendingSites.contains(siteId);
+    }
+
+    // Страницы леммы на сайте или null, если такой леммы на сайте нет
+    public Postings find(int siteId, String lemma) {
+        SiteTerms terms = sites.get(siteId);
+        if (terms == null) {
+            return null;
+        }
+        Integer lemmaId = terms.lemmaIds.get(LemmaBatchRepository.collationKey(lemma));
+        return lemmaId != null ? new Postings(lemmaId) : null;
+    }
+
+    // Вызывается после записи связок страницы; pageLemmaIds — id лемм по ключу collationKey
+    public void addPage(int siteId, int pageId, Map<String, Integer> lemmaFrequencies, Map<String, Integer> pageLemmaIds) {
+        SiteTerms terms = terms(siteId);
+        Map<Integer, Integer> rankByLemmaId = new HashMap<>();
+        lemmaFrequencies.forEach((lemma, count) -> {
+            Integer lemmaId = pageLemmaIds.get(LemmaBatchRepository.collationKey(lemma));
+            if (lemmaId != null) {
+                rankByLemmaId.merge(lemmaId, count, Integer::sum);
+            }
+        });
+        terms.lemmaIds.putAll(pageLemmaIds);
+        markDirty();
+        bufferLock.readLock().lock();
+        try {
+            Map<Integer, PostingList> current = buffer;
+            rankByLemmaId.forEach((lemmaId, rank) -> current.computeIfAbsent(lemmaId, id -> new PostingList()).add(pageId, rank));
+        } finally {
+            bufferLock.readLock().unlock();
+        }
+        bumpGeneration(siteId);
+        if (bufferedPostings.addAndGet(rankByLemmaId.size()) >= crawlerSettings.getSegmentFlushPostings()) {
+            scheduleFlush();
+        }
+    }
+
+    // Вызывается после удаления связок страницы из БД
+    public void removePage(int siteId, int pageId, Collection<Integer> lemmaIds) {
+        SiteTerms terms = terms(siteId);
+        if (!terms.ready) {
+            // Загрузчик мог уже прочитать старые связки — он их пропустит
+            terms.removedPages.add(pageId);
+        }
+        markDirty();
+        bufferLock.readLock().lock();
+        try {
+            Map<Integer, PostingList> frozen = flushing;
+            for (Integer lemmaId : lemmaIds) {
+                PostingList list = buffer.get(lemmaId);
+                if (list != null) {
+                    list.remove(pageId);
+                }
+            }
+            // Из сбрасываемого буфера страница не удаляется — его читает запись сегмента; поиск пропускает
+            // ее по deletedWhileFlushing, а новый сегмент получит отметку удаления
+            if (frozen != null) {
+                deletedWhileFlushing.add(pageId);
+            }
+            store.delete(pageId, lemmaIds);
+        } finally {
+            bufferLock.readLock().unlock();
+        }
+        bumpGeneration(siteId);
+    }
+
+    // Леммы сайта пропадают из словаря; их связки уходят из буфера сразу, а из сегментов — при слиянии
+    public void removeSite(int siteId) {
+        pendingSites.remove(siteId);
+        bumpGeneration(siteId);
+        SiteTerms terms = sites.remove(siteId);
+        if (terms != null) {
+            terms.removed = true;
+            markDirty();
+            terms.lemmaIds.values().forEach(buffer::remove);
+            logger.info("Индекс сайта {} удален.", siteId);
+        }
+    }
+
+    // Сбрасывает буфер в сегмент; вызывается в конце обхода, чтобы сегменты соответствовали БД
+    public void flushAsync() {
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            background.submit(() -> {
+                flushScheduled.set(false);
+                try {
+                    flush();
+                    while (store.mergeOnce(liveLemmas())) {
+                        // Сливаем, пока на каком-то уровне набирается mergeFactor сегментов
+                    }
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Ошибка сброса или слияния сегментов индекса: {}", e.getMessage(), e);
+                }
+            });
+        }
+    }
+
+    private void flush() throws IOException {
+        Map<Integer, PostingList> frozen;
+        bufferLock.writeLock().lock();
+        try {
+            frozen = buffer;
+            if (frozen.isEmpty()) {
+                if (pendingSites.isEmpty()) {
+                    store.markClean();
+                }
+                return;
+            }
+            flushing = frozen;
+            buffer = new ConcurrentHashMap<>();
+            bufferedPostings.set(0);
+        } finally {
+            bufferLock.writeLock().unlock();
+        }
+
+        long started = System.nanoTime();
+        int[] lemmaIds = frozen.keySet().stream().mapToInt(Integer::intValue).filter(liveLemmas()).sorted().toArray();
+        IndexSegment segment = store.add(lemmaIds, lemmaId -> frozen.get(lemmaId).cursor(), deletedWhileFlushing);
+
+        bufferLock.writeLock().lock();
+        try {
+            flushing = null;
+            deletedWhileFlushing.clear();
+            store.writeDeletions();
+            if (buffer.isEmpty() && pendingSites.isEmpty()) {
+                store.markClean();
+            }
+        } finally {
+            bufferLock.writeLock().unlock();
+        }
+        logger.info("Буфер индекса сброшен в сегмент {}: лемм {}, связок {}, {} КБ, за {} мс", segment.id(),
+                lemmaIds.length, segment.postingCount(), segment.sizeInBytes() / 1024, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private void bumpGeneration(int siteId) {
+        generations.computeIfAbsent(siteId, id -> new AtomicLong()).incrementAndGet();
+    }
+
+    private void markDirty() {
+        if (store.isClean()) {
+            try {
+                store.markDirty();
+            } catch (IOException e) {
+                // Индекс в памяти остается верным; при следующем старте сегменты будут открыты как чистые
+                logger.error("Не удалось снять отметку clean индекса: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    // Леммы, которые есть в словаре хотя бы одного сайта; остальные — от удаленных сайтов
+    private IntPredicate liveLemmas() {
+        Set<Integer> live = new HashSet<>();
+        for (SiteTerms terms : sites.values()) {
+            live.addAll(terms.lemmaIds.values());
+        }
+        return live::contains;
+    }
+
+    private SiteTerms terms(int siteId) {
+        return sites.computeIfAbsent(siteId, id -> new SiteTerms(!pendingSites.contains(id)));
+    }
+
+    private void loadPendingSites() {
+        boolean reuse;
+        try {
+            reuse = store.open();
+        } catch (IOException e) {
+            logger.error("Каталог индекса {} недоступен: {}", crawlerSettings.getIndexDirectory(), e.getMessage(), e);
+            return;
+        }
+        logger.info(reuse ? "Открыто {} сегментов индекса." : "Сегменты индекса отсутствуют или устарели, индекс собирается из БД.",
+                store.segments().size());
+        for (Integer siteId : pendingSites.toArray(new Integer[0])) {
+            try {
+                loadSite(siteId, !reuse);
+            } catch (IOException | RuntimeException e) {
+                // Сайт остается незагруженным, поиск по нему продолжит работать через БД
+                logger.error("Не удалось загрузить индекс сайта {}: {}", siteId, e.getMessage(), e);
+            }
+        }
+    }
+
+    private void loadSite(int siteId, boolean rebuild) throws IOException {
+        if (!pendingSites.contains(siteId)) {
+            return;
+        }
+        long started = System.nanoTime();
+        SiteTerms terms = terms(siteId);
+
+        searchRepository.forEachLemma(siteId, (lemma, id) -> terms.lemmaIds.putIfAbsent(LemmaBatchRepository.collationKey(lemma), id));
+
+        long[] postings = new long[1];
+        if (rebuild) {
+            // Связки читаются потоком и пишутся сегментами по segment-flush-postings, не накапливаясь в куче
+            Map<Integer, Builder> builders = new HashMap<>();
+            long[] chunk = new long[1];
+            IOException[] failure = new IOException[1];
+            searchRepository.forEachPosting(siteId, (lemmaId, pageId, rank) -> {
+                if (failure[0] != null || terms.removedPages.contains(pageId)) {
+                    return;
+                }
+                builders.computeIfAbsent(lemmaId, id -> new Builder()).add(pageId, Math.round(rank));
+                postings[0]++;
+                if (++chunk[0] >= crawlerSettings.getSegmentFlushPostings()) {
+                    try {
+                        writeSegment(builders, terms);
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                    builders.clear();
+                    chunk[0] = 0;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            writeSegment(builders, terms);
+        }
+
+        terms.ready = true;
+        terms.removedPages.clear();
+        pendingSites.remove(siteId);
+        if (terms.removed) {
+            // Сайт удалили, пока шла загрузка
+            terms.lemmaIds.values().forEach(buffer::remove);
+            return;
+        }
+        logger.info("Индекс сайта {} готов: лемм {}, прочитано связок из БД {}, за {} мс", siteId,
+                terms.lemmaIds.size(), postings[0], (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private void writeSegment(Map<Integer, Builder> builders, SiteTerms terms) throws IOException {
+        if (builders.isEmpty()) {
+            return;
+        }
+        int[] lemmaIds = builders.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        // Страницы, удаленные во время загрузки, не попадают в сегмент
+        store.add(lemmaIds, lemmaId -> {
+            Builder builder = builders.get(lemmaId).sorted(terms.removedPages);
+            return PostingList.of(builder.pageIds, builder.ranks, builder.size).cursor();
+        }, terms.removedPages);
+    }
+
+    /**
+     * Страницы одной леммы во всех источниках: буфер, сбрасываемый буфер и сегменты от нового к старому.
+     */
+    public final class Postings {
+        private final int lemmaId;
+
+        private Postings(int lemmaId) {
+            this.lemmaId = lemmaId;
+        }
+
+        public int lemmaId() {
+            return lemmaId;
+        }
+
+        // Документная частота для BM25 и порядка пересечения: число живых страниц с леммой, без удаленных
+        // страниц сегментов и сбрасываемого буфера
+        public int documentFrequency() {
+            long size = 0;
+            PostingList list = buffer.get(lemmaId);
+            if (list != null) {
+                size += list.size();
+            }
+            Map<Integer, PostingList> frozen = flushing;
+            if (frozen != null && (list = frozen.get(lemmaId)) != null) {
+                size += list.size();
+                for (int pageId : deletedWhileFlushing) {
+                    PostingCursor cursor = list.cursor();
+                    if (cursor.advance(pageId) && cursor.pageId() == pageId) {
+                        size--;
+                    }
+                }
+            }
+            for (IndexSegment segment : store.segments()) {
+                size += segment.liveDocCount(lemmaId);
+            }
+            return (int) Math.min(Math.max(size, 0), Integer.MAX_VALUE);
+        }
+
+        public PostingCursor cursor() {
+            List<PostingCursor> cursors = new ArrayList<>();
+            PostingList list = buffer.get(lemmaId);
+            if (list != null) {
+                cursors.add(list.cursor());
+            }
+            // Сегменты читаются последними: сброс сначала публикует сегмент и только потом забывает буфер
+            Map<Integer, PostingList> frozen = flushing;
+            if (frozen != null && (list = frozen.get(lemmaId)) != null) {
+                cursors.add(deletedWhileFlushing.isEmpty() ? list.cursor()
+                        : new ExcludingCursor(list.cursor(), deletedWhileFlushing));
+            }
+            for (IndexSegment segment : store.segments()) {
+                PostingCursor cursor = segment.cursor(lemmaId);
+                if (cursor != null) {
+                    cursors.add(cursor);
+                }
+            }
+            return MergedPostingCursor.of(cursors);
+        }
+    }
+
+    // Курсор сбрасываемого буфера без страниц, удаленных во время сброса
+    private static final class ExcludingCursor implements PostingCursor {
+        private final PostingCursor source;
+        private final Set<Integer> excluded;
+
+        ExcludingCursor(PostingCursor source, Set<Integer> excluded) {
+            this.source = source;
+            this.excluded = excluded;
+        }
+
+        @Override
+        public boolean next() {
+            while (source.next()) {
+                if (!excluded.contains(source.pageId())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean advance(int target) {
+            if (!source.advance(target)) {
+                return false;
+            }
+            return !excluded.contains(source.pageId()) || next();
+        }
+
+        @Override
+        public int pageId() {
+            return source.pageId();
+        }
+
+        @Override
+        public int rank() {
+            return source.rank();
+        }
+    }
+
+    private static final class SiteTerms {
+        // collationKey(лемма) → lemma id
+        private final Map<String, Integer> lemmaIds = new ConcurrentHashMap<>();
+        private final Set<Integer> removedPages = ConcurrentHashMap.newKeySet();
+        private volatile boolean ready;
+        private volatile boolean removed;
+
+        SiteTerms(boolean ready) {
+            this.ready = ready;
+        }
+    }
+
+    // Связки одной леммы в порядке чтения из БД
+    private static final class Builder {
+        private int[] pageIds = new int[4];
+        private int[] ranks = new int[4];
+        private int size;
+
+        void add(int pageId, int rank) {
+            if (size == pageIds.length) {
+                pageIds = Arrays.copyOf(pageIds, size * 2);
+                ranks = Arrays.copyOf(ranks, size * 2);
+            }
+            pageIds[size] = pageId;
+            ranks[size] = rank;
+            size++;
+        }
+
+        // Сортирует по page_id и убирает исключенные страницы; повтор страницы оставляет последний rank
+        Builder sorted(Set<Integer> excluded) {
+            long[] packed = new long[size];
+            for (int i = 0; i < size; i++) {
+                packed[i] = ((long) pageIds[i] << 32) | (i & 0xFFFFFFFFL);
+            }
+            Arrays.sort(packed);
+            int[] sortedIds = new int[size];
+            int[] sortedRanks = new int[size];
+            int count = 0;
+            for (long value : packed) {
+                int pageId = (int) (value >>> 32);
+                if (excluded.contains(pageId)) {
+                    continue;
+                }
+                int rank = ranks[(int) value];
+                if (count > 0 && sortedIds[count - 1] == pageId) {
+                    sortedRanks[count - 1] = rank;
+                } else {
+                    sortedIds[count] = pageId;
+                    sortedRanks[count] = rank;
+                    count++;
+                }
+            }
+            pageIds = sortedIds;
+            ranks = sortedRanks;
+            size = count;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package searchengine.services;
+
+import java.util.Arrays;
+
+/**
+ * Сжатый список страниц одной леммы: пары (page_id, rank) по возрастанию page_id, разбитые на блоки
+ * до {@value #BLOCK_SIZE} записей. Внутри блока page_id хранится разностью с предыдущим, а rank — числом
+ * вхождений; оба числа кодируются varint, так что связка обычно занимает 2–3 байта.
+ * <p>
+ * Блоки неизменяемы: запись (под блокировкой списка) перекодирует один блок и подменяет ссылку на него,
+ * а чтение идет без блокировок по снимку массива блоков. Страницы, сохраненные параллельными потоками
+ * немного не по порядку, вставляются в свой блок; переполненный блок делится пополам.
+ */
+public final class PostingList {
+
+    static final int BLOCK_SIZE = 128;
+
+    private Block[] blocks = new Block[1];
+    private int blockCount;
+    private volatile int size;
+
+    // Список из отсортированных по page_id записей без повторов
+    static PostingList of(int[] pageIds, int[] ranks, int count) {
+        PostingList list = new PostingList();
+        list.blocks = new Block[Math.max(1, (count + BLOCK_SIZE - 1) / BLOCK_SIZE)];
+        for (int from = 0; from < count; from += BLOCK_SIZE) {
+            list.blocks[list.blockCount++] = Block.of(pageIds, ranks, from, Math.min(from + BLOCK_SIZE, count));
+        }
+        list.size = count;
+        return list;
+    }
+
+    // Добавляет страницу или заменяет rank уже имеющейся
+    public synchronized void add(int pageId, int rank) {
+        if (blockCount == 0) {
+            blocks[0] = Block.of(new int[]{pageId}, new int[]{rank}, 0, 1);
+            blockCount = 1;
+            size = 1;
+            return;
+        }
+        Block last = blocks[blockCount - 1];
+        if (pageId > last.lastPageId) {
+            if (last.count < BLOCK_SIZE) {
+                blocks[blockCount - 1] = last.append(pageId, rank);
+            } else {
+                appendBlock(Block.of(new int[]{pageId}, new int[]{rank}, 0, 1));
+            }
+            size++;
+            return;
+        }
+
+        int b = findBlock(pageId);
+        Block block = blocks[b];
+        int[] pageIds = new int[block.count + 1];
+        int[] ranks = new int[block.count + 1];
+        block.decode(pageIds, ranks);
+        int pos = Arrays.binarySearch(pageIds, 0, block.count, pageId);
+        if (pos >= 0) {
+            ranks[pos] = rank;
+            blocks[b] = Block.of(pageIds, ranks, 0, block.count);
+            return;
+        }
+        int insert = -pos - 1;
+        System.arraycopy(pageIds, insert, pageIds, insert + 1, block.count - insert);
+        System.arraycopy(ranks, insert, ranks, insert + 1, block.count - insert);
+        pageIds[insert] = pageId;
+        ranks[insert] = rank;
+        int count = block.count + 1;
+        if (count <= BLOCK_SIZE) {
+            blocks[b] = Block.of(pageIds, ranks, 0, count);
+        } else {
+            // Делим блок пополам; массив блоков копируется, чтобы не сдвигать его под читателями
+            int half = count / 2;
+            Block[] split = new Block[Math.max(blocks.length, blockCount + 1)];
+            System.arraycopy(blocks, 0, split, 0, b);
+            split[b] = Block.of(pageIds, ranks, 0, half);
+            split[b + 1] = Block.of(pageIds, ranks, half, count);
+            System.arraycopy(blocks, b + 1, split, b + 2, blockCount - b - 1);
+            blocks = split;
+            blockCount++;
+        }
+        size++;
+    }
+
+    public synchronized boolean remove(int pageId) {
+        if (blockCount == 0 || pageId > blocks[blockCount - 1].lastPageId) {
+            return false;
+        }
+        int b = findBlock(pageId);
+        Block block = blocks[b];
+        if (pageId < block.firstPageId) {
+            return false;
+        }
+        int[] pageIds = new int[block.count];
+        int[] ranks = new int[block.count];
+        block.decode(pageIds, ranks);
+        int pos = Arrays.binarySearch(pageIds, pageId);
+        if (pos < 0) {
+            return false;
+        }
+        if (block.count == 1) {
+            Block[] shrunk = new Block[blocks.length];
+            System.arraycopy(blocks, 0, shrunk, 0, b);
+            System.arraycopy(blocks, b + 1, shrunk, b, blockCount - b - 1);
+            blocks = shrunk;
+            blockCount--;
+        } else {
+            System.arraycopy(pageIds, pos + 1, pageIds, pos, block.count - pos - 1);
+            System.arraycopy(ranks, pos + 1, ranks, pos, block.count - pos - 1);
+            blocks[b] = Block.of(pageIds, ranks, 0, block.count - 1);
+        }
+        size--;
+        return true;
+    }
+
+    // Число страниц с леммой — то же, что Lemma.frequency, но всегда точное
+    public int size() {
+        return size;
+    }
+
+    public Cursor cursor() {
+        Block[] snapshot;
+        int count;
+        synchronized (this) {
+            snapshot = blocks;
+            count = blockCount;
+        }
+        return new Cursor(snapshot, count);
+    }
+
+    private void appendBlock(Block block) {
+        if (blockCount == blocks.length) {
+            blocks = Arrays.copyOf(blocks, blocks.length * 2);
+        }
+        blocks[blockCount++] = block;
+    }
+
+    // Первый блок, чей последний page_id не меньше искомого
+    private int findBlock(int pageId) {
+        int low = 0;
+        int high = blockCount - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (blocks[mid].lastPageId < pageId) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Кодирование varint, общее для блоков в памяти и в сегментах на диске
+    static int writeVarint(byte[] buffer, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * Последовательное чтение снимка списка. Блоки, целиком лежащие левее искомой страницы,
+     * пропускаются без декодирования.
+     */
+    public static final class Cursor implements PostingCursor {
+        private final Block[] blocks;
+        private final int blockCount;
+        private int block = -1;
+        // Блок, который сейчас читается: ссылку в массиве может подменить запись, а он остается прежним
+        private Block current;
+        private int remaining;
+        private int offset;
+        private int pageId = -1;
+        private int rank;
+
+        private Cursor(Block[] blocks, int blockCount) {
+            this.blocks = blocks;
+            this.blockCount = blockCount;
+        }
+
+        @Override
+        public boolean next() {
+            if (remaining == 0) {
+                if (block + 1 >= blockCount) {
+                    block = blockCount;
+                    return false;
+                }
+                block++;
+                current = blocks[block];
+                remaining = current.count;
+                offset = 0;
+                pageId = current.firstPageId;
+            }
+            byte[] data = current.data;
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[offset++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            int value = 0;
+            shift = 0;
+            do {
+                b = data[offset++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            pageId += delta;
+            rank = value;
+            remaining--;
+            return true;
+        }
+
+        @Override
+        public boolean advance(int target) {
+            if (block >= 0 && block < blockCount && pageId >= target) {
+                return true;
+            }
+            if (block < 0 || block >= blockCount || current.lastPageId < target) {
+                int b = Math.max(block + 1, 0);
+                while (b < blockCount && blocks[b].lastPageId < target) {
+                    b++;
+                }
+                if (b >= blockCount) {
+                    block = blockCount;
+                    return false;
+                }
+                block = b - 1;
+                remaining = 0;
+            }
+            while (next()) {
+                if (pageId >= target) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int pageId() {
+            return pageId;
+        }
+
+        @Override
+        public int rank() {
+            return rank;
+        }
+    }
+
+    private static final class Block {
+        private final int firstPageId;
+        private final int lastPageId;
+        private final int count;
+        private final byte[] data;
+
+        private Block(int firstPageId, int lastPageId, int count, byte[] data) {
+            this.firstPageId = firstPageId;
+            this.lastPageId = lastPageId;
+            this.count = count;
+            this.data = data;
+        }
+
+        static Block of(int[] pageIds, int[] ranks, int from, int to) {
+            byte[] buffer = new byte[(to - from) * 10];
+            int length = 0;
+            int previous = pageIds[from];
+            for (int i = from; i < to; i++) {
+                length = writeVarint(buffer, length, pageIds[i] - previous);
+                length = writeVarint(buffer, length, ranks[i]);
+                previous = pageIds[i];
+            }
+            return new Block(pageIds[from], pageIds[to - 1], to - from, Arrays.copyOf(buffer, length));
+        }
+
+        Block append(int pageId, int rank) {
+            byte[] buffer = Arrays.copyOf(data, data.length + 10);
+            int length = writeVarint(buffer, data.length, pageId - lastPageId);
+            length = writeVarint(buffer, length, rank);
+            return new Block(firstPageId, pageId, count + 1, Arrays.copyOf(buffer, length));
+        }
+
+        void decode(int[] pageIds, int[] ranks) {
+            Cursor cursor = new Cursor(new Block[]{this}, 1);
+            for (int i = 0; cursor.next(); i++) {
+                pageIds[i] = cursor.pageId();
+                ranks[i] = cursor.rank();
+            }
+        }
+    }
+}
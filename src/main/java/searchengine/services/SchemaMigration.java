@@ -0,0 +1,161 @@
+package searchengine.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import searchengine.config.CrawlerSettings;
+import searchengine.model.IndexingStatus;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * Приводит схему, заведенную прежними версиями, к той, что ждут пакетные запросы; ddl-auto умеет только
+ * добавлять столбцы и не справляется с обоими случаями.
+ * <p>
+ * Уникальный ключ uk_lemma_site_lemma: ddl-auto не может добавить его, пока в lemma есть дубли (site_id, lemma),
+ * и лишь пишет ошибку в лог — а пакетная запись лемм без ключа молча плодит новые дубли. Поэтому до загрузки
+ * индексов дубли сливаются в строку с наименьшим id: связки index переносятся на нее, совпавшие связки одной
+ * страницы объединяются, заготовки фрагментов затронутых страниц удаляются, частота пересчитывается по связкам.
+ * Если ключ так и не появился, приложение не стартует.
+ * <p>
+ * Столбец page_snippet.text повторял page.content; он удаляется, иначе вставка без него нарушит NOT NULL.
+ * <p>
+ * Столбец site.status Hibernate заводит как MySQL ENUM из значений IndexingStatus на момент создания таблицы;
+ * новые значения (PAUSED) в существующий столбец ddl-auto не добавляет, и запись такого статуса падает
+ * с «Data truncated». Поэтому список значений столбца доводится до текущего перечисления.
+ */
+@Component
+public class SchemaMigration {
+    private static final Logger logger = LoggerFactory.getLogger(SchemaMigration.class);
+
+    private static final String KEY_NAME = "uk_lemma_site_lemma";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final CrawlerSettings crawlerSettings;
+
+    // EntityManagerFactory — только чтобы миграция шла после обновления схемы Hibernate
+    public SchemaMigration(JdbcTemplate jdbcTemplate, CrawlerSettings crawlerSettings,
+                           EntityManagerFactory entityManagerFactory) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.crawlerSettings = crawlerSettings;
+    }
+
+    @PostConstruct
+    public void migrate() {
+        createLemmaKey();
+        dropSnippetText();
+        widenSiteStatus();
+    }
+
+    private void createLemmaKey() {
+        if (keyExists()) {
+            return;
+        }
+        int merged = jdbcTemplate.execute((ConnectionCallback<Integer>) this::mergeDuplicates);
+        logger.info("Слито дублей лемм: {}; создается ключ {}", merged, KEY_NAME);
+        jdbcTemplate.execute("ALTER TABLE lemma ADD CONSTRAINT " + KEY_NAME + " UNIQUE (site_id, lemma)");
+        if (!keyExists()) {
+            throw new IllegalStateException("Не удалось создать уникальный ключ " + KEY_NAME + " таблицы lemma");
+        }
+        if (merged > 0) {
+            invalidatePostingSegments();
+        }
+    }
+
+    private void dropSnippetText() {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = DATABASE() "
+                        + "AND table_name = 'page_snippet' AND column_name = 'text'", Integer.class);
+        if (count != null && count > 0) {
+            jdbcTemplate.execute("ALTER TABLE page_snippet DROP COLUMN text");
+            logger.info("Удален столбец page_snippet.text: текст фрагментов берется из page.content");
+        }
+    }
+
+    private void widenSiteStatus() {
+        String columnType = jdbcTemplate.queryForObject(
+                "SELECT MAX(column_type) FROM information_schema.columns WHERE table_schema = DATABASE() "
+                        + "AND table_name = 'site' AND column_name = 'status'", String.class);
+        if (columnType == null || !columnType.toLowerCase().startsWith("enum(")) {
+            return;
+        }
+        String values = Arrays.stream(IndexingStatus.values())
+                .map(status -> "'" + status.name() + "'")
+                .collect(Collectors.joining(","));
+        boolean complete = Arrays.stream(IndexingStatus.values())
+                .allMatch(status -> columnType.contains("'" + status.name() + "'"));
+        if (!complete) {
+            jdbcTemplate.execute("ALTER TABLE site MODIFY status ENUM(" + values + ") NOT NULL");
+            logger.info("Столбец site.status приведен к значениям {}", values);
+        }
+    }
+
+    private boolean keyExists() {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() "
+                        + "AND table_name = 'lemma' AND index_name = ?", Integer.class, KEY_NAME);
+        return count != null && count > 0;
+    }
+
+    // Все шаги — на одном соединении: временная таблица видна только в своей сессии
+    private int mergeDuplicates(Connection connection) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TEMPORARY TABLE lemma_merge (old_id INT PRIMARY KEY, keep_id INT NOT NULL, "
+                    + "INDEX (keep_id))");
+            int merged = statement.executeUpdate("INSERT INTO lemma_merge (old_id, keep_id) "
+                    + "SELECT l.id, k.keep_id FROM lemma l JOIN (SELECT site_id, lemma, MIN(id) AS keep_id FROM lemma "
+                    + "GROUP BY site_id, lemma HAVING COUNT(*) > 1) k ON l.site_id = k.site_id AND l.lemma = k.lemma "
+                    + "WHERE l.id <> k.keep_id");
+            if (merged > 0) {
+                // Заготовки фрагментов хранят id лемм: у затронутых страниц фрагмент строится по HTML
+                statement.executeUpdate("DELETE s FROM page_snippet s JOIN (SELECT DISTINCT i.page_id FROM `index` i "
+                        + "JOIN lemma_merge m ON i.lemma_id = m.old_id) p ON s.page_id = p.page_id");
+                statement.executeUpdate("UPDATE `index` i JOIN lemma_merge m ON i.lemma_id = m.old_id "
+                        + "SET i.lemma_id = m.keep_id");
+                // Связки одной страницы с бывшими дублями: ранги складываются, позиции разных строк
+                // не сливаются — без них фраза на странице не отсеивается, как у старых связок без позиций
+                statement.executeUpdate("UPDATE `index` i JOIN (SELECT MIN(id) AS id, SUM(`rank`) AS total FROM `index` "
+                        + "WHERE lemma_id IN (SELECT keep_id FROM lemma_merge) GROUP BY page_id, lemma_id "
+                        + "HAVING COUNT(*) > 1) d ON i.id = d.id SET i.`rank` = d.total, i.positions = NULL");
+                statement.executeUpdate("DELETE i2 FROM `index` i1 JOIN `index` i2 ON i1.page_id = i2.page_id "
+                        + "AND i1.lemma_id = i2.lemma_id AND i1.id < i2.id "
+                        + "WHERE i2.lemma_id IN (SELECT keep_id FROM lemma_merge)");
+                statement.executeUpdate("DELETE l FROM lemma l JOIN lemma_merge m ON l.id = m.old_id");
+                statement.executeUpdate("UPDATE lemma l JOIN (SELECT lemma_id, COUNT(*) AS pages FROM `index` "
+                        + "WHERE lemma_id IN (SELECT keep_id FROM lemma_merge) GROUP BY lemma_id) c "
+                        + "ON l.id = c.lemma_id SET l.frequency = c.pages");
+            }
+            statement.executeUpdate("DROP TEMPORARY TABLE lemma_merge");
+            connection.commit();
+            return merged;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    // Сегменты постингов ссылаются на удаленные id лемм: без метки чистого закрытия индекс перестроится из БД
+    private void invalidatePostingSegments() {
+        try {
+            Files.deleteIfExists(Path.of(crawlerSettings.getIndexDirectory()).resolve(SegmentStore.CLEAN_MARKER));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
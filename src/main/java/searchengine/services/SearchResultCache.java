@@ -0,0 +1,114 @@
+package searchengine.services;
+
+import org.springframework.stereotype.Service;
+import searchengine.config.SearchSettings;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Кэш ранжированных результатов поиска: ключ — нормализованный набор лемм запроса и сайт, значение —
+ * лучшие страницы по убыванию релевантности, так что переход по страницам выдачи (offset) не пересчитывает
+ * пересечение. Запись действительна, пока не изменилось поколение индекса ни одного из ее сайтов
+ * ({@link PostingIndex#generation(int)}); вытеснение — по числу записей (LRU) и по времени жизни.
+ */
+@Service
+public class SearchResultCache {
+
+    private final SearchSettings searchSettings;
+    private final Map<String, Ranking> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public SearchResultCache(SearchSettings searchSettings) {
+        this.searchSettings = searchSettings;
+    }
+
+    // Запись, если она есть, не устарела, поколения всех ее сайтов совпадают с generations
+    // и в ней хватает страниц до end
+    public Ranking get(String key, Map<Integer, Long> generations, int end) {
+        synchronized (entries) {
+            Ranking ranking = entries.get(key);
+            if (ranking == null) {
+                misses.increment();
+                return null;
+            }
+            boolean expired = System.currentTimeMillis() - ranking.createdAt > searchSettings.getResultCacheTtl();
+            if (expired || !ranking.generations.equals(generations)) {
+                entries.remove(key);
+                invalidations.increment();
+                misses.increment();
+                return null;
+            }
+            if (!ranking.covers(end)) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return ranking;
+        }
+    }
+
+    public void put(String key, Ranking ranking) {
+        if (searchSettings.getResultCacheSize() <= 0) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(key, ranking);
+            Iterator<Ranking> eldest = entries.values().iterator();
+            while (entries.size() > searchSettings.getResultCacheSize() && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        synchronized (entries) {
+            statistics.put("size", entries.size());
+        }
+        statistics.put("hits", hitCount);
+        statistics.put("misses", missCount);
+        statistics.put("hitRate", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        statistics.put("evictions", evictions.sum());
+        statistics.put("invalidations", invalidations.sum());
+        return statistics;
+    }
+
+    // Лучшие страницы запроса по убыванию релевантности; если size < count, в записи только первые size найденных
+    public static final class Ranking {
+        private final Map<Integer, Long> generations;
+        private final long createdAt = System.currentTimeMillis();
+        final int[] siteIds;
+        final int[] pageIds;
+        final float[] scores;
+        final int size;
+        final int count;
+        final float maxScore;
+
+        Ranking(Map<Integer, Long> generations, int[] siteIds, int[] pageIds, float[] scores, int size,
+                int count, float maxScore) {
+            this.generations = Map.copyOf(generations);
+            this.siteIds = siteIds;
+            this.pageIds = pageIds;
+            this.scores = scores;
+            this.size = size;
+            this.count = count;
+            this.maxScore = maxScore;
+        }
+
+        // Хватает ли записи, чтобы отдать страницы выдачи до offset + limit
+        boolean covers(int end) {
+            return size == count || end <= size;
+        }
+    }
+}
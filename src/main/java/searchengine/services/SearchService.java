@@ -0,0 +1,853 @@
+package searchengine.services;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import searchengine.config.SearchSettings;
+import searchengine.dto.search.SearchResponse;
+import searchengine.dto.search.SearchResultItem;
+import searchengine.model.Page;
+import searchengine.model.PageSnippet;
+import searchengine.model.Site;
+import searchengine.repository.LemmaBatchRepository;
+import searchengine.repository.PageRepository;
+import searchengine.repository.PageSnippetRepository;
+import searchengine.repository.SearchRepository;
+import searchengine.repository.SiteRepository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Поиск по инвертированному индексу. Леммы запроса сортируются по частоте, и списки страниц
+ * пересекаются начиная с самой редкой леммы: каждый следующий список читается только среди
+ * оставшихся кандидатов, а как только кандидатов не осталось, сайт пропускается. Списки берутся
+ * из {@link PostingIndex} в памяти, а пока индекс сайта загружается — из БД. Релевантность —
+ * BM25: rank связки — частота леммы на странице, длины страниц берутся из {@link PageLengthCache},
+ * IDF — из числа живых страниц с леммой (без удаленных, но еще не вычищенных слиянием), а пока индекс загружается —
+ * из длины списка самой редкой леммы и lemma.frequency остальных; лучшие страницы отбираются ограниченной кучей и запоминаются
+ * в {@link SearchResultCache}, а из БД загружаются только страницы, попавшие в ответ.
+ * <p>
+ * Слова в кавычках — фраза: страница проходит, только если леммы фразы стоят на ней подряд. Лучшие страницы
+ * запроса из нескольких лемм получают надбавку за близость слов друг к другу. Позиции лемм хранятся в связках
+ * index и читаются лениво — только для страниц, прошедших пересечение. Фрагменты строятся
+ * по тексту page.content и заготовкам {@link PageSnippet}: совпадения — это слова, у которых среди id лемм
+ * есть id леммы запроса. Слова запроса, которых нет в словаре ни одного из сайтов поиска, до пересечения заменяются ближайшими
+ * по написанию леммами ({@link SuggestService#correct}).
+ */
+@Service
+public class SearchService {
+    private static final Logger logger = LoggerFactory.getLogger(SearchService.class);
+
+    private static final int SNIPPET_LENGTH = 240;
+    private static final int SNIPPET_LEAD = 60;
+
+    private final SiteRepository siteRepository;
+    private final PageRepository pageRepository;
+    private final PageSnippetRepository pageSnippetRepository;
+    private final SearchRepository searchRepository;
+    private final MorphologyService morphologyService;
+    private final PostingIndex postingIndex;
+    private final PageLengthCache pageLengthCache;
+    private final SuggestService suggestService;
+    private final SearchResultCache resultCache;
+    private final SearchSettings searchSettings;
+
+    public SearchService(SiteRepository siteRepository, PageRepository pageRepository,
+                         PageSnippetRepository pageSnippetRepository,
+                         SearchRepository searchRepository, MorphologyService morphologyService,
+                         PostingIndex postingIndex, PageLengthCache pageLengthCache, SuggestService suggestService,
+                         SearchResultCache resultCache, SearchSettings searchSettings) {
+        this.siteRepository = siteRepository;
+        this.suggestService = suggestService;
+        this.pageLengthCache = pageLengthCache;
+        this.pageSnippetRepository = pageSnippetRepository;
+        this.resultCache = resultCache;
+        this.searchSettings = searchSettings;
+        this.postingIndex = postingIndex;
+        this.pageRepository = pageRepository;
+        this.searchRepository = searchRepository;
+        this.morphologyService = morphologyService;
+    }
+
+    // siteUrl == null — поиск по всем сайтам
+    public SearchResponse search(String query, String siteUrl, int offset, int limit) {
+        // Глубина выдачи задает размер кучи лучших страниц — не даем запросу выбирать ее произвольно
+        if (limit > searchSettings.getMaxLimit() || offset > searchSettings.getMaxOffset()) {
+            throw new IllegalArgumentException("limit не может превышать " + searchSettings.getMaxLimit()
+                    + ", offset — " + searchSettings.getMaxOffset());
+        }
+        List<Site> sites;
+        if (siteUrl == null || siteUrl.isBlank()) {
+            sites = siteRepository.findAll();
+        } else {
+            Site site = siteRepository.findByUrl(siteUrl);
+            if (site == null) {
+                throw new IllegalArgumentException("Сайт не найден в индексе: " + siteUrl);
+            }
+            sites = List.of(site);
+        }
+
+        long started = System.nanoTime();
+        ParsedQuery parsed = parseQuery(query);
+        correctSpelling(parsed, sites);
+        Set<String> lemmas = parsed.lemmas;
+        // Поколения читаются до ранжирования: страница, записанная во время поиска, сделает запись кэша устаревшей
+        Map<Integer, Long> generations = new HashMap<>();
+        Map<Integer, Site> sitesById = new HashMap<>();
+        for (Site site : sites) {
+            generations.put(site.getId(), postingIndex.generation(site.getId()));
+            sitesById.put(site.getId(), site);
+        }
+        String cacheKey = cacheKey(parsed, siteUrl == null || siteUrl.isBlank() ? null : sites.get(0));
+        int end = offset + limit;
+        SearchResultCache.Ranking ranking = resultCache.get(cacheKey, generations, end);
+        boolean cached = ranking != null;
+        if (!cached) {
+            ranking = rank(sites, parsed, generations, Math.max(end, searchSettings.getResultCacheDepth()));
+            resultCache.put(cacheKey, ranking);
+        }
+
+        SearchResponse response = new SearchResponse();
+        response.setResult(true);
+        response.setCount(ranking.count);
+        response.setData(toItems(ranking, offset, Math.min(end, ranking.size), sitesById, lemmas));
+        logger.info("Поиск '{}': лемм {}, найдено {}, {}за {} мс", query, lemmas.size(), ranking.count,
+                cached ? "из кэша, " : "", (System.nanoTime() - started) / 1_000_000);
+        return response;
+    }
+
+    // Лучшие topSize страниц по всем сайтам — ограниченной кучей, без сортировки всех найденных
+    private SearchResultCache.Ranking rank(List<Site> sites, ParsedQuery parsed, Map<Integer, Long> generations, int topSize) {
+        PriorityQueue<Hit> top = new PriorityQueue<>(Hit.ASCENDING);
+        int count = 0;
+        float maxScore = 0;
+        Map<Integer, Map<String, Integer>> lemmaIdsBySite = new HashMap<>();
+
+        for (Site site : sites) {
+            Matches matches = intersect(site, parsed);
+            lemmaIdsBySite.put(site.getId(), matches.lemmaIds);
+            count += matches.size;
+            for (int i = 0; i < matches.size; i++) {
+                float score = matches.scores[i];
+                maxScore = Math.max(maxScore, score);
+                if (topSize == 0) {
+                    continue;
+                }
+                if (top.size() < topSize) {
+                    top.add(new Hit(site.getId(), matches.pageIds[i], score));
+                } else if (score >= top.peek().score) {
+                    Hit hit = new Hit(site.getId(), matches.pageIds[i], score);
+                    if (Hit.ASCENDING.compare(top.peek(), hit) < 0) {
+                        top.poll();
+                        top.add(hit);
+                    }
+                }
+            }
+        }
+
+        List<Hit> ranked = new ArrayList<>(top);
+        if (parsed.lemmaKeys().size() > 1 && searchSettings.getProximityWeight() > 0) {
+            ranked = boostProximity(ranked, lemmaIdsBySite);
+            for (Hit hit : ranked) {
+                maxScore = Math.max(maxScore, hit.score);
+            }
+        }
+        ranked.sort(Hit.ASCENDING.reversed());
+        int[] siteIds = new int[ranked.size()];
+        int[] pageIds = new int[ranked.size()];
+        float[] scores = new float[ranked.size()];
+        for (int i = 0; i < ranked.size(); i++) {
+            siteIds[i] = ranked.get(i).siteId;
+            pageIds[i] = ranked.get(i).pageId;
+            scores[i] = ranked.get(i).score;
+        }
+        return new SearchResultCache.Ranking(generations, siteIds, pageIds, scores, ranked.size(), count, maxScore);
+    }
+
+    // Надбавка за близость: позиции читаются только для отобранных лучших страниц, поэтому страница за
+    // пределами отбора не поднимется выше, даже если слова на ней стоят рядом
+    private List<Hit> boostProximity(List<Hit> hits, Map<Integer, Map<String, Integer>> lemmaIdsBySite) {
+        Map<Integer, List<Hit>> bySite = new HashMap<>();
+        for (Hit hit : hits) {
+            bySite.computeIfAbsent(hit.siteId, id -> new ArrayList<>()).add(hit);
+        }
+        List<Hit> boosted = new ArrayList<>(hits.size());
+        bySite.forEach((siteId, siteHits) -> {
+            Set<Integer> lemmaIds = new HashSet<>(lemmaIdsBySite.getOrDefault(siteId, Map.of()).values());
+            int[] pageIds = new int[siteHits.size()];
+            for (int i = 0; i < pageIds.length; i++) {
+                pageIds[i] = siteHits.get(i).pageId;
+            }
+            Map<Long, int[]> positions = loadPositions(lemmaIds, pageIds, pageIds.length);
+            for (Hit hit : siteHits) {
+                float boost = proximityBoost(hit.pageId, lemmaIds, positions);
+                boosted.add(new Hit(hit.siteId, hit.pageId, hit.score * boost));
+            }
+        });
+        return boosted;
+    }
+
+    // 1 + вес × (n − 1) / наименьшее окно, в котором есть все n лемм; у страниц без позиций надбавки нет
+    private float proximityBoost(int pageId, Set<Integer> lemmaIds, Map<Long, int[]> positions) {
+        int n = lemmaIds.size();
+        if (n < 2) {
+            return 1;
+        }
+        int[][] lists = new int[n][];
+        int l = 0;
+        for (int lemmaId : lemmaIds) {
+            lists[l] = positions.get(positionKey(lemmaId, pageId));
+            if (lists[l] == null || lists[l].length == 0) {
+                return 1;
+            }
+            l++;
+        }
+        // Указатель на каждый список; каждый шаг сдвигает тот, что стоит на наименьшей позиции
+        int[] pointers = new int[n];
+        int span = Integer.MAX_VALUE;
+        while (true) {
+            int min = 0;
+            int max = Integer.MIN_VALUE;
+            for (int i = 0; i < n; i++) {
+                int position = lists[i][pointers[i]];
+                if (position < lists[min][pointers[min]]) {
+                    min = i;
+                }
+                max = Math.max(max, position);
+            }
+            span = Math.min(span, max - lists[min][pointers[min]]);
+            if (++pointers[min] == lists[min].length) {
+                break;
+            }
+        }
+        // Одно слово может дать сразу две леммы запроса — окно не меньше n − 1
+        span = Math.max(span, n - 1);
+        return 1 + searchSettings.getProximityWeight() * (n - 1) / span;
+    }
+
+    // Оставляет страницы, на которых есть все фразы запроса; страницы без позиций не отбрасываются
+    private void filterPhrases(Matches matches, List<List<PhraseTerm>> phrases) {
+        Set<Integer> lemmaIds = new HashSet<>();
+        for (List<PhraseTerm> phrase : phrases) {
+            for (PhraseTerm term : phrase) {
+                Integer lemmaId = matches.lemmaIds.get(term.key);
+                if (lemmaId != null) {
+                    lemmaIds.add(lemmaId);
+                }
+            }
+        }
+        Map<Long, int[]> positions = loadPositions(lemmaIds, matches.pageIds, matches.size);
+        int kept = 0;
+        for (int i = 0; i < matches.size; i++) {
+            boolean matched = true;
+            for (List<PhraseTerm> phrase : phrases) {
+                if (!containsPhrase(matches.pageIds[i], phrase, matches.lemmaIds, positions)) {
+                    matched = false;
+                    break;
+                }
+            }
+            if (matched) {
+                matches.pageIds[kept] = matches.pageIds[i];
+                matches.scores[kept] = matches.scores[i];
+                kept++;
+            }
+        }
+        matches.size = kept;
+    }
+
+    private static boolean containsPhrase(int pageId, List<PhraseTerm> phrase, Map<String, Integer> lemmaIds,
+                                          Map<Long, int[]> positions) {
+        int[][] lists = new int[phrase.size()][];
+        for (int i = 0; i < lists.length; i++) {
+            Integer lemmaId = lemmaIds.get(phrase.get(i).key);
+            lists[i] = lemmaId != null ? positions.get(positionKey(lemmaId, pageId)) : null;
+            if (lists[i] == null) {
+                return true;
+            }
+        }
+        // Начало фразы — позиция первого слова минус его смещение; остальные слова ищутся двоичным поиском
+        for (int position : lists[0]) {
+            int start = position - phrase.get(0).offset;
+            boolean found = true;
+            for (int i = 1; i < lists.length && found; i++) {
+                found = Arrays.binarySearch(lists[i], start + phrase.get(i).offset) >= 0;
+            }
+            if (found) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Позиции лемм на страницах по ключу positionKey
+    private Map<Long, int[]> loadPositions(Set<Integer> lemmaIds, int[] pageIds, int pageCount) {
+        Map<Long, int[]> positions = new HashMap<>();
+        searchRepository.forEachPositions(lemmaIds, pageIds, pageCount,
+                (lemmaId, pageId, encoded) -> positions.put(positionKey(lemmaId, pageId), TextAnalysis.decodePositions(encoded)));
+        return positions;
+    }
+
+    private static long positionKey(int lemmaId, int pageId) {
+        return ((long) lemmaId << 32) | (pageId & 0xFFFFFFFFL);
+    }
+
+    // Порядок слов и «е»/«ё» не важны: ключ — отсортированные леммы, фразы и сайт
+    private static String cacheKey(ParsedQuery parsed, Site site) {
+        Set<String> normalized = new TreeSet<>(parsed.lemmaKeys());
+        StringBuilder key = new StringBuilder(String.join(" ", normalized));
+        for (List<PhraseTerm> phrase : parsed.phrases) {
+            key.append(" \"");
+            for (PhraseTerm term : phrase) {
+                key.append(term.key).append(':').append(term.offset).append(' ');
+            }
+            key.append('"');
+        }
+        return key.append("@").append(site != null ? site.getId() : "*").toString();
+    }
+
+    /**
+     * Леммы запроса без служебных частей речи; для каждого слова берется основная нормальная форма.
+     * Текст в кавычках дает фразу: смещения ее слов считаются так же, как позиции при индексации
+     * ({@link MorphologyService#analyzeText(String)}), поэтому служебные и нераспознанные слова внутри
+     * фразы учитываются.
+     */
+    ParsedQuery parseQuery(String query) {
+        ParsedQuery parsed = new ParsedQuery();
+        String[] parts = query.split("\"", -1);
+        for (int part = 0; part < parts.length; part++) {
+            boolean quoted = part % 2 == 1;
+            List<PhraseTerm> phrase = new ArrayList<>();
+            int[] ordinal = {0};
+            Tokenizer.tokenize(parts[part], (token, script) -> {
+                if (script == Tokenizer.Script.OTHER) return;
+                MorphologyService.WordForms forms = morphologyService.lookup(token.toString());
+                int offset = token.length() >= 2 ? ordinal[0]++ : -1;
+                if (forms.getNormalForms().isEmpty()) {
+                    if (offset >= 0) {
+                        parsed.unresolved.add(token.toString());
+                        // Место слова во фразе сохраняется: исправление встанет на него, иначе останется пропуск
+                        if (quoted) {
+                            phrase.add(PhraseTerm.unresolved(token.toString(), offset));
+                        }
+                    }
+                    return;
+                }
+                if (!forms.isServiceWord()) {
+                    String lemma = forms.getNormalForms().get(0);
+                    parsed.lemmas.add(lemma);
+                    parsed.words.putIfAbsent(lemma, token.toString());
+                    if (quoted && offset >= 0) {
+                        phrase.add(new PhraseTerm(lemma, offset));
+                    }
+                }
+            });
+            if (phrase.size() > 1) {
+                parsed.phrases.add(phrase);
+            }
+        }
+        return parsed;
+    }
+
+    // Леммы, которых нет ни на одном из сайтов, и слова без нормальных форм заменяются леммами словаря,
+    // ближайшими по написанию к слову или к его нормальной форме; без кандидатов слово остается как есть
+    private void correctSpelling(ParsedQuery parsed, List<Site> sites) {
+        List<Integer> siteIds = new ArrayList<>(sites.size());
+        for (Site site : sites) {
+            siteIds.add(site.getId());
+        }
+        // Исправляются только слова без страниц: словарь опечаток строится после обхода и может не знать
+        // лемм, добавленных переиндексацией страницы или идущим обходом
+        Set<String> indexed = indexedLemmas(parsed.lemmas, sites);
+        for (String lemma : new ArrayList<>(parsed.lemmas)) {
+            if (indexed.contains(LemmaBatchRepository.collationKey(lemma))) {
+                continue;
+            }
+            String correction = suggestService.correct(List.of(parsed.words.get(lemma), lemma), siteIds);
+            if (correction != null) {
+                logger.info("Слово запроса '{}' исправлено на '{}'", parsed.words.get(lemma), correction);
+                parsed.replace(lemma, correction);
+            }
+        }
+        for (String word : parsed.unresolved) {
+            String correction = suggestService.correct(List.of(word), siteIds);
+            if (correction != null) {
+                logger.info("Слово запроса '{}' исправлено на '{}'", word, correction);
+                parsed.lemmas.add(correction);
+                parsed.resolve(word, correction);
+            }
+        }
+        parsed.dropUnresolvedPhraseTerms();
+    }
+
+    // Ключи collationKey лемм, у которых есть страницы хотя бы на одном из сайтов
+    private Set<String> indexedLemmas(Set<String> lemmas, List<Site> sites) {
+        Set<String> indexed = new HashSet<>();
+        for (Site site : sites) {
+            if (indexed.size() == lemmas.size()) {
+                break;
+            }
+            if (postingIndex.isReady(site.getId())) {
+                for (String lemma : lemmas) {
+                    PostingIndex.Postings postings = postingIndex.find(site.getId(), lemma);
+                    if (postings != null && postings.documentFrequency() > 0) {
+                        indexed.add(LemmaBatchRepository.collationKey(lemma));
+                    }
+                }
+            } else if (!lemmas.isEmpty()) {
+                for (SearchRepository.LemmaStat stat : searchRepository.findLemmas(site.getId(), lemmas)) {
+                    if (stat.getFrequency() > 0) {
+                        indexed.add(LemmaBatchRepository.collationKey(stat.getLemma()));
+                    }
+                }
+            }
+        }
+        return indexed;
+    }
+
+    private Matches intersect(Site site, ParsedQuery parsed) {
+        if (parsed.lemmas.isEmpty()) {
+            return new Matches();
+        }
+        Matches matches = postingIndex.isReady(site.getId())
+                ? intersectInMemory(site, parsed.lemmas) : intersectInDatabase(site, parsed.lemmas);
+        if (!parsed.phrases.isEmpty() && matches.size > 0) {
+            filterPhrases(matches, parsed.phrases);
+        }
+        return matches;
+    }
+
+    // То же пересечение по индексу PostingIndex: курсор пропускает блоки левее очередного кандидата
+    private Matches intersectInMemory(Site site, Set<String> lemmas) {
+        Matches matches = new Matches();
+        List<PostingIndex.Postings> postings = new ArrayList<>(lemmas.size());
+        Set<Integer> distinct = new HashSet<>();
+        for (String lemma : lemmas) {
+            PostingIndex.Postings lemmaPostings = postingIndex.find(site.getId(), lemma);
+            if (lemmaPostings == null) {
+                return matches;
+            }
+            matches.lemmaIds.put(LemmaBatchRepository.collationKey(lemma), lemmaPostings.lemmaId());
+            // «е» и «ё» — одна лемма в индексе
+            if (distinct.add(lemmaPostings.lemmaId())) {
+                postings.add(lemmaPostings);
+            }
+        }
+        int[] sizes = new int[postings.size()];
+        Integer[] order = new Integer[postings.size()];
+        for (int i = 0; i < order.length; i++) {
+            sizes[i] = postings.get(i).documentFrequency();
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt(i -> sizes[i]));
+        Bm25 bm25 = bm25(site.getId());
+
+        PostingCursor rarest = postings.get(order[0]).cursor();
+        float rarestIdf = bm25.idf(sizes[order[0]]);
+        matches.pageIds = new int[Math.max(16, sizes[order[0]])];
+        matches.scores = new float[matches.pageIds.length];
+        while (rarest.next()) {
+            if (matches.size == matches.pageIds.length) {
+                // Список мог вырасти после того, как взят его размер
+                matches.pageIds = Arrays.copyOf(matches.pageIds, matches.size * 2);
+                matches.scores = Arrays.copyOf(matches.scores, matches.pageIds.length);
+            }
+            matches.pageIds[matches.size] = rarest.pageId();
+            matches.scores[matches.size] = bm25.score(rarestIdf, rarest.rank(), rarest.pageId());
+            matches.size++;
+        }
+
+        for (int l = 1; l < order.length && matches.size > 0; l++) {
+            PostingCursor cursor = postings.get(order[l]).cursor();
+            float idf = bm25.idf(sizes[order[l]]);
+            int kept = 0;
+            for (int i = 0; i < matches.size; i++) {
+                int pageId = matches.pageIds[i];
+                if (!cursor.advance(pageId)) {
+                    break;
+                }
+                if (cursor.pageId() == pageId) {
+                    matches.pageIds[kept] = pageId;
+                    matches.scores[kept] = matches.scores[i] + bm25.score(idf, cursor.rank(), pageId);
+                    kept++;
+                }
+            }
+            matches.size = kept;
+        }
+        return matches;
+    }
+
+    // Пересечение списков страниц от самой редкой леммы к самой частой
+    private Matches intersectInDatabase(Site site, Set<String> lemmas) {
+        Matches matches = new Matches();
+        Set<String> requested = new LinkedHashSet<>();
+        for (String lemma : lemmas) {
+            requested.add(LemmaBatchRepository.collationKey(lemma));
+        }
+        List<SearchRepository.LemmaStat> stats = searchRepository.findLemmas(site.getId(), lemmas);
+        if (stats.size() < requested.size()) {
+            // Какой-то леммы на сайте нет — пересечение заведомо пустое
+            return matches;
+        }
+        for (SearchRepository.LemmaStat stat : stats) {
+            matches.lemmaIds.put(LemmaBatchRepository.collationKey(stat.getLemma()), stat.getId());
+        }
+        stats.sort(Comparator.comparingInt(SearchRepository.LemmaStat::getFrequency));
+        Bm25 bm25 = bm25(site.getId());
+
+        SearchRepository.Postings rarest = searchRepository.findPostings(stats.get(0).getId());
+        // Список самой редкой леммы прочитан целиком — его длина точнее частоты, которая отстает на несброшенные приращения
+        float rarestIdf = bm25.idf(rarest.size());
+        matches.pageIds = new int[rarest.size()];
+        matches.scores = new float[rarest.size()];
+        for (int i = 0; i < rarest.size(); i++) {
+            matches.pageIds[i] = rarest.pageId(i);
+            matches.scores[i] = bm25.score(rarestIdf, rarest.rank(i), rarest.pageId(i));
+        }
+        matches.size = rarest.size();
+
+        for (int l = 1; l < stats.size() && matches.size > 0; l++) {
+            SearchRepository.Postings postings =
+                    searchRepository.findPostings(stats.get(l).getId(), matches.pageIds, matches.size);
+            float idf = bm25.idf(stats.get(l).getFrequency());
+            // Оба списка отсортированы по page_id: слияние без хеш-таблиц
+            int kept = 0;
+            int p = 0;
+            for (int i = 0; i < matches.size && p < postings.size(); i++) {
+                while (p < postings.size() && postings.pageId(p) < matches.pageIds[i]) {
+                    p++;
+                }
+                if (p < postings.size() && postings.pageId(p) == matches.pageIds[i]) {
+                    matches.pageIds[kept] = matches.pageIds[i];
+                    matches.scores[kept] = matches.scores[i] + bm25.score(idf, postings.rank(p), matches.pageIds[i]);
+                    kept++;
+                }
+            }
+            matches.size = kept;
+        }
+        return matches;
+    }
+
+    private List<SearchResultItem> toItems(SearchResultCache.Ranking ranking, int from, int to,
+                                           Map<Integer, Site> sitesById, Set<String> lemmas) {
+        List<Integer> pageIds = new ArrayList<>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            pageIds.add(ranking.pageIds[i]);
+        }
+        Map<Integer, String> paths = searchRepository.findPagePaths(pageIds);
+        Map<Integer, PageSnippet> snippets = new HashMap<>();
+        for (PageSnippet snippet : pageSnippetRepository.findAllById(pageIds)) {
+            snippets.put(snippet.getPageId(), snippet);
+        }
+        // Вхождения заготовки отсчитываются от начала page.content — текста, из которого они получены
+        Map<Integer, String> contents = searchRepository.findPageContents(snippets.keySet());
+        // Страницы, проиндексированные до появления page_snippet: фрагмент строится по HTML, как раньше
+        List<Integer> withoutSnippet = new ArrayList<>();
+        for (Integer pageId : pageIds) {
+            if (!snippets.containsKey(pageId)) {
+                withoutSnippet.add(pageId);
+            }
+        }
+        Map<Integer, Page> pages = new HashMap<>();
+        if (!withoutSnippet.isEmpty()) {
+            for (Page page : pageRepository.findAllById(withoutSnippet)) {
+                pages.put(page.getId(), page);
+            }
+        }
+
+        Map<Integer, Set<Integer>> queryLemmaIds = new HashMap<>();
+        List<SearchResultItem> items = new ArrayList<>(pageIds.size());
+        for (int i = from; i < to; i++) {
+            int pageId = ranking.pageIds[i];
+            String path = paths.get(pageId);
+            Site site = sitesById.get(ranking.siteIds[i]);
+            if (path == null || site == null) {
+                continue;
+            }
+            String title;
+            String snippetText;
+            PageSnippet snippet = snippets.get(pageId);
+            String content = contents.get(pageId);
+            if (snippet != null && content != null) {
+                Set<Integer> lemmaIds = queryLemmaIds.computeIfAbsent(site.getId(), id -> lemmaIds(site, lemmas));
+                title = snippet.getTitle() != null ? snippet.getTitle() : "";
+                snippetText = buildSnippet(content, findMatches(snippet.getTokens(), lemmaIds));
+            } else if (pages.containsKey(pageId)) {
+                Document document = Jsoup.parse(pages.get(pageId).getContent());
+                title = document.title();
+                snippetText = buildSnippet(document.text(), lemmas);
+            } else {
+                continue;
+            }
+
+            SearchResultItem item = new SearchResultItem();
+            item.setSite(trimTrailingSlash(site.getUrl()));
+            item.setSiteName(site.getName());
+            item.setUri(path);
+            item.setTitle(title.isBlank() ? path : title);
+            item.setSnippet(snippetText);
+            item.setRelevance(ranking.maxScore > 0 ? ranking.scores[i] / ranking.maxScore : 0);
+            items.add(item);
+        }
+        return items;
+    }
+
+    // id лемм запроса на сайте: из словаря индекса в памяти, а пока он загружается — из БД
+    private Set<Integer> lemmaIds(Site site, Set<String> lemmas) {
+        Set<Integer> ids = new HashSet<>();
+        if (postingIndex.isReady(site.getId())) {
+            for (String lemma : lemmas) {
+                PostingIndex.Postings postings = postingIndex.find(site.getId(), lemma);
+                if (postings != null) {
+                    ids.add(postings.lemmaId());
+                }
+            }
+        } else {
+            for (SearchRepository.LemmaStat stat : searchRepository.findLemmas(site.getId(), lemmas)) {
+                ids.add(stat.getId());
+            }
+        }
+        return ids;
+    }
+
+    // Границы слов заготовки, у которых есть одна из лемм запроса
+    private static List<int[]> findMatches(byte[] tokens, Set<Integer> lemmaIds) {
+        List<int[]> matches = new ArrayList<>();
+        TextAnalysis.forEachToken(tokens, (start, end, ids, count) -> {
+            for (int c = 0; c < count; c++) {
+                if (lemmaIds.contains(ids[c])) {
+                    matches.add(new int[]{start, end});
+                    return;
+                }
+            }
+        });
+        return matches;
+    }
+
+    // Фрагмент по тексту страницы без заготовки: слова лемматизируются заново
+    String buildSnippet(String text, Set<String> lemmas) {
+        List<int[]> matches = new ArrayList<>();
+        Tokenizer.tokenize(text, (token, script, start, end) -> {
+            if (script == Tokenizer.Script.OTHER) return;
+            for (String form : morphologyService.getNormalForms(token.toString())) {
+                if (lemmas.contains(form)) {
+                    matches.add(new int[]{start, end});
+                    return;
+                }
+            }
+        });
+        return buildSnippet(text, matches);
+    }
+
+    // Фрагмент текста вокруг участка с наибольшим числом совпадений; совпадения выделяются <b>.
+    // matches — границы совпавших слов по возрастанию
+    private static String buildSnippet(String text, List<int[]> matches) {
+        int windowStart = 0;
+        if (!matches.isEmpty()) {
+            // Скользящее окно: начало участка, в который попадает больше всего совпадений
+            int best = 0;
+            int bestCount = 0;
+            int right = 0;
+            for (int left = 0; left < matches.size(); left++) {
+                while (right < matches.size() && matches.get(right)[1] - matches.get(left)[0] <= SNIPPET_LENGTH - SNIPPET_LEAD) {
+                    right++;
+                }
+                if (right - left > bestCount) {
+                    bestCount = right - left;
+                    best = left;
+                }
+            }
+            int firstMatch = matches.get(best)[0];
+            windowStart = Math.max(0, firstMatch - SNIPPET_LEAD);
+            // Не начинаем фрагмент с середины слова
+            while (windowStart > 0 && windowStart < firstMatch && !Character.isWhitespace(text.charAt(windowStart - 1))) {
+                windowStart++;
+            }
+        }
+        int windowEnd = Math.min(text.length(), windowStart + SNIPPET_LENGTH);
+        int cut = windowEnd;
+        while (cut < text.length() && cut > windowStart && !Character.isWhitespace(text.charAt(cut))) {
+            cut--;
+        }
+        if (cut > windowStart) {
+            windowEnd = cut;
+        }
+
+        StringBuilder snippet = new StringBuilder(SNIPPET_LENGTH + 64);
+        if (windowStart > 0) {
+            snippet.append("...");
+        }
+        int position = windowStart;
+        for (int[] match : matches) {
+            if (match[0] < windowStart || match[1] > windowEnd) {
+                continue;
+            }
+            appendEscaped(snippet, text, position, match[0]);
+            snippet.append("<b>");
+            appendEscaped(snippet, text, match[0], match[1]);
+            snippet.append("</b>");
+            position = match[1];
+        }
+        appendEscaped(snippet, text, position, windowEnd);
+        if (windowEnd < text.length()) {
+            snippet.append("...");
+        }
+        return snippet.toString();
+    }
+
+    private static void appendEscaped(StringBuilder target, String text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char ch = text.charAt(i);
+            switch (ch) {
+                case '<' -> target.append("&lt;");
+                case '>' -> target.append("&gt;");
+                case '&' -> target.append("&amp;");
+                case '"' -> target.append("&quot;");
+                default -> target.append(ch);
+            }
+        }
+    }
+
+    private static String trimTrailingSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    private Bm25 bm25(int siteId) {
+        return new Bm25(pageLengthCache.lengths(), pageLengthCache.pageCount(siteId), pageLengthCache.averageLength(siteId),
+                searchSettings.getBm25K1(), searchSettings.getBm25B());
+    }
+
+    // Параметры BM25 одного сайта на время запроса; score — несколько операций над float без обращений к БД
+    private static final class Bm25 {
+        private final float[] lengths;
+        private final int pageCount;
+        private final float averageLength;
+        private final float k1;
+        private final float b;
+
+        Bm25(float[] lengths, int pageCount, float averageLength, float k1, float b) {
+            this.lengths = lengths;
+            this.pageCount = pageCount;
+            this.averageLength = averageLength;
+            this.k1 = k1;
+            this.b = b;
+        }
+
+        // documentFrequency — число страниц сайта с леммой
+        float idf(int documentFrequency) {
+            int pages = Math.max(pageCount, documentFrequency);
+            return (float) Math.log(1 + (pages - documentFrequency + 0.5) / (documentFrequency + 0.5));
+        }
+
+        // Страница неизвестной длины считается страницей средней длины
+        float score(float idf, float frequency, int pageId) {
+            float length = pageId < lengths.length ? lengths[pageId] : 0;
+            float relativeLength = length > 0 && averageLength > 0 ? length / averageLength : 1;
+            return idf * frequency * (k1 + 1) / (frequency + k1 * (1 - b + b * relativeLength));
+        }
+    }
+
+    // Страницы сайта, прошедшие пересечение, и их суммарный вклад BM25; массивы отсортированы по page_id
+    private static final class Matches {
+        private int[] pageIds = new int[0];
+        private float[] scores = new float[0];
+        private int size;
+        // id лемм запроса на сайте по ключу collationKey
+        private final Map<String, Integer> lemmaIds = new HashMap<>();
+    }
+
+    // Леммы запроса для пересечения и фразы из текста в кавычках
+    static final class ParsedQuery {
+        final Set<String> lemmas = new LinkedHashSet<>();
+        final List<List<PhraseTerm>> phrases = new ArrayList<>();
+        // Слово запроса, из которого получена лемма, и слова, для которых морфология не дала нормальной формы
+        final Map<String, String> words = new HashMap<>();
+        final List<String> unresolved = new ArrayList<>();
+
+        // Заменяет лемму с сохранением порядка лемм и смещений во фразах
+        void replace(String lemma, String replacement) {
+            List<String> ordered = new ArrayList<>(lemmas);
+            ordered.replaceAll(current -> current.equals(lemma) ? replacement : current);
+            lemmas.clear();
+            lemmas.addAll(ordered);
+            words.put(replacement, words.remove(lemma));
+            String key = LemmaBatchRepository.collationKey(lemma);
+            for (List<PhraseTerm> phrase : phrases) {
+                phrase.replaceAll(term -> key.equals(term.key) ? new PhraseTerm(replacement, term.offset) : term);
+            }
+        }
+
+        // Нераспознанное слово фразы получает исправление на своем месте
+        void resolve(String word, String correction) {
+            for (List<PhraseTerm> phrase : phrases) {
+                phrase.replaceAll(term -> term.key == null && term.word.equals(word)
+                        ? new PhraseTerm(correction, term.offset) : term);
+            }
+        }
+
+        // Неисправленные слова остаются во фразе пропуском: смещения соседей уже учитывают их место
+        void dropUnresolvedPhraseTerms() {
+            for (List<PhraseTerm> phrase : phrases) {
+                phrase.removeIf(term -> term.key == null);
+            }
+            phrases.removeIf(phrase -> phrase.size() < 2);
+        }
+
+        Set<String> lemmaKeys() {
+            Set<String> keys = new LinkedHashSet<>();
+            for (String lemma : lemmas) {
+                keys.add(LemmaBatchRepository.collationKey(lemma));
+            }
+            return keys;
+        }
+    }
+
+    // Лемма фразы и ее смещение от начала фразы в словах; до исправления опечаток у нераспознанного
+    // слова вместо леммы — само слово, а key == null
+    static final class PhraseTerm {
+        final String key;
+        final String word;
+        final int offset;
+
+        PhraseTerm(String lemma, int offset) {
+            this(LemmaBatchRepository.collationKey(lemma), null, offset);
+        }
+
+        private PhraseTerm(String key, String word, int offset) {
+            this.key = key;
+            this.word = word;
+            this.offset = offset;
+        }
+
+        static PhraseTerm unresolved(String word, int offset) {
+            return new PhraseTerm(null, word, offset);
+        }
+    }
+
+    private static final class Hit {
+        // По возрастанию релевантности; при равенстве выше страница с меньшим id
+        static final Comparator<Hit> ASCENDING = Comparator.<Hit>comparingDouble(hit -> hit.score)
+                .thenComparing(Comparator.<Hit>comparingInt(hit -> hit.pageId).reversed());
+
+        private final int siteId;
+        private final int pageId;
+        private final float score;
+
+        Hit(int siteId, int pageId, float score) {
+            this.siteId = siteId;
+            this.pageId = pageId;
+            this.score = score;
+        }
+    }
+}
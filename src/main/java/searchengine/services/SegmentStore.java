@@ -0,0 +1,270 @@
+package searchengine.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+/**
+ * Каталог сегментов индекса: список действующих сегментов (файл manifest), отметки удаленных страниц
+ * и слияние. Слияние многоуровневое: сегменты делятся на уровни по размеру (каждый следующий в mergeFactor
+ * раз больше), и как только на уровне набирается mergeFactor сегментов, они сливаются в один; при слиянии
+ * выбрасываются удаленные страницы и леммы, которых больше нет в словарях сайтов.
+ * <p>
+ * Файл clean означает, что сегменты полностью соответствуют БД; он удаляется при первом изменении
+ * индекса после сброса, так что после аварийного завершения индекс пересобирается из БД.
+ */
+final class SegmentStore {
+    private static final Logger logger = LoggerFactory.getLogger(SegmentStore.class);
+
+    private static final String MANIFEST = "manifest";
+    static final String CLEAN_MARKER = "clean";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    // Нижняя граница размера для деления на уровни: все мелкие сегменты — один уровень
+    private static final long TIER_FLOOR_BYTES = 1 << 20;
+
+    private final Path directory;
+    private final int mergeFactor;
+    private final long maxSegmentBytes;
+    // От нового к старому; список заменяется целиком, поэтому читается без блокировок
+    private volatile List<IndexSegment> segments = List.of();
+    private long nextId = 1;
+    private boolean clean;
+
+    SegmentStore(Path directory, int mergeFactor, long maxSegmentBytes) {
+        this.directory = directory;
+        this.mergeFactor = Math.max(2, mergeFactor);
+        this.maxSegmentBytes = maxSegmentBytes;
+    }
+
+    // Открывает сегменты, если индекс был закрыт корректно; иначе очищает каталог и возвращает false
+    synchronized boolean open() throws IOException {
+        Files.createDirectories(directory);
+        Path manifest = directory.resolve(MANIFEST);
+        if (Files.exists(directory.resolve(CLEAN_MARKER)) && Files.exists(manifest)) {
+            try {
+                List<IndexSegment> opened = new ArrayList<>();
+                for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                    if (!line.isBlank()) {
+                        long id = Long.parseLong(line.trim());
+                        opened.add(IndexSegment.open(id, segmentPath(id)));
+                        nextId = Math.max(nextId, id + 1);
+                    }
+                }
+                opened.sort(Comparator.comparingLong(IndexSegment::id).reversed());
+                segments = List.copyOf(opened);
+                clean = true;
+                deleteUnreferencedFiles();
+                return true;
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Сегменты индекса в {} не открылись ({}), индекс будет собран заново.", directory, e.getMessage());
+            }
+        }
+        segments = List.of();
+        clean = false;
+        Files.deleteIfExists(directory.resolve(CLEAN_MARKER));
+        writeManifest(List.of());
+        deleteUnreferencedFiles();
+        return false;
+    }
+
+    List<IndexSegment> segments() {
+        return segments;
+    }
+
+    // Пишет новый сегмент и делает его действующим; deletedWhileWriting — страницы, удаленные, пока он писался
+    IndexSegment add(int[] lemmaIds, IntFunction<PostingCursor> cursors, Set<Integer> deletedWhileWriting) throws IOException {
+        long id;
+        synchronized (this) {
+            id = nextId++;
+        }
+        IndexSegment segment = IndexSegment.write(id, segmentPath(id), lemmaIds, cursors);
+        synchronized (this) {
+            for (int pageId : deletedWhileWriting) {
+                segment.delete(pageId);
+            }
+            List<IndexSegment> updated = new ArrayList<>(segments.size() + 1);
+            updated.add(segment);
+            updated.addAll(segments);
+            publish(updated);
+        }
+        return segment;
+    }
+
+    // lemmaIds — леммы страницы: по ним сегменты поправляют число живых страниц
+    synchronized void delete(int pageId, Collection<Integer> lemmaIds) {
+        for (IndexSegment segment : segments) {
+            segment.delete(pageId, lemmaIds);
+        }
+    }
+
+    // Сохраняет отметки удалений; вызывается при сбросе буфера и при закрытии
+    synchronized void writeDeletions() throws IOException {
+        for (IndexSegment segment : segments) {
+            segment.writeDeletions();
+        }
+    }
+
+    synchronized void markDirty() throws IOException {
+        if (clean) {
+            Files.deleteIfExists(directory.resolve(CLEAN_MARKER));
+            clean = false;
+        }
+    }
+
+    synchronized void markClean() throws IOException {
+        writeDeletions();
+        if (!clean) {
+            Files.write(directory.resolve(CLEAN_MARKER), new byte[0]);
+            clean = true;
+        }
+    }
+
+    synchronized boolean isClean() {
+        return clean;
+    }
+
+    /**
+     * Одно слияние по многоуровневой политике, если на каком-то уровне набралось mergeFactor сегментов.
+     * liveLemma отсекает леммы удаленных сайтов. Возвращает false, если сливать нечего.
+     */
+    boolean mergeOnce(IntPredicate liveLemma) throws IOException {
+        List<IndexSegment> candidates = selectMerge();
+        if (candidates.isEmpty()) {
+            return false;
+        }
+        long started = System.nanoTime();
+        List<long[]> deletionSnapshots = new ArrayList<>(candidates.size());
+        TreeSet<Integer> lemmaIds = new TreeSet<>();
+        for (IndexSegment segment : candidates) {
+            deletionSnapshots.add(segment.deletionsSnapshot());
+            for (int term = 0; term < segment.termCount(); term++) {
+                int lemmaId = segment.lemmaIdAt(term);
+                if (liveLemma.test(lemmaId)) {
+                    lemmaIds.add(lemmaId);
+                }
+            }
+        }
+
+        long id;
+        synchronized (this) {
+            id = nextId++;
+        }
+        // candidates упорядочены от нового к старому — как того ждет MergedPostingCursor
+        IndexSegment merged = IndexSegment.write(id, segmentPath(id), lemmaIds.stream().mapToInt(Integer::intValue).toArray(),
+                lemmaId -> {
+                    List<PostingCursor> cursors = new ArrayList<>(candidates.size());
+                    for (IndexSegment segment : candidates) {
+                        PostingCursor cursor = segment.cursor(lemmaId);
+                        if (cursor != null) {
+                            cursors.add(cursor);
+                        }
+                    }
+                    return cursors.isEmpty() ? null : MergedPostingCursor.of(cursors);
+                });
+
+        synchronized (this) {
+            // Страницы, удаленные во время слияния, переносятся в новый сегмент
+            for (int i = 0; i < candidates.size(); i++) {
+                candidates.get(i).forEachDeletedSince(deletionSnapshots.get(i), merged::delete);
+            }
+            List<IndexSegment> updated = new ArrayList<>(segments);
+            updated.removeAll(candidates);
+            updated.add(merged);
+            updated.sort(Comparator.comparingLong(IndexSegment::id).reversed());
+            publish(updated);
+        }
+        for (IndexSegment segment : candidates) {
+            // Открытые курсоры продолжают читать отображение удаленного файла
+            segment.deleteFiles();
+        }
+        logger.info("Слито {} сегментов индекса в {}: связок {}, {} КБ, за {} мс", candidates.size(), id,
+                merged.postingCount(), merged.sizeInBytes() / 1024, (System.nanoTime() - started) / 1_000_000);
+        return true;
+    }
+
+    // mergeFactor самых мелких сегментов первого переполненного уровня, если их сумма не превысит предел
+    private List<IndexSegment> selectMerge() {
+        List<IndexSegment> current = segments;
+        List<List<IndexSegment>> tiers = new ArrayList<>();
+        for (IndexSegment segment : current) {
+            int tier = tier(segment.sizeInBytes());
+            while (tiers.size() <= tier) {
+                tiers.add(new ArrayList<>());
+            }
+            tiers.get(tier).add(segment);
+        }
+        for (List<IndexSegment> tier : tiers) {
+            if (tier.size() < mergeFactor) {
+                continue;
+            }
+            tier.sort(Comparator.comparingLong(IndexSegment::sizeInBytes));
+            List<IndexSegment> selected = new ArrayList<>(tier.subList(0, mergeFactor));
+            long total = selected.stream().mapToLong(IndexSegment::sizeInBytes).sum();
+            if (total <= maxSegmentBytes) {
+                selected.sort(Comparator.comparingLong(IndexSegment::id).reversed());
+                return selected;
+            }
+        }
+        return List.of();
+    }
+
+    private int tier(long bytes) {
+        int tier = 0;
+        for (long limit = TIER_FLOOR_BYTES; bytes > limit && tier < 30; limit *= mergeFactor) {
+            tier++;
+        }
+        return tier;
+    }
+
+    private void publish(List<IndexSegment> updated) throws IOException {
+        List<IndexSegment> published = List.copyOf(updated);
+        writeManifest(published);
+        segments = published;
+    }
+
+    private void writeManifest(List<IndexSegment> list) throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (IndexSegment segment : list) {
+            text.append(segment.id()).append('\n');
+        }
+        Path manifest = directory.resolve(MANIFEST);
+        Path temp = directory.resolve(MANIFEST + ".tmp");
+        Files.writeString(temp, text, StandardCharsets.UTF_8);
+        Files.move(temp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Файлы сегментов, не попавшие в manifest: недописанные или оставшиеся от слияния
+    private void deleteUnreferencedFiles() throws IOException {
+        Set<String> referenced = new HashSet<>();
+        for (IndexSegment segment : segments) {
+            referenced.add(segment.path().getFileName().toString());
+            referenced.add(segment.path().getFileName() + ".del");
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX + "*")) {
+            for (Path file : files) {
+                if (!referenced.contains(file.getFileName().toString())) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%012d", id) + SEGMENT_SUFFIX);
+    }
+}
@@ -0,0 +1,237 @@
+package searchengine.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import searchengine.config.CrawlerSettings;
+import searchengine.model.Site;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Обход одного сайта. Ссылки складываются в явную очередь (frontier),
+ * а каждая страница загружается в отдельном виртуальном потоке, поэтому
+ * ожидание ответа сервера не занимает потоки платформы; дальше страница проходит
+ * стадии CrawlPipeline. Момент запуска запроса определяет PolitenessScheduler. Очередь и посещенные URL периодически сохраняются
+ * в контрольную точку, из которой обход можно продолжить.
+ */
+public class SiteCrawler {
+    private static final Logger logger = LoggerFactory.getLogger(SiteCrawler.class);
+    private static final long POLL_TIMEOUT_MS = 200;
+
+    private final Site site;
+    private final String startUrl;
+    private final CrawlServices services;
+    private final IndexingService indexingService;
+    private final CrawlPipeline pipeline;
+    private final String host;
+    private final long crawlDelayMs;
+    // Леммы сайта в памяти: id известны, частоты копятся и сбрасываются раз в lemma-flush-interval
+    private final SiteLemmaDictionary lemmaDictionary;
+    private final CrawlProgress progress;
+    private long lastLemmaFlushTime = System.currentTimeMillis();
+
+    private final BlockingQueue<String> frontier = new LinkedBlockingQueue<>();
+    private final VisitedUrlSet visitedUrls;
+    private final AtomicInteger activeTasks = new AtomicInteger();
+    // URL, взятые из очереди, но еще не обработанные: при возобновлении их нужно загрузить заново
+    private final Set<String> inFlightUrls = ConcurrentHashMap.newKeySet();
+    // Снимок для контрольной точки берется под записью, чтобы ни одна ссылка не потерялась между очередью и обработкой
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    private long lastCheckpointTime = System.currentTimeMillis();
+    // Повторный обход: известные страницы запрашиваются условно и переиндексируются только при изменении
+    private boolean incremental;
+    private final Semaphore requestPermits;
+    // Общие на все сайты разрешения CrawlScheduler, взятые этим обходом; остаток возвращается по его окончании,
+    // так что страницы, застрявшие при остановке, не уменьшают общий лимит навсегда
+    private final AtomicInteger heldSchedulerPermits = new AtomicInteger();
+    // Не больше одного запроса, ожидающего своего слота: иначе слоты хоста резервировались бы надолго вперед
+    private final Semaphore schedulingPermit = new Semaphore(1);
+
+    public SiteCrawler(Site site, String startUrl, long crawlDelayMs, CrawlPipeline pipeline,
+                       CrawlServices services, IndexingService indexingService) {
+        this.site = site;
+        this.startUrl = startUrl;
+        this.crawlDelayMs = crawlDelayMs;
+        this.pipeline = pipeline;
+        this.services = services;
+        this.indexingService = indexingService;
+        this.lemmaDictionary = new SiteLemmaDictionary(site.getId(), services.getLemmaBatchRepository(),
+                services.getPostingIndex());
+        this.host = URI.create(startUrl).getHost();
+        this.visitedUrls = new VisitedUrlSet(services.getCrawlerSettings().getVisitedBloomExpectedUrls());
+        this.requestPermits = new Semaphore(Math.max(1, services.getCrawlerSettings().getMaxRequestsPerSite()));
+        this.progress = new CrawlProgress(site.getId(), startUrl, frontier::size, activeTasks::get);
+    }
+
+    // Продолжение обхода с сохраненного места вместо стартовой страницы
+    public void restore(CrawlCheckpointService.Snapshot snapshot) {
+        for (long fingerprint : snapshot.getVisitedFingerprints()) {
+            visitedUrls.addFingerprint(fingerprint);
+        }
+        frontier.addAll(snapshot.getFrontier());
+        // Прерванный инкрементальный обход продолжается инкрементальным
+        incremental = snapshot.isIncremental();
+        logger.info("Обход сайта {} продолжается с контрольной точки: в очереди {}, посещено {}",
+                site.getUrl(), snapshot.getFrontier().size(), visitedUrls.size());
+    }
+
+    // Инкрементальный обход: в очередь сразу попадают все уже известные страницы сайта,
+    // поэтому ссылки неизменившихся страниц не нужно извлекать заново
+    public void seedKnownPages(List<String> paths) {
+        incremental = true;
+        String root = startUrl.endsWith("/") ? startUrl.substring(0, startUrl.length() - 1) : startUrl;
+        for (String path : paths) {
+            offer(root + path);
+        }
+        logger.info("Инкрементальный обход сайта {}: известных страниц {}", site.getUrl(), paths.size());
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    // Обход завершается, когда очередь пуста и ни одна страница не обрабатывается;
+    // false — обход прерван, состояние осталось в контрольной точке
+    public boolean crawl() throws InterruptedException {
+        offer(startUrl);
+
+        boolean completed = false;
+        try {
+            CrawlerSettings crawlerSettings = services.getCrawlerSettings();
+            while (indexingService.isIndexingInProgress()) {
+                if (System.currentTimeMillis() - lastCheckpointTime >= crawlerSettings.getCheckpointInterval()) {
+                    saveCheckpoint();
+                } else if (System.currentTimeMillis() - lastLemmaFlushTime >= crawlerSettings.getLemmaFlushInterval()) {
+                    flushLemmaFrequencies();
+                }
+
+                String url = frontier.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (url == null) {
+                    if (activeTasks.get() == 0 && frontier.isEmpty()) {
+                        completed = true;
+                        break;
+                    }
+                    continue;
+                }
+                inFlightUrls.add(url);
+
+                requestPermits.acquire();
+                services.getCrawlScheduler().acquireRequest();
+                heldSchedulerPermits.incrementAndGet();
+                schedulingPermit.acquire();
+                activeTasks.incrementAndGet();
+                services.getPolitenessScheduler().schedule(host, crawlDelayMs, () -> {
+                    schedulingPermit.release();
+                    dispatch(url);
+                });
+            }
+        } finally {
+            services.getCrawlScheduler().releaseRequests(heldSchedulerPermits.getAndSet(0));
+            if (completed) {
+                lemmaDictionary.close();
+                // Связки обхода уходят из буфера в сегмент на диске
+                services.getPostingIndex().flushAsync();
+                services.getCheckpointService().delete(site.getId());
+            } else {
+                saveCheckpointAfterHalt();
+            }
+        }
+        logger.info("Обход сайта {} завершен. Обработано URL: {}", site.getUrl(), visitedUrls.size());
+        return completed;
+    }
+
+    private void dispatch(String url) {
+        pipeline.submit(new PageCrawler(site, url, this, services, indexingService));
+    }
+
+    // Страница прошла конвейер (или выпала из него); обход считается завершенным только после записи в БД
+    void complete(String url) {
+        snapshotLock.readLock().lock();
+        try {
+            // Незавершенная из-за остановки страница остается в контрольной точке
+            if (indexingService.isIndexingInProgress()) {
+                inFlightUrls.remove(url);
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+        activeTasks.decrementAndGet();
+        requestPermits.release();
+        // Разрешение могло уже вернуться при окончании обхода
+        if (heldSchedulerPermits.getAndUpdate(held -> held > 0 ? held - 1 : 0) > 0) {
+            services.getCrawlScheduler().releaseRequests(1);
+        }
+    }
+
+    // Добавляет URL в очередь, если его каноническая форма еще не встречалась; запрашивается и
+    // сохраняется исходный URL — каноническая форма служит только ключом для отсева повторов
+    public boolean offer(String url) {
+        snapshotLock.readLock().lock();
+        try {
+            if (!visitedUrls.add(VisitedUrlSet.canonicalize(url))) {
+                return false;
+            }
+            frontier.add(url);
+            return true;
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    private void flushLemmaFrequencies() {
+        lemmaDictionary.flush();
+        lastLemmaFlushTime = System.currentTimeMillis();
+    }
+
+    // Частоты сбрасываются перед снимком: страницы, которых уже нет в очереди, должны быть учтены в БД
+    private void saveCheckpoint() {
+        flushLemmaFrequencies();
+        List<String> pending;
+        long[] visited;
+        snapshotLock.writeLock().lock();
+        try {
+            pending = new ArrayList<>(inFlightUrls);
+            pending.addAll(frontier);
+            visited = visitedUrls.toFingerprintArray();
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+        services.getCheckpointService().save(site, pending, visited, incremental);
+        lastCheckpointTime = System.currentTimeMillis();
+    }
+
+    // Поток мог быть прерван остановкой индексации: снимаем флаг на время записи в БД и возвращаем его.
+    // Словарь закрывается до снимка: страницы, которые конвейер еще дописывает, сбросят частоты сами
+    private void saveCheckpointAfterHalt() {
+        boolean interrupted = Thread.interrupted();
+        try {
+            lemmaDictionary.close();
+            saveCheckpoint();
+        } catch (Exception e) {
+            logger.error("Не удалось сохранить контрольную точку обхода сайта {}: {}", site.getUrl(), e.getMessage());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public SiteLemmaDictionary getLemmaDictionary() {
+        return lemmaDictionary;
+    }
+
+    public CrawlProgress getProgress() {
+        return progress;
+    }
+}
@@ -0,0 +1,149 @@
+package searchengine.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import searchengine.repository.LemmaBatchRepository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Словарь лемм сайта на время обхода: лемма → id и накопленное приращение частоты.
+ * Словарь сайта быстро насыщается, поэтому для большинства страниц все леммы уже известны:
+ * в БД пишутся только связки index, а частоты копятся в памяти и периодически сбрасываются
+ * одним пакетным UPDATE. Новая лемма вставляется через upsert по уникальному ключу (site_id, lemma),
+ * так что при гонке потоков в таблице остается одна строка, а ее частота учитывается верно.
+ */
+public class SiteLemmaDictionary {
+    private static final Logger logger = LoggerFactory.getLogger(SiteLemmaDictionary.class);
+
+    private final int siteId;
+    private final LemmaBatchRepository lemmaBatchRepository;
+    private final PostingIndex postingIndex;
+    // Ключ — LemmaBatchRepository.collationKey(лемма)
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Последний сброс обхода уже прошел: страницы, дописанные после остановки, сбрасывают свои частоты сами
+    private volatile boolean closed;
+
+    public SiteLemmaDictionary(int siteId, LemmaBatchRepository lemmaBatchRepository, PostingIndex postingIndex) {
+        this.siteId = siteId;
+        this.lemmaBatchRepository = lemmaBatchRepository;
+        this.postingIndex = postingIndex;
+    }
+
+    // Пишет связки страницы; возвращает id ее лемм по ключу collationKey
+    public Map<String, Integer> savePage(int pageId, Map<String, Integer> lemmaFrequencies, Map<String, byte[]> positions) {
+        return apply(write(pageId, lemmaFrequencies, positions));
+    }
+
+    // Только запись связок в БД — ее можно выполнить в транзакции вызывающего; словарь и индекс в памяти
+    // не меняются, пока результат не передан в apply() после фиксации
+    public PageWrite write(int pageId, Map<String, Integer> lemmaFrequencies, Map<String, byte[]> positions) {
+        Map<String, Integer> knownIds = new HashMap<>();
+        List<Entry> known = new ArrayList<>();
+        for (String lemma : lemmaFrequencies.keySet()) {
+            String key = LemmaBatchRepository.collationKey(lemma);
+            Entry entry = entries.get(key);
+            if (entry != null && knownIds.putIfAbsent(key, entry.id) == null) {
+                known.add(entry);
+            }
+        }
+
+        Map<String, Integer> pageLemmaIds =
+                lemmaBatchRepository.saveLemmasAndIndexes(siteId, pageId, lemmaFrequencies, positions, knownIds);
+        return new PageWrite(pageId, lemmaFrequencies, knownIds, known, pageLemmaIds);
+    }
+
+    // Учитывает записанную страницу: частоты известных лемм, новые леммы словаря, списки в памяти
+    public Map<String, Integer> apply(PageWrite write) {
+        for (Entry entry : write.known) {
+            entry.pendingFrequency.incrementAndGet();
+        }
+        write.pageLemmaIds.forEach((key, id) -> {
+            if (!write.knownIds.containsKey(key)) {
+                entries.putIfAbsent(key, new Entry(id));
+            }
+        });
+        postingIndex.addPage(siteId, write.pageId, write.lemmaFrequencies, write.pageLemmaIds);
+        // Флаг читается после приращений: если close() его еще не выставил, эти приращения попадут в его сброс
+        if (closed) {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                logger.error("Не удалось сбросить частоты лемм сайта {} после остановки обхода: {}", siteId, e.getMessage());
+            }
+        }
+        return write.pageLemmaIds;
+    }
+
+    // Последний сброс обхода. Страницы, запись которых шла во время остановки, завершаются уже после
+    // него — их частоты сбрасываются сразу в savePage, а не теряются вместе со словарем
+    public void close() {
+        closed = true;
+        flush();
+    }
+
+    // Сбрасывает накопленные частоты в БД; при ошибке приращения возвращаются и уйдут при следующем сбросе
+    public synchronized void flush() {
+        List<Entry> flushed = new ArrayList<>();
+        Map<Integer, Integer> deltas = new HashMap<>();
+        for (Entry entry : entries.values()) {
+            int delta = entry.pendingFrequency.getAndSet(0);
+            if (delta != 0) {
+                flushed.add(entry);
+                deltas.put(entry.id, delta);
+            }
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+        try {
+            lemmaBatchRepository.addFrequencies(deltas);
+            logger.debug("Сброшены частоты {} лемм сайта {}", deltas.size(), siteId);
+        } catch (RuntimeException e) {
+            for (Entry entry : flushed) {
+                entry.pendingFrequency.addAndGet(deltas.get(entry.id));
+            }
+            throw e;
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // Связки страницы, записанные в БД, но еще не учтенные в памяти
+    public static final class PageWrite {
+        private final int pageId;
+        private final Map<String, Integer> lemmaFrequencies;
+        private final Map<String, Integer> knownIds;
+        private final List<Entry> known;
+        private final Map<String, Integer> pageLemmaIds;
+
+        private PageWrite(int pageId, Map<String, Integer> lemmaFrequencies, Map<String, Integer> knownIds,
+                          List<Entry> known, Map<String, Integer> pageLemmaIds) {
+            this.pageId = pageId;
+            this.lemmaFrequencies = lemmaFrequencies;
+            this.knownIds = knownIds;
+            this.known = known;
+            this.pageLemmaIds = pageLemmaIds;
+        }
+
+        public Map<String, Integer> getPageLemmaIds() {
+            return pageLemmaIds;
+        }
+    }
+
+    private static final class Entry {
+        private final int id;
+        private final AtomicInteger pendingFrequency = new AtomicInteger();
+
+        Entry(int id) {
+            this.id = id;
+        }
+    }
+}
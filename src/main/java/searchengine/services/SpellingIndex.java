@@ -0,0 +1,173 @@
+package searchengine.services;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Исправление опечаток по словарю сайта методом симметричного удаления (как в SymSpell): для каждого слова
+ * заранее перечислены варианты с удаленными 1..maxDistance буквами его начала (prefixLength букв), и слово
+ * с опечаткой находит кандидатов по своим вариантам удаления — за постоянное число поисков, без перебора
+ * словаря. Варианты хранятся хешами в отсортированных массивах int: на каждое слово — несколько десятков
+ * чисел, а не строк; совпадение хеша проверяется настоящим расстоянием Дамерау — Левенштейна.
+ */
+final class SpellingIndex {
+    private final String[] terms;
+    private final int[] weights;
+    private final int maxDistance;
+    private final int prefixLength;
+    // Хеши вариантов удаления по возрастанию; слова варианта hashes[i] — termIds[starts[i]..starts[i + 1])
+    private final int[] hashes;
+    private final int[] starts;
+    private final int[] termIds;
+
+    private SpellingIndex(String[] terms, int[] weights, int maxDistance, int prefixLength,
+                          int[] hashes, int[] starts, int[] termIds) {
+        this.terms = terms;
+        this.weights = weights;
+        this.maxDistance = maxDistance;
+        this.prefixLength = prefixLength;
+        this.hashes = hashes;
+        this.starts = starts;
+        this.termIds = termIds;
+    }
+
+    static SpellingIndex build(Map<String, Long> weightedTerms, int maxDistance, int prefixLength) {
+        String[] terms = weightedTerms.keySet().toArray(new String[0]);
+        int[] weights = new int[terms.length];
+        long[] pairs = new long[Math.max(16, terms.length * 8)];
+        int pairCount = 0;
+        Set<String> variants = new HashSet<>();
+        for (int id = 0; id < terms.length; id++) {
+            weights[id] = (int) Math.min(Integer.MAX_VALUE, weightedTerms.get(terms[id]));
+            variants.clear();
+            collectDeletes(prefix(terms[id], prefixLength), maxDistance, variants);
+            for (String variant : variants) {
+                if (pairCount == pairs.length) {
+                    pairs = Arrays.copyOf(pairs, pairs.length * 2);
+                }
+                pairs[pairCount++] = ((long) variant.hashCode() << 32) | id;
+            }
+        }
+        Arrays.sort(pairs, 0, pairCount);
+
+        int[] hashes = new int[pairCount];
+        int[] starts = new int[pairCount + 1];
+        int[] termIds = new int[pairCount];
+        int unique = 0;
+        for (int i = 0; i < pairCount; i++) {
+            int hash = (int) (pairs[i] >> 32);
+            if (unique == 0 || hashes[unique - 1] != hash) {
+                hashes[unique] = hash;
+                starts[unique] = i;
+                unique++;
+            }
+            termIds[i] = (int) pairs[i];
+        }
+        starts[unique] = pairCount;
+        return new SpellingIndex(terms, weights, maxDistance, prefixLength,
+                Arrays.copyOf(hashes, unique), Arrays.copyOf(starts, unique + 1), termIds);
+    }
+
+    // Вес слова словаря или -1, если слова в нем нет
+    int weight(String term) {
+        int id = Arrays.binarySearch(terms, term);
+        return id >= 0 ? weights[id] : -1;
+    }
+
+    /**
+     * Ближайшее по написанию слово словаря: с наименьшим расстоянием, при равенстве — самое частое.
+     * null, если в пределах допустимого расстояния ничего нет.
+     */
+    Candidate correct(String word) {
+        int limit = maxDistanceFor(word);
+        Set<String> variants = new HashSet<>();
+        collectDeletes(prefix(word, prefixLength), limit, variants);
+        Set<Integer> seen = new HashSet<>();
+        Candidate best = null;
+        for (String variant : variants) {
+            int slot = Arrays.binarySearch(hashes, variant.hashCode());
+            if (slot < 0) {
+                continue;
+            }
+            for (int i = starts[slot]; i < starts[slot + 1]; i++) {
+                int id = termIds[i];
+                if (!seen.add(id) || Math.abs(terms[id].length() - word.length()) > limit) {
+                    continue;
+                }
+                int distance = distance(word, terms[id], limit);
+                if (distance > limit) {
+                    continue;
+                }
+                if (best == null || distance < best.distance
+                        || (distance == best.distance && weights[id] > best.weight)) {
+                    best = new Candidate(terms[id], distance, weights[id]);
+                }
+            }
+        }
+        return best;
+    }
+
+    // В коротком слове две правки дают совсем другое слово: до 4 букв допускается одна
+    private int maxDistanceFor(String word) {
+        return word.length() <= 4 ? Math.min(1, maxDistance) : maxDistance;
+    }
+
+    private static String prefix(String word, int prefixLength) {
+        return word.length() > prefixLength ? word.substring(0, prefixLength) : word;
+    }
+
+    // Само слово и все варианты с удалением до depth букв
+    private static void collectDeletes(String word, int depth, Set<String> variants) {
+        if (!variants.add(word) || depth == 0 || word.length() <= 1) {
+            return;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            collectDeletes(word.substring(0, i) + word.substring(i + 1), depth - 1, variants);
+        }
+    }
+
+    // Расстояние Дамерау — Левенштейна (перестановка соседних букв — одна правка); больше limit — limit + 1
+    static int distance(String a, String b, int limit) {
+        int[] twoBack = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int value = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    value = Math.min(value, twoBack[j - 2] + 1);
+                }
+                current[j] = value;
+                rowMin = Math.min(rowMin, value);
+            }
+            if (rowMin > limit) {
+                return limit + 1;
+            }
+            int[] recycled = twoBack;
+            twoBack = previous;
+            previous = current;
+            current = recycled;
+        }
+        return Math.min(previous[b.length()], limit + 1);
+    }
+
+    static final class Candidate {
+        final String term;
+        final int distance;
+        final int weight;
+
+        Candidate(String term, int distance, int weight) {
+            this.term = term;
+            this.distance = distance;
+            this.weight = weight;
+        }
+    }
+}
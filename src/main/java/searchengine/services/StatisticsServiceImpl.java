@@ -2,53 +2,67 @@ package searchengine.services;
 
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
+import searchengine.config.ConfigSite;
 import searchengine.config.SitesList;
 import searchengine.dto.statistics.DetailedStatisticsItem;
 import searchengine.dto.statistics.StatisticsData;
 import searchengine.dto.statistics.StatisticsResponse;
 import searchengine.dto.statistics.TotalStatistics;
+import searchengine.model.Site;
+import searchengine.repository.SiteRepository;
+
+import java.time.ZoneId;
 import java.util.ArrayList;
-import searchengine.config.ConfigSite;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
 
+/**
+ * Статистика по сайтам из конфигурации: статус и ошибка — из таблицы site (один запрос на все сайты),
+ * число страниц и лемм — из счетчиков {@link IndexCounters}, так что запрос не делает COUNT(*) по page и lemma.
+ */
 @Service
 @RequiredArgsConstructor
 public class StatisticsServiceImpl implements StatisticsService {
 
-    private final Random random = new Random();
     private final SitesList sites;
+    private final SiteRepository siteRepository;
+    private final IndexCounters indexCounters;
+    private final IndexingService indexingService;
 
     @Override
     public StatisticsResponse getStatistics() {
-        String[] statuses = { "INDEXED", "FAILED", "INDEXING" };
-        String[] errors = {
-                "Ошибка индексации: главная страница сайта не доступна",
-                "Ошибка индексации: сайт не доступен",
-                ""
-        };
+        Map<String, Site> indexedSites = new HashMap<>();
+        for (Site site : siteRepository.findAll()) {
+            indexedSites.put(normalizeUrl(site.getUrl()), site);
+        }
 
         TotalStatistics total = new TotalStatistics();
         total.setSites(sites.getSites().size());
-        total.setIndexing(true);
+        total.setIndexing(indexingService.isIndexingInProgress());
 
         List<DetailedStatisticsItem> detailed = new ArrayList<>();
-        List<ConfigSite> sitesList = sites.getSites();
-        for(int i = 0; i < sitesList.size(); i++) {
-            ConfigSite site = sitesList.get(i);
+        for (ConfigSite configSite : sites.getSites()) {
             DetailedStatisticsItem item = new DetailedStatisticsItem();
-            item.setName(site.getName());
-            item.setUrl(site.getUrl());
-            int pages = random.nextInt(1_000);
-            int lemmas = pages * random.nextInt(1_000);
-            item.setPages(pages);
-            item.setLemmas(lemmas);
-            item.setStatus(statuses[i % 3]);
-            item.setError(errors[i % 3]);
-            item.setStatusTime(System.currentTimeMillis() -
-                    (random.nextInt(10_000)));
-            total.setPages(total.getPages() + pages);
-            total.setLemmas(total.getLemmas() + lemmas);
+            item.setName(configSite.getName());
+            item.setUrl(configSite.getUrl());
+            Site site = indexedSites.get(normalizeUrl(configSite.getUrl()));
+            if (site != null) {
+                int pages = (int) Math.min(Integer.MAX_VALUE, indexCounters.pages(site.getId()));
+                int lemmas = (int) Math.min(Integer.MAX_VALUE, indexCounters.lemmas(site.getId()));
+                item.setPages(pages);
+                item.setLemmas(lemmas);
+                item.setStatus(site.getStatus().name());
+                item.setError(site.getLastError() != null ? site.getLastError() : "");
+                item.setStatusTime(site.getStatusTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+                total.setPages(total.getPages() + pages);
+                total.setLemmas(total.getLemmas() + lemmas);
+            } else {
+                // Сайт еще ни разу не индексировался
+                item.setStatus("NOT_INDEXED");
+                item.setError("");
+                item.setStatusTime(System.currentTimeMillis());
+            }
             detailed.add(item);
         }
 
@@ -60,4 +74,8 @@ public class StatisticsServiceImpl implements StatisticsService {
         response.setResult(true);
         return response;
     }
+
+    private static String normalizeUrl(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
 }
@@ -0,0 +1,199 @@
+package searchengine.services;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Неизменяемый словарь автодополнения: слова в UTF-8, упорядоченные побайтно, их веса и дерево отрезков
+ * с позицией максимального веса — все в одном буфере вне кучи. Слова с общим префиксом занимают непрерывный
+ * отрезок, который находится двумя двоичными поисками, а лучшие по весу слова отрезка достаются из дерева:
+ * k подсказок за O(k log n), без просмотра всего отрезка.
+ */
+final class SuggestIndex {
+    static final SuggestIndex EMPTY = build(new TreeMap<>());
+
+    private final int size;
+    // size + 1 смещений слов в terms
+    private final IntBuffer offsets;
+    private final IntBuffer weights;
+    // Дерево отрезков на 2 * size узлов: лист size + i хранит i, внутренний узел — лучший из двух потомков
+    private final IntBuffer tree;
+    private final ByteBuffer terms;
+
+    private SuggestIndex(int size, IntBuffer offsets, IntBuffer weights, IntBuffer tree, ByteBuffer terms) {
+        this.size = size;
+        this.offsets = offsets;
+        this.weights = weights;
+        this.tree = tree;
+        this.terms = terms;
+    }
+
+    // Слова с весами; порядок String совпадает с побайтовым порядком UTF-8 для слов без суррогатных пар
+    static SuggestIndex build(SortedMap<String, Long> weightedTerms) {
+        int size = weightedTerms.size();
+        List<byte[]> encoded = new ArrayList<>(size);
+        int termBytes = 0;
+        for (String term : weightedTerms.keySet()) {
+            byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+            encoded.add(bytes);
+            termBytes += bytes.length;
+        }
+        int intCount = (size + 1) + size + 2 * size;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(intCount * Integer.BYTES + termBytes);
+
+        IntBuffer offsets = slice(buffer, 0, size + 1).asIntBuffer();
+        IntBuffer weights = slice(buffer, (size + 1) * Integer.BYTES, size).asIntBuffer();
+        IntBuffer tree = slice(buffer, (2 * size + 1) * Integer.BYTES, 2 * size).asIntBuffer();
+        ByteBuffer terms = buffer.slice(intCount * Integer.BYTES, termBytes);
+
+        int offset = 0;
+        int i = 0;
+        for (Map.Entry<String, Long> entry : weightedTerms.entrySet()) {
+            byte[] bytes = encoded.get(i);
+            offsets.put(i, offset);
+            terms.put(offset, bytes);
+            weights.put(i, (int) Math.min(Integer.MAX_VALUE, Math.max(0, entry.getValue())));
+            offset += bytes.length;
+            i++;
+        }
+        offsets.put(size, offset);
+
+        SuggestIndex index = new SuggestIndex(size, offsets, weights, tree, terms);
+        for (int leaf = 0; leaf < size; leaf++) {
+            tree.put(size + leaf, leaf);
+        }
+        for (int node = size - 1; node >= 1; node--) {
+            tree.put(node, index.better(tree.get(2 * node), tree.get(2 * node + 1)));
+        }
+        return index;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int byteOffset, int intCount) {
+        return buffer.slice(byteOffset, intCount * Integer.BYTES);
+    }
+
+    int size() {
+        return size;
+    }
+
+    // До limit слов с префиксом prefix по убыванию веса; при равном весе — в алфавитном порядке
+    List<String> top(String prefix, int limit) {
+        byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+        int from = lowerBound(key);
+        int to = upperBound(key, from);
+        List<String> result = new ArrayList<>(Math.min(limit, Math.max(0, to - from)));
+        if (from >= to || limit <= 0) {
+            return result;
+        }
+        // Отрезок [from, to) и позиция его максимума
+        PriorityQueue<int[]> ranges = new PriorityQueue<>(Comparator.<int[]>comparingInt(range -> -weights.get(range[0]))
+                .thenComparingInt(range -> range[0]));
+        ranges.add(new int[]{rangeMax(from, to), from, to});
+        while (result.size() < limit && !ranges.isEmpty()) {
+            int[] range = ranges.poll();
+            int best = range[0];
+            result.add(term(best));
+            if (range[1] < best) {
+                ranges.add(new int[]{rangeMax(range[1], best), range[1], best});
+            }
+            if (best + 1 < range[2]) {
+                ranges.add(new int[]{rangeMax(best + 1, range[2]), best + 1, range[2]});
+            }
+        }
+        return result;
+    }
+
+    void forEach(ObjLongConsumer<String> consumer) {
+        for (int i = 0; i < size; i++) {
+            consumer.accept(term(i), weights.get(i));
+        }
+    }
+
+    private int rangeMax(int from, int to) {
+        int best = -1;
+        for (int l = from + size, r = to + size; l < r; l >>= 1, r >>= 1) {
+            if ((l & 1) == 1) {
+                best = better(best, tree.get(l++));
+            }
+            if ((r & 1) == 1) {
+                best = better(best, tree.get(--r));
+            }
+        }
+        return best;
+    }
+
+    private int better(int a, int b) {
+        if (a < 0) {
+            return b;
+        }
+        if (b < 0) {
+            return a;
+        }
+        int wa = weights.get(a);
+        int wb = weights.get(b);
+        return wa > wb || (wa == wb && a < b) ? a : b;
+    }
+
+    // Первое слово, не меньшее key
+    private int lowerBound(byte[] key) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, key, false) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Первое слово после from, которое не начинается с key
+    private int upperBound(byte[] key, int from) {
+        int lo = from;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, key, true) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Побайтовое сравнение слова с key; prefixOnly — сравниваются только первые key.length байт слова
+    private int compare(int index, byte[] key, boolean prefixOnly) {
+        int start = offsets.get(index);
+        int length = offsets.get(index + 1) - start;
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int diff = (terms.get(start + i) & 0xFF) - (key[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        if (prefixOnly && length >= key.length) {
+            return 0;
+        }
+        return length - key.length;
+    }
+
+    private String term(int index) {
+        int start = offsets.get(index);
+        byte[] bytes = new byte[offsets.get(index + 1) - start];
+        terms.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,174 @@
+package searchengine.services;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import searchengine.config.SearchSettings;
+import searchengine.model.Site;
+import searchengine.repository.LemmaBatchRepository;
+import searchengine.repository.SearchRepository;
+import searchengine.repository.SiteRepository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Автодополнение поискового запроса по словарю лемм: {@link SuggestIndex} на каждый сайт и общий для всех
+ * сайтов, вес слова — lemma.frequency. Словарь сайта перестраивается из таблицы lemma после его индексации,
+ * общий — слиянием словарей сайтов в памяти, без обращения к БД. Подсказки не делают запросов к MySQL.
+ * Из того же словаря сайта строится {@link SpellingIndex} для исправления опечаток в запросе.
+ */
+@Service
+public class SuggestService {
+    private static final Logger logger = LoggerFactory.getLogger(SuggestService.class);
+
+    private final SiteRepository siteRepository;
+    private final SearchRepository searchRepository;
+    private final SearchSettings searchSettings;
+    private final Map<Integer, SuggestIndex> sites = new ConcurrentHashMap<>();
+    private final Map<Integer, SpellingIndex> spelling = new ConcurrentHashMap<>();
+    private volatile SuggestIndex global = SuggestIndex.EMPTY;
+    // Сайты, перестроение которых уже ждет в очереди: серия переиндексаций страниц дает одно перестроение
+    private final Set<Integer> pendingRebuilds = ConcurrentHashMap.newKeySet();
+    // Перестроения идут по одному в фоновом потоке
+    private final ExecutorService background = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "suggest-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public SuggestService(SiteRepository siteRepository, SearchRepository searchRepository, SearchSettings searchSettings) {
+        this.siteRepository = siteRepository;
+        this.searchSettings = searchSettings;
+        this.searchRepository = searchRepository;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        background.submit(() -> {
+            for (Site site : siteRepository.findAll()) {
+                rebuildSite(site.getId());
+            }
+            rebuildGlobal();
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        background.shutdownNow();
+    }
+
+    // Вызывается после индексации сайта и после переиндексации страницы
+    public void rebuildSiteAsync(int siteId) {
+        if (!pendingRebuilds.add(siteId)) {
+            return;
+        }
+        background.submit(() -> {
+            // Изменения, пришедшие во время перестроения, поставят следующее
+            pendingRebuilds.remove(siteId);
+            rebuildSite(siteId);
+            rebuildGlobal();
+        });
+    }
+
+    public void removeSite(int siteId) {
+        sites.remove(siteId);
+        spelling.remove(siteId);
+        background.submit(this::rebuildGlobal);
+    }
+
+    /**
+     * Варианты запроса: последнее слово дополняется леммами с таким началом, предшествующая часть
+     * запроса сохраняется. siteUrl == null — по всем сайтам.
+     */
+    public List<String> suggest(String query, String siteUrl, int limit) {
+        SuggestIndex index = global;
+        if (siteUrl != null && !siteUrl.isBlank()) {
+            Site site = siteRepository.findByUrl(siteUrl);
+            if (site == null) {
+                throw new IllegalArgumentException("Сайт не найден в индексе: " + siteUrl);
+            }
+            index = sites.getOrDefault(site.getId(), SuggestIndex.EMPTY);
+        }
+
+        int wordStart = query.length();
+        while (wordStart > 0 && Character.isLetter(query.charAt(wordStart - 1))) {
+            wordStart--;
+        }
+        String prefix = normalize(query.substring(wordStart));
+        if (prefix.isEmpty()) {
+            return List.of();
+        }
+        String head = query.substring(0, wordStart);
+        List<String> suggestions = new ArrayList<>(limit);
+        for (String term : index.top(prefix, limit)) {
+            suggestions.add(head + term);
+        }
+        return suggestions;
+    }
+
+    /**
+     * Лемма сайтов, ближайшая по написанию к одному из вариантов слова (например, к самому слову и к его
+     * нормальной форме): с наименьшим числом правок, при равенстве — самая частая. null — кандидатов нет.
+     */
+    public String correct(Collection<String> variants, Collection<Integer> siteIds) {
+        SpellingIndex.Candidate best = null;
+        for (String variant : variants) {
+            String word = normalize(variant);
+            for (int siteId : siteIds) {
+                SpellingIndex index = spelling.get(siteId);
+                SpellingIndex.Candidate candidate = index != null ? index.correct(word) : null;
+                if (candidate != null && (best == null || candidate.distance < best.distance
+                        || (candidate.distance == best.distance && candidate.weight > best.weight))) {
+                    best = candidate;
+                }
+            }
+        }
+        return best != null ? best.term : null;
+    }
+
+    private void rebuildSite(int siteId) {
+        try {
+            long started = System.nanoTime();
+            TreeMap<String, Long> terms = new TreeMap<>();
+            searchRepository.forEachLemmaFrequency(siteId, (lemma, frequency) -> terms.merge(normalize(lemma), (long) frequency, Long::sum));
+            if (terms.isEmpty()) {
+                // Сайт удален или еще не проиндексирован
+                sites.remove(siteId);
+                spelling.remove(siteId);
+                return;
+            }
+            sites.put(siteId, SuggestIndex.build(terms));
+            spelling.put(siteId, SpellingIndex.build(terms, searchSettings.getSpellingMaxDistance(),
+                    searchSettings.getSpellingPrefixLength()));
+            logger.info("Словарь подсказок сайта {} перестроен: {} слов за {} мс", siteId, terms.size(),
+                    (System.nanoTime() - started) / 1_000_000);
+        } catch (RuntimeException e) {
+            logger.error("Не удалось перестроить словарь подсказок сайта {}: {}", siteId, e.getMessage(), e);
+        }
+    }
+
+    private void rebuildGlobal() {
+        TreeMap<String, Long> terms = new TreeMap<>();
+        for (SuggestIndex index : sites.values()) {
+            index.forEach((term, weight) -> terms.merge(term, weight, Long::sum));
+        }
+        global = SuggestIndex.build(terms);
+    }
+
+    // Леммы и ввод сравниваются в нижнем регистре и без различия «е» и «ё», как в таблице lemma
+    private static String normalize(String word) {
+        return LemmaBatchRepository.collationKey(word.toLowerCase(Locale.ROOT));
+    }
+}
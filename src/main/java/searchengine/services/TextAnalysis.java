@@ -0,0 +1,174 @@
+package searchengine.services;
+
+import searchengine.repository.LemmaBatchRepository;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Результат разбора текста страницы при индексации: частоты лемм и вхождения слов — границы в тексте
+ * и нормальные формы. Из вхождений строится компактный список для {@code page_snippet}
+ * ({@link #encodeTokens(Map)}), по которому поиск строит фрагмент без разбора HTML и морфологии,
+ * и позиции лемм для связок index ({@link #encodePositions()}). Позиция — порядковый номер слова
+ * среди слов текста, включая слова без нормальных форм ({@link #skipWord()}), так что у соседних слов
+ * позиции отличаются на 1 и смещения слов фразы в запросе совпадают с позициями в тексте.
+ */
+public final class TextAnalysis {
+    private final Map<String, Integer> lemmaFrequencies = new HashMap<>();
+    private int[] starts = new int[64];
+    private int[] ends = new int[64];
+    private int[] positions = new int[64];
+    private final List<List<String>> tokenLemmas = new ArrayList<>();
+    private int nextPosition;
+
+    void addToken(int start, int end, List<String> normalForms) {
+        int index = tokenLemmas.size();
+        if (index == starts.length) {
+            starts = Arrays.copyOf(starts, index * 2);
+            ends = Arrays.copyOf(ends, index * 2);
+            positions = Arrays.copyOf(positions, index * 2);
+        }
+        starts[index] = start;
+        ends[index] = end;
+        positions[index] = nextPosition++;
+        tokenLemmas.add(normalForms);
+        for (String lemma : normalForms) {
+            lemmaFrequencies.merge(lemma, 1, Integer::sum);
+        }
+    }
+
+    // Слово без нормальных форм: лемм не дает, но занимает позицию
+    void skipWord() {
+        nextPosition++;
+    }
+
+    public Map<String, Integer> getLemmaFrequencies() {
+        return lemmaFrequencies;
+    }
+
+    // Число учтенных слов текста
+    public int getTokenCount() {
+        return tokenLemmas.size();
+    }
+
+    /**
+     * Позиции каждой леммы по ключу {@link LemmaBatchRepository#collationKey(String)}: по возрастанию,
+     * первая — как есть, остальные — разностью с предыдущей, в varint.
+     */
+    public Map<String, byte[]> encodePositions() {
+        Map<String, ByteArrayOutputStream> encoded = new HashMap<>();
+        Map<String, Integer> previous = new HashMap<>();
+        for (int i = 0; i < tokenLemmas.size(); i++) {
+            int position = positions[i];
+            for (String lemma : tokenLemmas.get(i)) {
+                String key = LemmaBatchRepository.collationKey(lemma);
+                Integer last = previous.put(key, position);
+                if (last != null && last == position) {
+                    // Две формы слова с одним ключом — позиция уже записана
+                    continue;
+                }
+                writeVarint(encoded.computeIfAbsent(key, k -> new ByteArrayOutputStream()),
+                        last == null ? position : position - last);
+            }
+        }
+        Map<String, byte[]> positions = new HashMap<>(encoded.size() * 2);
+        encoded.forEach((key, out) -> positions.put(key, out.toByteArray()));
+        return positions;
+    }
+
+    // Обратное к encodePositions для одной леммы
+    public static int[] decodePositions(byte[] encoded) {
+        int[] positions = new int[Math.max(4, encoded.length)];
+        int count = 0;
+        int[] offset = {0};
+        int position = 0;
+        while (offset[0] < encoded.length) {
+            position += readVarint(encoded, offset);
+            positions[count++] = position;
+        }
+        return Arrays.copyOf(positions, count);
+    }
+
+    /**
+     * Вхождения слов в виде varint: сдвиг начала слова от начала предыдущего, длина слова, число id лемм
+     * и сами id. lemmaIds — id лемм страницы по ключу {@link LemmaBatchRepository#collationKey(String)};
+     * слова без известных id пропускаются.
+     */
+    public byte[] encodeTokens(Map<String, Integer> lemmaIds) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(tokenLemmas.size() * 4);
+        int[] ids = new int[4];
+        int previousStart = 0;
+        for (int i = 0; i < tokenLemmas.size(); i++) {
+            List<String> forms = tokenLemmas.get(i);
+            int count = 0;
+            for (String lemma : forms) {
+                Integer id = lemmaIds.get(LemmaBatchRepository.collationKey(lemma));
+                if (id != null) {
+                    if (count == ids.length) {
+                        ids = Arrays.copyOf(ids, count * 2);
+                    }
+                    ids[count++] = id;
+                }
+            }
+            if (count == 0) {
+                continue;
+            }
+            writeVarint(out, starts[i] - previousStart);
+            writeVarint(out, ends[i] - starts[i]);
+            writeVarint(out, count);
+            for (int c = 0; c < count; c++) {
+                writeVarint(out, ids[c]);
+            }
+            previousStart = starts[i];
+        }
+        return out.toByteArray();
+    }
+
+    public interface TokenConsumer {
+        // Слово [start, end) текста и id его лемм: ids[0..count)
+        void accept(int start, int end, int[] ids, int count);
+    }
+
+    // Обход списка, записанного encodeTokens
+    public static void forEachToken(byte[] tokens, TokenConsumer consumer) {
+        int[] position = {0};
+        int[] ids = new int[4];
+        int start = 0;
+        while (position[0] < tokens.length) {
+            start += readVarint(tokens, position);
+            int length = readVarint(tokens, position);
+            int count = readVarint(tokens, position);
+            if (count > ids.length) {
+                ids = new int[count];
+            }
+            for (int c = 0; c < count; c++) {
+                ids[c] = readVarint(tokens, position);
+            }
+            consumer.accept(start, start + length, ids, count);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(byte[] data, int[] position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[position[0]++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
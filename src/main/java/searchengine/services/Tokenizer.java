@@ -0,0 +1,112 @@
+package searchengine.services;
+
+import java.util.Arrays;
+
+/**
+ * Разбиение текста на слова за один проход по символам, без регулярных выражений.
+ * Словом считается непрерывная последовательность букв (как у split("\\P{L}+")); буквы
+ * приводятся к нижнему регистру прямо в буфере, а алфавит слова (кириллица, латиница
+ * или прочее) определяется тут же, без matches(). Слово передается как CharSequence-представление
+ * буфера: оно действительно только внутри вызова и не должно сохраняться — нужен toString().
+ */
+public final class Tokenizer {
+
+    public enum Script { CYRILLIC, LATIN, OTHER }
+
+    public interface TokenConsumer {
+        void accept(CharSequence token, Script script);
+    }
+
+    // Вариант с границами слова в исходном тексте: [start, end)
+    public interface PositionalTokenConsumer {
+        void accept(CharSequence token, Script script, int start, int end);
+    }
+
+    private Tokenizer() {
+    }
+
+    public static void tokenize(CharSequence text, TokenConsumer consumer) {
+        tokenize(text, (PositionalTokenConsumer) (token, script, start, end) -> consumer.accept(token, script));
+    }
+
+    public static void tokenize(CharSequence text, PositionalTokenConsumer consumer) {
+        int length = text.length();
+        char[] buffer = new char[Math.min(Math.max(length, 16), 64)];
+        Token token = new Token();
+
+        int size = 0;
+        boolean cyrillic = true;
+        boolean latin = true;
+        for (int i = 0; i <= length; i++) {
+            char ch = i < length ? text.charAt(i) : ' ';
+            if (Character.isLetter(ch)) {
+                char lower = Character.toLowerCase(ch);
+                if (size == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                buffer[size++] = lower;
+                cyrillic &= isCyrillic(lower);
+                latin &= lower >= 'a' && lower <= 'z';
+            } else if (size > 0) {
+                token.reset(buffer, size);
+                consumer.accept(token, cyrillic ? Script.CYRILLIC : latin ? Script.LATIN : Script.OTHER, i - size, i);
+                size = 0;
+                cyrillic = true;
+                latin = true;
+            }
+        }
+    }
+
+    // Алфавит слова, уже приведенного к нижнему регистру
+    public static Script classify(CharSequence word) {
+        if (word.length() == 0) {
+            return Script.OTHER;
+        }
+        boolean cyrillic = true;
+        boolean latin = true;
+        for (int i = 0; i < word.length(); i++) {
+            char ch = word.charAt(i);
+            cyrillic &= isCyrillic(ch);
+            latin &= ch >= 'a' && ch <= 'z';
+        }
+        return cyrillic ? Script.CYRILLIC : latin ? Script.LATIN : Script.OTHER;
+    }
+
+    private static boolean isCyrillic(char ch) {
+        return (ch >= 'а' && ch <= 'я') || ch == 'ё';
+    }
+
+    // Представление части буфера; переиспользуется для каждого следующего слова
+    private static final class Token implements CharSequence {
+        private char[] buffer;
+        private int length;
+
+        void reset(char[] buffer, int length) {
+            this.buffer = buffer;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return buffer[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(buffer, 0, length);
+        }
+    }
+}
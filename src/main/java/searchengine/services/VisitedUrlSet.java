@@ -0,0 +1,287 @@
+package searchengine.services;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Множество посещенных URL одного обхода. Хранит не строки, а 64-битные отпечатки
+ * канонической формы URL в примитивных таблицах с открытой адресацией, разбитых на шарды.
+ * Повторные ссылки (самый частый случай) проверяются без блокировок; вставка блокирует
+ * только свой шард. Перед таблицами может стоять фильтр Блума: для новых URL он
+ * сразу говорит «точно не было» и избавляет от лишнего прохода по таблице. Фильтр
+ * растет вместе с множеством — от небольшого до заданного в настройках предела, — так что
+ * обход маленького сайта не держит в памяти фильтр, рассчитанный на миллион URL.
+ */
+public class VisitedUrlSet {
+
+    private static final int SHARD_BITS = 6;
+    private static final int SHARD_COUNT = 1 << SHARD_BITS;
+    private static final int INITIAL_SHARD_CAPACITY = 1024;
+    // Начальная емкость фильтра Блума; при заполнении он пересобирается вчетверо большим
+    private static final int INITIAL_BLOOM_URLS = 16_384;
+    private static final int BLOOM_GROWTH = 4;
+
+    private final Shard[] shards = new Shard[SHARD_COUNT];
+    private final int maxBloomUrls;
+    private final AtomicInteger count = new AtomicInteger();
+    private final Object bloomGrowthLock = new Object();
+    private volatile BloomFilter bloomFilter;
+
+    // maxExpectedUrls > 0 включает фильтр Блума (примерно 1% ложных срабатываний) и ограничивает его рост
+    public VisitedUrlSet(int maxExpectedUrls) {
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            shards[i] = new Shard(INITIAL_SHARD_CAPACITY);
+        }
+        this.maxBloomUrls = Math.max(0, maxExpectedUrls);
+        this.bloomFilter = maxBloomUrls > 0 ? new BloomFilter(Math.min(INITIAL_BLOOM_URLS, maxBloomUrls)) : null;
+    }
+
+    // Добавляет каноническую форму URL; false, если такой URL уже был
+    public boolean add(String canonicalUrl) {
+        return addFingerprint(fingerprint(canonicalUrl));
+    }
+
+    // Точная проверка по таблице: во время пересборки фильтр может еще не знать о части URL
+    public boolean contains(String canonicalUrl) {
+        long fingerprint = fingerprint(canonicalUrl);
+        return shardFor(fingerprint).contains(fingerprint);
+    }
+
+    // Фильтр здесь лишь подсказка: при ложном «не было» вставка в шард все равно найдет дубль
+    public boolean addFingerprint(long fingerprint) {
+        Shard shard = shardFor(fingerprint);
+        BloomFilter filter = bloomFilter;
+        boolean maybePresent = filter == null || filter.mightContain(fingerprint);
+        if (maybePresent && shard.contains(fingerprint)) {
+            return false;
+        }
+        boolean added = shard.add(fingerprint);
+        if (added && filter != null) {
+            // Перечитывается после вставки в шард: отпечаток не должен попасть только в уже замененный фильтр
+            BloomFilter target = bloomFilter;
+            target.put(fingerprint);
+            if (count.incrementAndGet() > target.capacity) {
+                growBloomFilter();
+            }
+        }
+        return added;
+    }
+
+    // Новый фильтр заполняется из шардов дважды: до подмены и после нее, чтобы не потерять отпечатки,
+    // записанные в старый фильтр во время первого прохода
+    private void growBloomFilter() {
+        synchronized (bloomGrowthLock) {
+            BloomFilter current = bloomFilter;
+            if (count.get() <= current.capacity || current.capacity >= maxBloomUrls) {
+                return;
+            }
+            BloomFilter grown = new BloomFilter((int) Math.min((long) current.capacity * BLOOM_GROWTH, maxBloomUrls));
+            fillFromShards(grown);
+            bloomFilter = grown;
+            fillFromShards(grown);
+        }
+    }
+
+    private void fillFromShards(BloomFilter filter) {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                for (long value : shard.table) {
+                    if (value != 0) {
+                        filter.put(value);
+                    }
+                }
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.size;
+        }
+        return size;
+    }
+
+    // Все отпечатки — для сохранения контрольной точки обхода
+    public long[] toFingerprintArray() {
+        long[] result = new long[size()];
+        int count = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                for (long value : shard.table) {
+                    if (value != 0) {
+                        if (count == result.length) {
+                            result = Arrays.copyOf(result, result.length * 2 + 16);
+                        }
+                        result[count++] = value;
+                    }
+                }
+            }
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    private Shard shardFor(long fingerprint) {
+        return shards[(int) (fingerprint >>> (64 - SHARD_BITS))];
+    }
+
+    // Каноническая форма: схема и хост в нижнем регистре, без фрагмента, порта по умолчанию и завершающего слэша
+    public static String canonicalize(String url) {
+        try {
+            URI uri = new URI(url.trim());
+            String scheme = uri.getScheme() == null ? "http" : uri.getScheme().toLowerCase(Locale.ROOT);
+            String host = uri.getHost() == null ? "" : uri.getHost().toLowerCase(Locale.ROOT);
+            int port = uri.getPort();
+            if (("http".equals(scheme) && port == 80) || ("https".equals(scheme) && port == 443)) {
+                port = -1;
+            }
+            String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+            if (path.length() > 1 && path.endsWith("/")) {
+                path = path.substring(0, path.length() - 1);
+            }
+            StringBuilder canonical = new StringBuilder(url.length())
+                    .append(scheme).append("://").append(host);
+            if (port != -1) {
+                canonical.append(':').append(port);
+            }
+            canonical.append(path);
+            if (uri.getRawQuery() != null) {
+                canonical.append('?').append(uri.getRawQuery());
+            }
+            return canonical.toString();
+        } catch (Exception e) {
+            int fragment = url.indexOf('#');
+            return fragment >= 0 ? url.substring(0, fragment) : url;
+        }
+    }
+
+    // FNV-1a по байтам UTF-8 с финальным перемешиванием; 0 зарезервирован под пустую ячейку
+    public static long fingerprint(String canonicalUrl) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : canonicalUrl.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash = mix(hash);
+        return hash == 0 ? 1 : hash;
+    }
+
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // Таблица с линейным пробированием; читатели работают без блокировки по volatile-ссылке на массив
+    private static final class Shard {
+        private volatile long[] table;
+        private volatile int size;
+
+        Shard(int capacity) {
+            this.table = new long[capacity];
+        }
+
+        boolean contains(long fingerprint) {
+            long[] current = table;
+            int mask = current.length - 1;
+            for (int i = (int) fingerprint & mask; ; i = (i + 1) & mask) {
+                long value = current[i];
+                if (value == 0) {
+                    return false;
+                }
+                if (value == fingerprint) {
+                    return true;
+                }
+            }
+        }
+
+        synchronized boolean add(long fingerprint) {
+            long[] current = table;
+            if ((size + 1) * 10L > current.length * 7L) {
+                current = resize(current);
+            }
+            if (!insert(current, fingerprint)) {
+                return false;
+            }
+            size++;
+            return true;
+        }
+
+        private long[] resize(long[] current) {
+            long[] resized = new long[current.length * 2];
+            for (long value : current) {
+                if (value != 0) {
+                    insert(resized, value);
+                }
+            }
+            table = resized;
+            return resized;
+        }
+
+        private static boolean insert(long[] target, long fingerprint) {
+            int mask = target.length - 1;
+            for (int i = (int) fingerprint & mask; ; i = (i + 1) & mask) {
+                long value = target[i];
+                if (value == fingerprint) {
+                    return false;
+                }
+                if (value == 0) {
+                    target[i] = fingerprint;
+                    return true;
+                }
+            }
+        }
+    }
+
+    private static final class BloomFilter {
+        private static final int HASH_COUNT = 7;
+
+        private final AtomicLongArray bits;
+        private final long bitCount;
+        // Сколько URL фильтр рассчитан держать при ~1% ложных срабатываний
+        private final int capacity;
+
+        BloomFilter(int expectedUrls) {
+            this.capacity = expectedUrls;
+            long words = Math.max(1, ((long) expectedUrls * 10 + 63) >>> 6);
+            this.bits = new AtomicLongArray((int) Math.min(words, Integer.MAX_VALUE - 8));
+            this.bitCount = (long) bits.length() << 6;
+        }
+
+        boolean mightContain(long fingerprint) {
+            long h1 = fingerprint;
+            long h2 = mix(fingerprint ^ 0x9e3779b97f4a7c15L);
+            for (int i = 0; i < HASH_COUNT; i++) {
+                long bit = Math.floorMod(h1 + i * h2, bitCount);
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void put(long fingerprint) {
+            long h1 = fingerprint;
+            long h2 = mix(fingerprint ^ 0x9e3779b97f4a7c15L);
+            for (int i = 0; i < HASH_COUNT; i++) {
+                long bit = Math.floorMod(h1 + i * h2, bitCount);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long current;
+                do {
+                    current = bits.get(word);
+                    if ((current & mask) != 0) {
+                        break;
+                    }
+                } while (!bits.compareAndSet(word, current, current | mask));
+            }
+        }
+    }
+}
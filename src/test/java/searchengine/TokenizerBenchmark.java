@@ -0,0 +1,75 @@
+package searchengine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import searchengine.services.Tokenizer;
+
+import java.util.concurrent.TimeUnit;
+
+// JMH-сравнение прежнего разбиения текста (toLowerCase + split + matches) с Tokenizer на тексте страницы.
+// Лежит в тестовых исходниках, чтобы не попадать в собираемый jar; main() запускает оба замера
+// с GCProfiler — он показывает выделенную память на проход (gc.alloc.rate.norm)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+
+    private String text;
+
+    @Setup
+    public void setUp() {
+        String paragraph = "Повторное появление леопарда в Осетии позволяет предположить, что леопард "
+                + "постоянно обитает в некоторых районах Северного Кавказа. The repeated appearance of the "
+                + "leopard in Ossetia suggests that the leopard constantly lives in some areas of the North "
+                + "Caucasus. Цена: 1 990 руб., артикул AB-12/34, e-mail: shop@example.ru — «Доставка» 24/7! ";
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            builder.append(paragraph);
+        }
+        text = builder.toString();
+    }
+
+    // Прежний код лемматизации без обращения к словарю: слова, которые ушли бы в морфологию
+    @Benchmark
+    public void regexSplitMatches(Blackhole blackhole) {
+        for (String word : text.toLowerCase().split("\\P{L}+")) {
+            if (word.length() < 2) continue;
+            if (word.matches("[а-яё]+") || word.matches("[a-z]+")) {
+                blackhole.consume(word);
+            }
+        }
+    }
+
+    @Benchmark
+    public void tokenizer(Blackhole blackhole) {
+        Tokenizer.tokenize(text, (token, script) -> {
+            if (token.length() >= 2 && script != Tokenizer.Script.OTHER) {
+                blackhole.consume(token);
+                blackhole.consume(script);
+            }
+        });
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TokenizerBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,140 @@
+package searchengine.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static searchengine.services.PostingListTest.read;
+
+class IndexSegmentTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void writtenListsReadBackFromMappedFile() throws IOException {
+        Map<Integer, Map<Integer, Integer>> postings = new TreeMap<>();
+        postings.put(3, pages(1, 1, 5, 2, 700_000, 300));
+        postings.put(7, range(10, 10 + 3 * PostingList.BLOCK_SIZE, 1));
+        postings.put(9, new TreeMap<>());
+
+        IndexSegment segment = write(directory.resolve("1.seg"), postings);
+
+        assertEquals(2, segment.termCount());
+        assertEquals(3 + 3 * PostingList.BLOCK_SIZE, segment.postingCount());
+        assertEquals(3, segment.lemmaIdAt(0));
+        assertEquals(7, segment.lemmaIdAt(1));
+        assertEquals(postings.get(3), read(segment.cursor(3)));
+        assertEquals(postings.get(7), read(segment.cursor(7)));
+        assertEquals(3 * PostingList.BLOCK_SIZE, segment.docCount(7));
+        // Пустой список в сегмент не пишется
+        assertNull(segment.cursor(9));
+        assertNull(segment.cursor(4));
+        assertEquals(0, segment.docCount(4));
+        assertFalse(Files.exists(directory.resolve("1.seg.tmp")));
+    }
+
+    @Test
+    void advanceSkipsBlocksByTheirHeaders() throws IOException {
+        IndexSegment segment = write(directory.resolve("1.seg"), Map.of(1, range(1, 1_001, 2)));
+
+        PostingCursor cursor = segment.cursor(1);
+        assertTrue(cursor.advance(2));
+        assertEquals(3, cursor.pageId());
+        assertTrue(cursor.advance(3));
+        assertEquals(3, cursor.pageId());
+        assertTrue(cursor.advance(900));
+        assertEquals(901, cursor.pageId());
+        assertTrue(cursor.next());
+        assertEquals(903, cursor.pageId());
+        assertFalse(cursor.advance(1_000));
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    void deletedPagesAreHiddenAndPersisted() throws IOException {
+        Path path = directory.resolve("1.seg");
+        Map<Integer, Map<Integer, Integer>> postings = new TreeMap<>();
+        postings.put(1, range(1, 300, 1));
+        postings.put(2, pages(100, 4, 200, 5));
+        IndexSegment segment = write(path, postings);
+
+        assertEquals(299, segment.liveDocCount(1));
+        assertTrue(segment.delete(100, List.of(1, 2)));
+        assertFalse(segment.delete(100, List.of(1, 2)));
+        // За пределами диапазона page_id сегмента удалять нечего
+        assertFalse(segment.delete(5_000));
+        assertTrue(segment.delete(150));
+
+        assertTrue(segment.isDeleted(100));
+        assertEquals(2, segment.deletedCount());
+        assertEquals(297, segment.liveDocCount(1));
+        assertEquals(1, segment.liveDocCount(2));
+        assertEquals(299, segment.docCount(1));
+        Map<Integer, Integer> live = read(segment.cursor(1));
+        assertFalse(live.containsKey(100));
+        assertFalse(live.containsKey(150));
+        assertEquals(pages(200, 5), read(segment.cursor(2)));
+        PostingCursor cursor = segment.cursor(2);
+        assertTrue(cursor.advance(100));
+        assertEquals(200, cursor.pageId());
+
+        // Удаление с леммами страницы уменьшает уже посчитанные живые счетчики на месте
+        assertTrue(segment.delete(200, List.of(1, 2)));
+        assertEquals(296, segment.liveDocCount(1));
+        assertEquals(0, segment.liveDocCount(2));
+
+        segment.writeDeletions();
+        IndexSegment reopened = IndexSegment.open(1, path);
+        assertEquals(3, reopened.deletedCount());
+        assertTrue(reopened.isDeleted(150));
+        assertEquals(296, reopened.liveDocCount(1));
+    }
+
+    @Test
+    void corruptedFileIsRejected() throws IOException {
+        Path path = directory.resolve("1.seg");
+        Files.write(path, new byte[64]);
+        assertThrows(IOException.class, () -> IndexSegment.open(1, path));
+    }
+
+    static IndexSegment write(Path path, Map<Integer, Map<Integer, Integer>> postings) throws IOException {
+        int[] lemmaIds = new TreeMap<>(postings).keySet().stream().mapToInt(Integer::intValue).toArray();
+        return IndexSegment.write(1, path, lemmaIds, lemmaId -> toList(postings.get(lemmaId)).cursor());
+    }
+
+    static PostingList toList(Map<Integer, Integer> pages) {
+        PostingList list = new PostingList();
+        new TreeMap<>(pages).forEach(list::add);
+        return list;
+    }
+
+    // Пары page_id, rank
+    static Map<Integer, Integer> pages(int... pairs) {
+        Map<Integer, Integer> pages = new TreeMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            pages.put(pairs[i], pairs[i + 1]);
+        }
+        return pages;
+    }
+
+    // Страницы from, from + step, ... меньше to с rank, равным page_id
+    static Map<Integer, Integer> range(int from, int to, int step) {
+        Map<Integer, Integer> pages = new TreeMap<>();
+        for (int pageId = from; pageId < to; pageId += step) {
+            pages.put(pageId, pageId);
+        }
+        return pages;
+    }
+}
@@ -0,0 +1,53 @@
+package searchengine.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static searchengine.services.IndexSegmentTest.pages;
+import static searchengine.services.IndexSegmentTest.toList;
+import static searchengine.services.PostingListTest.read;
+
+class MergedPostingCursorTest {
+
+    @Test
+    void mergesSourcesByPageIdAndNewestWins() {
+        PostingCursor newest = toList(pages(2, 20, 6, 60)).cursor();
+        PostingCursor middle = toList(pages(1, 1, 2, 2, 4, 4)).cursor();
+        PostingCursor oldest = toList(pages(2, 3, 4, 5, 8, 8)).cursor();
+
+        Map<Integer, Integer> merged = read(MergedPostingCursor.of(List.of(newest, middle, oldest)));
+
+        assertEquals(pages(1, 1, 2, 20, 4, 4, 6, 60, 8, 8), merged);
+    }
+
+    @Test
+    void advanceMovesEverySourcePastTarget() {
+        PostingCursor cursor = MergedPostingCursor.of(List.of(
+                toList(pages(5, 1, 50, 1)).cursor(),
+                toList(pages(10, 2, 40, 2, 60, 2)).cursor()));
+
+        assertTrue(cursor.advance(11));
+        assertEquals(40, cursor.pageId());
+        assertEquals(2, cursor.rank());
+        assertTrue(cursor.advance(40));
+        assertEquals(40, cursor.pageId());
+        assertTrue(cursor.next());
+        assertEquals(50, cursor.pageId());
+        assertTrue(cursor.next());
+        assertEquals(60, cursor.pageId());
+        assertFalse(cursor.next());
+        assertFalse(cursor.advance(1));
+    }
+
+    @Test
+    void singleSourceIsNotWrapped() {
+        PostingCursor source = toList(pages(1, 1)).cursor();
+        assertSame(source, MergedPostingCursor.of(List.of(source)));
+    }
+}
@@ -0,0 +1,136 @@
+package searchengine.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PostingListTest {
+
+    @Test
+    void emptyListHasNoEntries() {
+        PostingList list = new PostingList();
+        PostingCursor cursor = list.cursor();
+        assertEquals(0, list.size());
+        assertFalse(cursor.next());
+        assertFalse(list.cursor().advance(1));
+        assertFalse(list.remove(1));
+    }
+
+    @Test
+    void sortedAppendsRoundTripAcrossBlocks() {
+        // Разности и ранги во всех длинах varint: 1, 2, 3 и 5 байт
+        Map<Integer, Integer> expected = new TreeMap<>();
+        PostingList list = new PostingList();
+        int pageId = 0;
+        int[] steps = {1, 127, 128, 16_383, 16_384, 1 << 28};
+        for (int i = 0; i < 3 * PostingList.BLOCK_SIZE + 5; i++) {
+            pageId += steps[i % steps.length] % 100_000 + 1;
+            int rank = steps[(i + 3) % steps.length];
+            list.add(pageId, rank);
+            expected.put(pageId, rank);
+        }
+        assertEquals(expected.size(), list.size());
+        assertEquals(expected, read(list.cursor()));
+    }
+
+    @Test
+    void outOfOrderAddsSplitBlocksAndKeepOrder() {
+        List<Integer> pageIds = new ArrayList<>();
+        for (int i = 1; i <= 1_000; i++) {
+            pageIds.add(i * 3);
+        }
+        Collections.shuffle(pageIds, new Random(42));
+
+        PostingList list = new PostingList();
+        Map<Integer, Integer> expected = new TreeMap<>();
+        for (int pageId : pageIds) {
+            list.add(pageId, pageId % 7 + 1);
+            expected.put(pageId, pageId % 7 + 1);
+        }
+        assertEquals(expected, read(list.cursor()));
+    }
+
+    @Test
+    void addOfKnownPageReplacesRank() {
+        PostingList list = new PostingList();
+        for (int pageId = 1; pageId <= 300; pageId++) {
+            list.add(pageId, 1);
+        }
+        list.add(150, 9);
+        list.add(300, 4);
+
+        Map<Integer, Integer> entries = read(list.cursor());
+        assertEquals(300, list.size());
+        assertEquals(9, entries.get(150));
+        assertEquals(4, entries.get(300));
+    }
+
+    @Test
+    void removeDropsPagesAndEmptiedBlocks() {
+        PostingList list = new PostingList();
+        Map<Integer, Integer> expected = new TreeMap<>();
+        for (int pageId = 1; pageId <= 2 * PostingList.BLOCK_SIZE + 1; pageId++) {
+            list.add(pageId, pageId);
+            expected.put(pageId, pageId);
+        }
+        // Последний блок состоит из одной страницы и исчезает целиком
+        int last = 2 * PostingList.BLOCK_SIZE + 1;
+        assertTrue(list.remove(last));
+        assertTrue(list.remove(1));
+        assertTrue(list.remove(PostingList.BLOCK_SIZE + 10));
+        assertFalse(list.remove(PostingList.BLOCK_SIZE + 10));
+        assertFalse(list.remove(last + 100));
+        expected.remove(last);
+        expected.remove(1);
+        expected.remove(PostingList.BLOCK_SIZE + 10);
+
+        assertEquals(expected.size(), list.size());
+        assertEquals(expected, read(list.cursor()));
+    }
+
+    @Test
+    void advanceSkipsBlocksAndStaysOnCurrentPage() {
+        int[] pageIds = new int[1_000];
+        int[] ranks = new int[1_000];
+        for (int i = 0; i < pageIds.length; i++) {
+            pageIds[i] = (i + 1) * 10;
+            ranks[i] = i;
+        }
+        PostingList list = PostingList.of(pageIds, ranks, pageIds.length);
+
+        PostingList.Cursor cursor = list.cursor();
+        assertTrue(cursor.advance(5));
+        assertEquals(10, cursor.pageId());
+        assertTrue(cursor.advance(10));
+        assertEquals(10, cursor.pageId());
+        assertTrue(cursor.advance(5_005));
+        assertEquals(5_010, cursor.pageId());
+        assertEquals(500, cursor.rank());
+        assertTrue(cursor.next());
+        assertEquals(5_020, cursor.pageId());
+        assertTrue(cursor.advance(10_000));
+        assertEquals(10_000, cursor.pageId());
+        assertFalse(cursor.advance(10_001));
+        assertFalse(cursor.next());
+    }
+
+    static Map<Integer, Integer> read(PostingCursor cursor) {
+        Map<Integer, Integer> entries = new TreeMap<>();
+        int previous = Integer.MIN_VALUE;
+        while (cursor != null && cursor.next()) {
+            assertTrue(cursor.pageId() > previous, "page_id должны возрастать");
+            previous = cursor.pageId();
+            entries.put(cursor.pageId(), cursor.rank());
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,148 @@
+package searchengine.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static searchengine.services.IndexSegmentTest.pages;
+import static searchengine.services.IndexSegmentTest.range;
+import static searchengine.services.IndexSegmentTest.toList;
+import static searchengine.services.PostingListTest.read;
+
+class SegmentStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void mergeKeepsNewestVersionAndDropsDeletedPages() throws IOException {
+        SegmentStore store = open(2);
+        add(store, Map.of(1, pages(1, 1, 2, 1, 3, 1), 2, pages(3, 7)));
+        add(store, Map.of(1, pages(2, 5, 4, 1)));
+        // Удаление отмечается во всех сегментах, где есть страница
+        store.delete(3, List.of(1, 2));
+
+        assertTrue(store.mergeOnce(lemmaId -> true));
+        assertFalse(store.mergeOnce(lemmaId -> true));
+
+        List<IndexSegment> segments = store.segments();
+        assertEquals(1, segments.size());
+        IndexSegment merged = segments.get(0);
+        assertEquals(pages(1, 1, 2, 5, 4, 1), read(merged.cursor(1)));
+        // Лемма без живых страниц в слитый сегмент не попадает
+        assertNull(merged.cursor(2));
+        assertEquals(0, merged.deletedCount());
+        try (var files = Files.list(directory)) {
+            assertEquals(1, files.filter(file -> file.toString().endsWith(".seg")).count());
+        }
+    }
+
+    @Test
+    void mergeDropsLemmasOfRemovedSites() throws IOException {
+        SegmentStore store = open(2);
+        add(store, Map.of(1, pages(1, 1), 2, pages(1, 1)));
+        add(store, Map.of(1, pages(2, 1), 2, pages(2, 1)));
+
+        assertTrue(store.mergeOnce(lemmaId -> lemmaId != 2));
+
+        IndexSegment merged = store.segments().get(0);
+        assertEquals(pages(1, 1, 2, 1), read(merged.cursor(1)));
+        assertNull(merged.cursor(2));
+    }
+
+    @Test
+    void mergeWaitsForMergeFactorSegments() throws IOException {
+        SegmentStore store = open(3);
+        add(store, Map.of(1, pages(1, 1)));
+        add(store, Map.of(1, pages(2, 1)));
+        assertFalse(store.mergeOnce(lemmaId -> true));
+
+        add(store, Map.of(1, pages(3, 1)));
+        assertTrue(store.mergeOnce(lemmaId -> true));
+        assertEquals(pages(1, 1, 2, 1, 3, 1), read(store.segments().get(0).cursor(1)));
+    }
+
+    @Test
+    void pageDeletedWhileFlushingIsDeletedInNewSegment() throws IOException {
+        SegmentStore store = open(4);
+        add(store, Map.of(1, pages(1, 1, 2, 1)));
+
+        // Так PostingIndex.removePage ведет себя во время сброса: старые сегменты получают отметку сразу,
+        // а страница из записываемого буфера запоминается до публикации нового сегмента
+        Set<Integer> deletedWhileWriting = ConcurrentHashMap.newKeySet();
+        Map<Integer, Integer> buffered = range(2, 6, 1);
+        IndexSegment flushed = store.add(new int[]{1}, lemmaId -> {
+            store.delete(4, List.of(1));
+            deletedWhileWriting.add(4);
+            return toList(buffered).cursor();
+        }, deletedWhileWriting);
+
+        assertTrue(flushed.isDeleted(4));
+        assertEquals(3, flushed.liveDocCount(1));
+        assertEquals(2, store.segments().size());
+        assertEquals(flushed, store.segments().get(0));
+
+        // Поиск читает сегменты от нового к старому: страница 2 берется из сброшенного буфера
+        List<PostingCursor> cursors = new ArrayList<>();
+        for (IndexSegment segment : store.segments()) {
+            cursors.add(segment.cursor(1));
+        }
+        assertEquals(pages(1, 1, 2, 2, 3, 3, 5, 5), read(MergedPostingCursor.of(cursors)));
+    }
+
+    @Test
+    void cleanStoreReopensWithSegmentsAndDeletions() throws IOException {
+        SegmentStore store = open(4);
+        add(store, Map.of(1, pages(1, 1, 2, 2, 3, 3)));
+        store.delete(2, List.of(1));
+        store.markClean();
+
+        SegmentStore reopened = new SegmentStore(directory, 4, Long.MAX_VALUE);
+        assertTrue(reopened.open());
+        assertTrue(reopened.isClean());
+        assertEquals(pages(1, 1, 3, 3), read(reopened.segments().get(0).cursor(1)));
+
+        // Следующий сегмент получает новый id и не затирает прежний
+        add(reopened, Map.of(1, pages(4, 4)));
+        assertEquals(2, reopened.segments().size());
+    }
+
+    @Test
+    void storeWithoutCleanMarkerIsDiscarded() throws IOException {
+        SegmentStore store = open(4);
+        add(store, Map.of(1, pages(1, 1)));
+        store.markClean();
+        store.markDirty();
+
+        SegmentStore reopened = new SegmentStore(directory, 4, Long.MAX_VALUE);
+        assertFalse(reopened.open());
+        assertTrue(reopened.segments().isEmpty());
+        try (var files = Files.list(directory)) {
+            assertEquals(0, files.filter(file -> file.toString().contains(".seg")).count());
+        }
+    }
+
+    private SegmentStore open(int mergeFactor) throws IOException {
+        SegmentStore store = new SegmentStore(directory, mergeFactor, Long.MAX_VALUE);
+        store.open();
+        return store;
+    }
+
+    private static IndexSegment add(SegmentStore store, Map<Integer, Map<Integer, Integer>> postings) throws IOException {
+        int[] lemmaIds = new TreeMap<>(postings).keySet().stream().mapToInt(Integer::intValue).toArray();
+        return store.add(lemmaIds, lemmaId -> toList(postings.get(lemmaId)).cursor(), Set.of());
+    }
+}
@@ -0,0 +1,63 @@
+package searchengine.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SpellingIndexTest {
+
+    @Test
+    void distanceCountsEditsAndAdjacentTranspositions() {
+        assertEquals(0, SpellingIndex.distance("леопард", "леопард", 2));
+        assertEquals(1, SpellingIndex.distance("леопард", "леапард", 2));
+        assertEquals(1, SpellingIndex.distance("леопард", "леопрад", 2));
+        assertEquals(1, SpellingIndex.distance("леопард", "леопарды", 2));
+        assertEquals(1, SpellingIndex.distance("леопард", "лопард", 2));
+        assertEquals(2, SpellingIndex.distance("леопард", "лиапард", 2));
+        // Вариант с ограниченной перестановкой: переставленная пара больше не правится
+        assertEquals(3, SpellingIndex.distance("ca", "abc", 3));
+        assertEquals(3, SpellingIndex.distance("", "abc", 5));
+        assertEquals(3, SpellingIndex.distance("abc", "", 5));
+    }
+
+    @Test
+    void distanceStopsAtLimit() {
+        assertEquals(3, SpellingIndex.distance("леопард", "кавказ", 2));
+        assertEquals(2, SpellingIndex.distance("abcdef", "badcfe", 1));
+        assertEquals(3, SpellingIndex.distance("abcdef", "badcfe", 3));
+    }
+
+    @Test
+    void correctionPrefersClosestThenMostFrequentTerm() {
+        Map<String, Long> terms = new TreeMap<>();
+        terms.put("леопард", 50L);
+        terms.put("леопарды", 5L);
+        terms.put("кавказ", 30L);
+        terms.put("кавказа", 40L);
+        SpellingIndex index = SpellingIndex.build(terms, 2, 7);
+
+        assertEquals("леопард", index.correct("леапард").term);
+        assertEquals(1, index.correct("леапард").distance);
+        assertEquals("леопард", index.correct("леопрад").term);
+        // Оба варианта в одной правке: выигрывает более частый
+        assertEquals("кавказа", index.correct("кавказс").term);
+        assertEquals("кавказ", index.correct("кафказ").term);
+        assertNull(index.correct("ягуар"));
+    }
+
+    @Test
+    void shortWordsAllowOnlyOneEdit() {
+        Map<String, Long> terms = new TreeMap<>();
+        terms.put("кот", 10L);
+        terms.put("котел", 10L);
+        SpellingIndex index = SpellingIndex.build(terms, 2, 7);
+
+        assertEquals("кот", index.correct("кит").term);
+        assertNull(index.correct("кан"));
+        assertEquals("котел", index.correct("катэл").term);
+    }
+}
@@ -0,0 +1,117 @@
+package searchengine.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VisitedUrlSetTest {
+
+    @Test
+    void growingPastInitialBloomCapacityKeepsEveryUrl() {
+        // Фильтр Блума пересобирается несколько раз: 16K → 64K → до предела 200K
+        VisitedUrlSet visited = new VisitedUrlSet(200_000);
+        int count = 150_000;
+        for (int i = 0; i < count; i++) {
+            assertTrue(visited.add(url(i)));
+        }
+        for (int i = 0; i < count; i++) {
+            assertFalse(visited.add(url(i)));
+            assertTrue(visited.contains(url(i)));
+        }
+        assertEquals(count, visited.size());
+        assertFalse(visited.contains(url(count)));
+        assertTrue(visited.add(url(count)));
+    }
+
+    @Test
+    void filterCappedBelowSetSizeStaysExact() {
+        VisitedUrlSet visited = new VisitedUrlSet(1_000);
+        for (int i = 0; i < 20_000; i++) {
+            assertTrue(visited.add(url(i)));
+        }
+        for (int i = 0; i < 20_000; i++) {
+            assertFalse(visited.add(url(i)));
+        }
+        assertEquals(20_000, visited.size());
+    }
+
+    @Test
+    void setWithoutFilterStaysExact() {
+        VisitedUrlSet visited = new VisitedUrlSet(0);
+        for (int i = 0; i < 5_000; i++) {
+            assertTrue(visited.add(url(i)));
+        }
+        assertFalse(visited.add(url(42)));
+        assertEquals(5_000, visited.size());
+    }
+
+    @Test
+    void concurrentAddsDuringGrowthAcceptEachUrlOnce() throws Exception {
+        VisitedUrlSet visited = new VisitedUrlSet(1_000_000);
+        int count = 60_000;
+        AtomicInteger accepted = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int offset = t * 7_919;
+                tasks.add(executor.submit(() -> {
+                    for (int i = 0; i < count; i++) {
+                        if (visited.add(url((i + offset) % count))) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(count, accepted.get());
+        assertEquals(count, visited.size());
+        for (int i = 0; i < count; i++) {
+            assertFalse(visited.add(url(i)));
+        }
+    }
+
+    @Test
+    void fingerprintsRestoreTheSameSet() {
+        VisitedUrlSet visited = new VisitedUrlSet(100_000);
+        for (int i = 0; i < 30_000; i++) {
+            visited.add(url(i));
+        }
+        long[] fingerprints = visited.toFingerprintArray();
+        assertEquals(30_000, fingerprints.length);
+
+        VisitedUrlSet restored = new VisitedUrlSet(100_000);
+        for (long fingerprint : fingerprints) {
+            assertTrue(restored.addFingerprint(fingerprint));
+        }
+        for (int i = 0; i < 30_000; i++) {
+            assertFalse(restored.add(url(i)));
+        }
+        assertTrue(restored.add(url(30_000)));
+    }
+
+    @Test
+    void canonicalFormIgnoresCaseFragmentDefaultPortAndTrailingSlash() {
+        assertEquals("https://example.ru/catalog?page=2",
+                VisitedUrlSet.canonicalize("HTTPS://Example.RU:443/catalog/?page=2#top"));
+        assertEquals("http://example.ru/", VisitedUrlSet.canonicalize("http://example.ru"));
+    }
+
+    private static String url(int i) {
+        return VisitedUrlSet.canonicalize("https://example.ru/catalog/item-" + i);
+    }
+}